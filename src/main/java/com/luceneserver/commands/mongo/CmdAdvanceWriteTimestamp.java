@@ -20,6 +20,11 @@ public class CmdAdvanceWriteTimestamp extends Command{
         super("advanceWriteTimestamp");
     }
 
+    @Override
+    public ExecutionLane getLane() {
+        return ExecutionLane.WRITE;
+    }
+
     /*
      * {
      *     "advanceWriteTimestamp": 1,
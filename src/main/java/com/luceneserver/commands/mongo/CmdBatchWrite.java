@@ -1,108 +1,188 @@
 package com.luceneserver.commands.mongo;
 
+import com.luceneserver.protocol.mongo.BsonVectors;
+import com.luceneserver.protocol.mongo.DocumentSequence;
 import com.luceneserver.protocol.mongo.MongoMessage;
 import com.luceneserver.server.mongo.MongoServer;
 import com.luceneserver.storage.HnswIndexAccess;
 import com.luceneserver.storage.IndexAccess;
+import com.luceneserver.storage.TextFieldTypes;
 import com.luceneserver.storage.WriteBatch;
 import io.netty.channel.ChannelHandlerContext;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.lucene.index.IndexOptions;
-import org.bson.BsonBinaryWriter;
+import org.apache.lucene.index.VectorEncoding;
+import org.bson.BsonBinaryReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
 import org.bson.BsonDocument;
 import org.bson.BsonValue;
 import org.bson.RawBsonDocument;
-import org.bson.io.BasicOutputBuffer;
+import org.bson.codecs.BsonDocumentCodec;
+import org.bson.io.ByteBufferBsonInput;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Iterator;
 
+import static com.luceneserver.transport.mongo.TransportConstants.MAX_WRITE_BATCH_SIZE;
 import static org.bson.codecs.configuration.CodecRegistries.fromProviders;
 import static org.bson.codecs.configuration.CodecRegistries.fromRegistries;
 
-public class CmdBatchWrite extends Command {
+public class CmdBatchWrite extends StreamingCommand {
     private static final Logger log = LogManager.getLogger(CmdBatchWrite.class);
 
     public CmdBatchWrite() {
         super("batchWrite");
     }
 
-    private WriteBatch.Op parseHNSWOp(BsonDocument d) {
+    @Override
+    public ExecutionLane getLane() {
+        return ExecutionLane.WRITE;
+    }
+
+    private WriteBatch.Op parseHNSWOp(HnswIndexAccess ia, BsonDocument d) {
         final WriteBatch.HnswOp op = new WriteBatch.HnswOp();
-        List<BsonValue> bsonVec = d.getArray("vector", null);
-        if (bsonVec != null) {
-            float[] vec = new float[bsonVec.size()];
-            int j = 0;
-            for (BsonValue bf : bsonVec) {
-                vec[j++] = (float)bf.asDouble().getValue();
+        BsonVectors.Vector vec = BsonVectors.read(d, "vector");
+        if (vec != null) {
+            if (ia.getVectorEncoding() == VectorEncoding.BYTE) {
+                op.byteVector = vec.asBytes();
+            } else {
+                op.vector = vec.asFloats();
             }
-            op.vector = vec;
         }
         return op;
     }
 
-    private WriteBatch.Op parseSearchOp(BsonDocument d) {
+    /*
+     * NOTE(deyukong): iterating a RawBsonDocument decodes all of it into a BsonDocument first, the fields of
+     * a search op are rather read straight off its bytes, allocating little more than the strings handed to
+     * lucene. An op looks like
+     *     {op: "i", id: "1", title: {data: "...", options: {indexOptions: "positions", norms: "include", store: false}}}
+     */
+    static WriteBatch.SearchOp parseSearchOp(BsonDocument d) {
         final WriteBatch.SearchOp op = new WriteBatch.SearchOp();
-        List<WriteBatch.SearchOp.Field> fields = new ArrayList<>();
-        d.forEach((fname, fval) -> {
-            if (fname.equals("op") || fname.equals("id")) {
-                return;
-            }
-            BsonDocument fdoc = fval.asDocument();
-            BsonDocument options = fdoc.getDocument("options");
-            WriteBatch.SearchOp.Field field = new WriteBatch.SearchOp.Field();
-            field.fieldName = fname;
-            field.text = fdoc.getString("data").getValue();
-            String indexOptions = options.getString("indexOptions").getValue();
-            if (indexOptions.equals("offsets")) {
-                field.indexOptions = IndexOptions.DOCS_AND_FREQS_AND_POSITIONS_AND_OFFSETS;
-            } else if (indexOptions.equals("positions")) {
-                field.indexOptions = IndexOptions.DOCS_AND_FREQS_AND_POSITIONS;
-            } else if (indexOptions.equals("freqs")) {
-                field.indexOptions = IndexOptions.DOCS_AND_FREQS;
-            } else if (indexOptions.equals("docs")) {
-                field.indexOptions = IndexOptions.DOCS;
-            } else {
-                throw new IllegalArgumentException("invalid indexOptions " + indexOptions);
+        final RawBsonDocument raw = d instanceof RawBsonDocument
+                ? (RawBsonDocument) d : new RawBsonDocument(d, new BsonDocumentCodec());
+        try (BsonBinaryReader reader = new BsonBinaryReader(new ByteBufferBsonInput(raw.getByteBuffer()))) {
+            reader.readStartDocument();
+            while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+                final String fieldName = reader.readName();
+                if (fieldName.equals("op") || fieldName.equals("id")) {
+                    reader.skipValue();
+                    continue;
+                }
+                String text = null;
+                IndexOptions indexOptions = null;
+                Boolean norms = null, store = null;
+                reader.readStartDocument();
+                while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+                    final String name = reader.readName();
+                    if (name.equals("data")) {
+                        text = reader.readString();
+                    } else if (name.equals("options")) {
+                        reader.readStartDocument();
+                        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+                            final String option = reader.readName();
+                            if (option.equals("indexOptions")) {
+                                indexOptions = parseIndexOptions(reader.readString());
+                            } else if (option.equals("norms")) {
+                                norms = parseNorms(reader.readString());
+                            } else if (option.equals("store")) {
+                                store = reader.readBoolean();
+                            } else {
+                                reader.skipValue();
+                            }
+                        }
+                        reader.readEndDocument();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.readEndDocument();
+                if (text == null || indexOptions == null || norms == null || store == null) {
+                    throw new IllegalArgumentException("field " + fieldName
+                            + " must have data, and options with indexOptions, norms and store");
+                }
+                op.addField(fieldName, text, TextFieldTypes.get(indexOptions, norms, store));
             }
-            String norms = options.getString("norms").getValue();
-            if (norms.equals("include")) {
-                field.norms = true;
-            } else if (norms.equals("omit")) {
-                field.norms = false;
-            } else {
-                throw new IllegalArgumentException("invalid norms " + norms);
-            }
-            field.store = options.getBoolean("store").getValue();
-            fields.add(field);
-        });
-        op.fields = fields.toArray(new WriteBatch.SearchOp.Field[0]);
+            reader.readEndDocument();
+        }
         return op;
     }
 
-    public WriteBatch decodeRequest(IndexAccess ia, RawBsonDocument bson) {
+    private static IndexOptions parseIndexOptions(String indexOptions) {
+        if (indexOptions.equals("offsets")) {
+            return IndexOptions.DOCS_AND_FREQS_AND_POSITIONS_AND_OFFSETS;
+        } else if (indexOptions.equals("positions")) {
+            return IndexOptions.DOCS_AND_FREQS_AND_POSITIONS;
+        } else if (indexOptions.equals("freqs")) {
+            return IndexOptions.DOCS_AND_FREQS;
+        } else if (indexOptions.equals("docs")) {
+            return IndexOptions.DOCS;
+        }
+        throw new IllegalArgumentException("invalid indexOptions " + indexOptions);
+    }
+
+    private static boolean parseNorms(String norms) {
+        if (norms.equals("include")) {
+            return true;
+        } else if (norms.equals("omit")) {
+            return false;
+        }
+        throw new IllegalArgumentException("invalid norms " + norms);
+    }
+
+    private WriteBatch.Op parseOp(IndexAccess ia, BsonDocument d) {
+        final WriteBatch.Op op;
+        if (ia instanceof HnswIndexAccess) {
+            op = parseHNSWOp((HnswIndexAccess) ia, d);
+        } else {
+            op = parseSearchOp(d);
+        }
+        op.op = d.getString("op").getValue();
+        op.id = d.getString("id").getValue();
+        return op;
+    }
+
+    /*
+     * ops come either from the "ops" array of the body or from an "ops" document sequence (OP_MSG kind-1
+     * section). Either way they are decoded one at a time while the batch is applied, so a batch never
+     * exists as a fully materialized document tree.
+     */
+    public WriteBatch decodeRequest(IndexAccess ia, MongoMessage msg) {
+        RawBsonDocument bson = msg.getBody();
         String indexName = bson.getString("indexName").getValue();
-        List<BsonValue> bvs = bson.getArray("ops").getValues();
-        WriteBatch.Op[] opArr = new WriteBatch.Op[bvs.size()];
-        int i = 0;
-        for (BsonValue v : bvs) {
-            final WriteBatch.Op op;
-            BsonDocument d = v.asDocument();
-            if (ia instanceof HnswIndexAccess) {
-                op = parseHNSWOp(d);
-            } else {
-                op = parseSearchOp(d);
+        final Iterable<? extends BsonValue> source;
+        DocumentSequence seq = msg.getDocumentSequence("ops");
+        if (seq != null) {
+            if (bson.containsKey("ops")) {
+                throw new IllegalArgumentException("ops specified both in body and document sequence");
             }
-            op.op = d.getString("op").getValue();
-            op.id = d.getString("id").getValue();
-            opArr[i++] = op;
+            source = seq;
+        } else {
+            source = bson.getArray("ops");
         }
         boolean autoCommit = bson.getBoolean("autoCommit").getValue();
         WriteBatch result = new WriteBatch();
         result.autoCommit = autoCommit;
-        result.ops = opArr;
+        result.ops = () -> new Iterator<WriteBatch.Op>() {
+            private final Iterator<? extends BsonValue> it = source.iterator();
+            private int count = 0;
+
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            @Override
+            public WriteBatch.Op next() {
+                if (++count > MAX_WRITE_BATCH_SIZE) {
+                    throw new IllegalArgumentException("batch exceeds maxWriteBatchSize " + MAX_WRITE_BATCH_SIZE);
+                }
+                return parseOp(ia, it.next().asDocument());
+            }
+        };
         result.indexName = indexName;
         return result;
     }
@@ -116,21 +196,25 @@ public class CmdBatchWrite extends Command {
      *     ],
      *     "autoCommit": true|false
      * }
+     * "ops" may also be sent as an OP_MSG document sequence with identifier "ops" instead.
+     * replies with seqNo, for searches to wait for with waitForSeqNo rather than asking for autoCommit.
+     * A batch is not atomic, a failed one replies with an error telling how many of its ops were applied.
+     * Those are not rolled back, retrying the batch redoes "u" and "d" ops harmlessly but adds "i" ops again.
      */
-    public RawBsonDocument run(ChannelHandlerContext opCtx, MongoMessage msg) throws IOException {
+    @Override
+    public void writeReply(ChannelHandlerContext opCtx, MongoMessage msg, BsonWriter writer) throws IOException {
         String indexName = msg.getBody().getString("indexName").getValue();
         IndexAccess ia = MongoServer.getInstance().getIndexCatalog().getIndex(indexName);
         if (ia == null) {
-            return Command.createErrRspWithMsg("index not exists");
+            Command.writeErrRspWithMsg(writer, "index not exists");
+            return;
         }
-        final WriteBatch batch = decodeRequest(ia, msg.getBody());
+        final WriteBatch batch = decodeRequest(ia, msg);
 
-        ia.batchWrite(batch);
-        BasicOutputBuffer outputBuffer = new BasicOutputBuffer();
-        BsonBinaryWriter writer = new BsonBinaryWriter(outputBuffer);
+        final long seqNo = ia.batchWrite(batch);
         writer.writeStartDocument();
         writer.writeInt32("ok", 1);
+        writer.writeInt64("seqNo", seqNo);
         writer.writeEndDocument();
-        return new RawBsonDocument(outputBuffer.toByteArray());
     }
 }
@@ -0,0 +1,61 @@
+package com.luceneserver.commands.mongo;
+
+import com.luceneserver.protocol.mongo.MongoMessage;
+import com.luceneserver.server.mongo.MongoServer;
+import com.luceneserver.storage.IndexAccess;
+import com.luceneserver.storage.SearchIndexAccess;
+import com.luceneserver.storage.SearchResult;
+import io.netty.channel.ChannelHandlerContext;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.search.Query;
+import org.bson.BsonWriter;
+import org.bson.RawBsonDocument;
+
+import java.io.IOException;
+
+public class CmdCount extends StreamingCommand {
+    public CmdCount() {
+        super("count");
+    }
+
+    @Override
+    public ExecutionLane getLane() {
+        return ExecutionLane.READ;
+    }
+
+    /*
+     *  {
+     *      count: 1,
+     *      indexName: "test",
+     *      text: {...} or compound: {...} // as in search
+     *  }
+     *  replies with the number of matching documents in n, nothing is scored.
+     */
+    @Override
+    public void writeReply(ChannelHandlerContext opCtx, MongoMessage msg, BsonWriter writer) throws IOException {
+        RawBsonDocument d = msg.getBody();
+        String indexName = d.getString("indexName").getValue();
+        final Query query;
+        try {
+            query = QueryParseCache.get(CmdSearch.querySpecOf(d), CmdSearch::parseSingleQuery);
+        } catch (ParseException e) {
+            Command.writeErrRspWithMsg(writer, e.getMessage());
+            return;
+        }
+        IndexAccess ia = MongoServer.getInstance().getIndexCatalog().getIndex(indexName);
+        if (!(ia instanceof SearchIndexAccess)) {
+            Command.writeErrRspWithMsg(writer, ia == null ? "index not exists" : "index is not a search index");
+            return;
+        }
+        SearchResult result = ((SearchIndexAccess) ia).count(query, OperationContext.current());
+
+        writer.writeStartDocument();
+        writer.writeInt64("n", result.getTotalHits().value);
+        // a lower bound of the count, as of when maxTimeMS expired
+        if (result.isTimedOut()) {
+            writer.writeBoolean("timedOut", true);
+        }
+        writer.writeInt32("ok", 1);
+        writer.writeEndDocument();
+    }
+}
@@ -3,6 +3,7 @@ package com.luceneserver.commands.mongo;
 import com.luceneserver.protocol.mongo.MongoMessage;
 import com.luceneserver.server.mongo.MongoServer;
 import com.luceneserver.storage.IndexCatalog;
+import com.luceneserver.storage.RefreshScheduler;
 import com.luceneserver.storage.SearchIndexAccess;
 import io.netty.channel.ChannelHandlerContext;
 import org.apache.logging.log4j.LogManager;
@@ -26,10 +27,12 @@ public class CmdCreateSearchIndex extends Command {
     /*
      *  {
      *      "name": "testIndex",
+     *      "refreshIntervalMs": 1000 // optional, how often writes are made visible, -1 to only on commits
      *  }
      */
     public RawBsonDocument run(ChannelHandlerContext opCtx, MongoMessage msg) {
         final String indexName, defaultAnalyzer;
+        Integer refreshIntervalMs = null;
         Map<String, String> perFieldAnalyzer = new HashMap<>();
         try {
             BsonDocument d = msg.getBody();
@@ -39,12 +42,17 @@ public class CmdCreateSearchIndex extends Command {
             perField.forEach((k, v) -> {
                 perFieldAnalyzer.put(k, v.asString().getValue());
             });
+            if (msg.getBody().containsKey("refreshIntervalMs")) {
+                refreshIntervalMs = msg.getBody().getInt32("refreshIntervalMs").getValue();
+                RefreshScheduler.validateInterval(refreshIntervalMs);
+            }
         } catch (Exception e) {
             return Command.createErrRspWithMsg(e.getMessage());
         }
         IndexCatalog.IndexConfig cfg = new IndexCatalog.IndexConfig();
         cfg.name = indexName;
         cfg.path = indexName;
+        cfg.refreshIntervalMs = refreshIntervalMs;
         cfg.searchConfig = new SearchIndexAccess.SearchConfig();
         cfg.searchConfig.defaultAnalyzer = defaultAnalyzer;
         cfg.searchConfig.perFieldAnalyzer = perFieldAnalyzer;
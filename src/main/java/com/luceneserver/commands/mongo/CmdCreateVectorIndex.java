@@ -4,10 +4,12 @@ import com.luceneserver.protocol.mongo.MongoMessage;
 import com.luceneserver.server.mongo.MongoServer;
 import com.luceneserver.storage.HnswIndexAccess;
 import com.luceneserver.storage.IndexCatalog;
+import com.luceneserver.storage.RefreshScheduler;
 import io.netty.channel.ChannelHandlerContext;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.bson.BsonBinaryWriter;
+import org.bson.BsonString;
 import org.bson.RawBsonDocument;
 import org.bson.io.BasicOutputBuffer;
 
@@ -26,12 +28,15 @@ public class CmdCreateVectorIndex extends Command {
      *      "dimensions": 1024，
      *      “similarity": "euclidean",
      *      "quantization": "none",
+     *      "encoding": "float32", // optional, or "int8" to index byte vectors
      *      "efConstruction": 10, // beamWidth in lucene, efConstruction in paper
-     *      "mmax": 16
+     *      "mmax": 16,
+     *      "refreshIntervalMs": 1000 // optional, how often writes are made visible, -1 to only on commits
      *  }
      */
     public RawBsonDocument run(ChannelHandlerContext opCtx, MongoMessage msg) {
-        final String indexName, similarity, quantization;
+        final String indexName, similarity, quantization, encoding;
+        Integer refreshIntervalMs = null;
         final int dimensions, efConstruction, mmax;
 
         try {
@@ -41,6 +46,11 @@ public class CmdCreateVectorIndex extends Command {
             quantization = msg.getBody().getString("quantization").getValue();
             efConstruction = msg.getBody().getInt32("efConstruction").getValue();
             mmax = msg.getBody().getInt32("mmax").getValue();
+            encoding = msg.getBody().getString("encoding", new BsonString("float32")).getValue();
+            if (msg.getBody().containsKey("refreshIntervalMs")) {
+                refreshIntervalMs = msg.getBody().getInt32("refreshIntervalMs").getValue();
+                RefreshScheduler.validateInterval(refreshIntervalMs);
+            }
         } catch (Exception e) {
             return Command.createErrRspWithMsg(e.getMessage());
         }
@@ -49,13 +59,15 @@ public class CmdCreateVectorIndex extends Command {
         hnswConfig.efConstruction = efConstruction;
         hnswConfig.maxConn = mmax;
         hnswConfig.similarity = similarity;
+        hnswConfig.encoding = encoding;
         IndexCatalog.IndexConfig cfg = new IndexCatalog.IndexConfig();
         cfg.hnswConfig = hnswConfig;
         cfg.name = indexName;
         cfg.path = indexName;
+        cfg.refreshIntervalMs = refreshIntervalMs;
         try {
             MongoServer.getInstance().getIndexCatalog().createIndex(cfg);
-        } catch (IOException e) {
+        } catch (IOException | IllegalArgumentException e) {
             return Command.createErrRspWithMsg(e.getMessage());
         }
         BasicOutputBuffer outputBuffer = new BasicOutputBuffer();
@@ -0,0 +1,45 @@
+package com.luceneserver.commands.mongo;
+
+import com.luceneserver.protocol.mongo.MongoMessage;
+import io.netty.channel.ChannelHandlerContext;
+import org.bson.BsonWriter;
+
+import java.io.IOException;
+
+public class CmdCurrentOp extends StreamingCommand {
+    public CmdCurrentOp() {
+        super("currentOp");
+    }
+
+    @Override
+    public ExecutionLane getLane() {
+        return ExecutionLane.INLINE;
+    }
+
+    /*
+     * {
+     *     "currentOp": 1
+     * }
+     * replies with the commands running at the moment, the opid of each one can be passed to killOp.
+     */
+    @Override
+    public void writeReply(ChannelHandlerContext opCtx, MongoMessage msg, BsonWriter writer) throws IOException {
+        writer.writeStartDocument();
+        writer.writeStartArray("inprog");
+        for (OperationContext op : OperationContext.snapshot()) {
+            writer.writeStartDocument();
+            writer.writeInt64("opid", op.getOpId());
+            writer.writeString("command", op.getCommand());
+            writer.writeString("client", op.getClient());
+            writer.writeInt64("microsecs_running", op.getRunningMicros());
+            if (op.getMaxTimeMS() > 0) {
+                writer.writeInt64("maxTimeMS", op.getMaxTimeMS());
+            }
+            writer.writeBoolean("killPending", op.isKilled());
+            writer.writeEndDocument();
+        }
+        writer.writeEndArray();
+        writer.writeInt32("ok", 1);
+        writer.writeEndDocument();
+    }
+}
@@ -0,0 +1,68 @@
+package com.luceneserver.commands.mongo;
+
+import com.luceneserver.protocol.mongo.ErrorCode;
+import com.luceneserver.protocol.mongo.MongoMessage;
+import com.luceneserver.storage.SearchCursor;
+import com.luceneserver.storage.SearchCursors;
+import com.luceneserver.storage.SearchResult;
+import io.netty.channel.ChannelHandlerContext;
+import org.bson.BsonValue;
+import org.bson.BsonWriter;
+import org.bson.RawBsonDocument;
+
+import java.io.IOException;
+
+public class CmdGetMore extends StreamingCommand {
+    public CmdGetMore() {
+        super("getMore");
+    }
+
+    @Override
+    public ExecutionLane getLane() {
+        return ExecutionLane.READ;
+    }
+
+    /*
+     *  {
+     *      getMore: 12, // a cursorId from search
+     *      batchSize: 100 // optional, the batchSize of the search by default
+     *  }
+     *  replies with the next hits, on the reader the search ran on, and the cursorId to go on with, 0 if
+     *  there are no more.
+     */
+    @Override
+    public void writeReply(ChannelHandlerContext opCtx, MongoMessage msg, BsonWriter writer) throws IOException {
+        RawBsonDocument d = msg.getBody();
+        BsonValue id = d.get("getMore");
+        if (id == null || !id.isNumber()) {
+            Command.writeErrRspWithMsg(writer, "getMore must be a cursor id");
+            return;
+        }
+        final long cursorId = id.asNumber().longValue();
+        SearchCursor cursor = SearchCursors.get(cursorId);
+        if (cursor == null) {
+            Command.writeErrRsp(writer, ErrorCode.CURSOR_NOT_FOUND, "cursor id " + cursorId + " not found");
+            return;
+        }
+        final int batchSize = d.containsKey("batchSize") ? d.getInt32("batchSize").getValue() : cursor.getBatchSize();
+        if (batchSize <= 0) {
+            Command.writeErrRspWithMsg(writer, "batchSize must be positive");
+            return;
+        }
+        SearchResult result = cursor.getIndex().getMore(cursor, batchSize, OperationContext.current());
+        if (result == null) {
+            Command.writeErrRsp(writer, ErrorCode.CURSOR_NOT_FOUND, "cursor id " + cursorId + " not found");
+            return;
+        }
+
+        writer.writeStartDocument();
+        writer.writeInt32("ok", 1);
+        CmdSearch.writeHits(writer, result);
+        writer.writeInt64("cursorId", result.getCursorId());
+        // the hits collected before maxTimeMS expired, the cursor is closed
+        if (result.isTimedOut()) {
+            writer.writeBoolean("timedOut", true);
+        }
+        writer.writeEndDocument();
+    }
+}
@@ -2,25 +2,31 @@ package com.luceneserver.commands.mongo;
 
 import com.luceneserver.protocol.mongo.MongoMessage;
 import com.luceneserver.server.mongo.MongoServer;
+import com.luceneserver.transport.mongo.compression.MessageCompressors;
 import io.netty.channel.ChannelHandlerContext;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.bson.BsonBinaryWriter;
-import org.bson.RawBsonDocument;
-import org.bson.io.BasicOutputBuffer;
+import org.bson.BsonValue;
+import org.bson.BsonWriter;
 
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
 
 import static com.luceneserver.transport.mongo.TransportConstants.*;
 
-public class CmdIsMaster extends Command {
+public class CmdIsMaster extends StreamingCommand {
     private static final Logger log = LogManager.getLogger(CmdIsMaster.class);
     public CmdIsMaster() {
         super("isMaster", "ismaster");
     }
-    public RawBsonDocument run(ChannelHandlerContext opCtx, MongoMessage msg) {
-        BasicOutputBuffer outputBuffer = new BasicOutputBuffer();
-        BsonBinaryWriter writer = new BsonBinaryWriter(outputBuffer);
+
+    @Override
+    public ExecutionLane getLane() {
+        return ExecutionLane.INLINE;
+    }
+    @Override
+    public void writeReply(ChannelHandlerContext opCtx, MongoMessage msg, BsonWriter writer) {
         writer.writeStartDocument();
         writer.writeBoolean("ismaster", true);
         writer.writeInt32("ok", 1);
@@ -30,10 +36,17 @@ public class CmdIsMaster extends Command {
         writer.writeInt32("maxWireVersion", MAX_WIRE_VERSION);
         writer.writeInt32("minWireVersion", MIN_WIRE_VERSION);
         writer.writeDateTime("localTime", Instant.now(MongoServer.getInstance().getClock()).toEpochMilli());
+        if (msg.getBody().containsKey("compression")) {
+            List<String> requested = new ArrayList<>();
+            for (BsonValue v : msg.getBody().getArray("compression")) {
+                requested.add(v.asString().getValue());
+            }
+            writer.writeStartArray("compression");
+            for (String name : MessageCompressors.negotiate(requested)) {
+                writer.writeString(name);
+            }
+            writer.writeEndArray();
+        }
         writer.writeEndDocument();
-        writer.close();
-        RawBsonDocument rsp = new RawBsonDocument(outputBuffer.toByteArray());
-        // log.debug("build ismaster resp {}", rsp);
-        return rsp;
     }
 }
\ No newline at end of file
@@ -0,0 +1,70 @@
+package com.luceneserver.commands.mongo;
+
+import com.luceneserver.protocol.mongo.MongoMessage;
+import com.luceneserver.storage.SearchCursors;
+import io.netty.channel.ChannelHandlerContext;
+import org.bson.BsonValue;
+import org.bson.BsonWriter;
+import org.bson.RawBsonDocument;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class CmdKillCursors extends StreamingCommand {
+    public CmdKillCursors() {
+        super("killCursors");
+    }
+
+    /*
+     * killing never waits, a cursor serving a page is closed by its getMore. An idle one is closed right
+     * away, which releases its reader and may close it, so this is not run on the event loop.
+     */
+    @Override
+    public ExecutionLane getLane() {
+        return ExecutionLane.READ;
+    }
+
+    /*
+     *  {
+     *      killCursors: 1,
+     *      cursors: [12, 13]
+     *  }
+     */
+    @Override
+    public void writeReply(ChannelHandlerContext opCtx, MongoMessage msg, BsonWriter writer) throws IOException {
+        RawBsonDocument d = msg.getBody();
+        if (!d.containsKey("cursors") || !d.get("cursors").isArray()) {
+            Command.writeErrRspWithMsg(writer, "cursors must be an array of cursor ids");
+            return;
+        }
+        List<Long> killed = new ArrayList<>();
+        List<Long> notFound = new ArrayList<>();
+        for (BsonValue v : d.getArray("cursors").getValues()) {
+            if (!v.isNumber()) {
+                Command.writeErrRspWithMsg(writer, "cursors must be an array of cursor ids");
+                return;
+            }
+            final long id = v.asNumber().longValue();
+            if (SearchCursors.kill(id)) {
+                killed.add(id);
+            } else {
+                notFound.add(id);
+            }
+        }
+
+        writer.writeStartDocument();
+        writer.writeStartArray("cursorsKilled");
+        for (long id : killed) {
+            writer.writeInt64(id);
+        }
+        writer.writeEndArray();
+        writer.writeStartArray("cursorsNotFound");
+        for (long id : notFound) {
+            writer.writeInt64(id);
+        }
+        writer.writeEndArray();
+        writer.writeInt32("ok", 1);
+        writer.writeEndDocument();
+    }
+}
@@ -0,0 +1,49 @@
+package com.luceneserver.commands.mongo;
+
+import com.luceneserver.protocol.mongo.MongoMessage;
+import io.netty.channel.ChannelHandlerContext;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.bson.BsonValue;
+import org.bson.BsonWriter;
+
+import java.io.IOException;
+
+public class CmdKillOp extends StreamingCommand {
+    private static final Logger log = LogManager.getLogger(CmdKillOp.class);
+
+    public CmdKillOp() {
+        super("killOp");
+    }
+
+    /*
+     * answered on the event loop, so that a stuck command can be killed even if the lanes are full.
+     */
+    @Override
+    public ExecutionLane getLane() {
+        return ExecutionLane.INLINE;
+    }
+
+    /*
+     * {
+     *     "killOp": 1,
+     *     "op": 12 // an opid from currentOp
+     * }
+     * the command stops at its next interruption check and fails with Interrupted.
+     */
+    @Override
+    public void writeReply(ChannelHandlerContext opCtx, MongoMessage msg, BsonWriter writer) throws IOException {
+        BsonValue op = msg.getBody().get("op");
+        if (op == null || !op.isNumber()) {
+            Command.writeErrRspWithMsg(writer, "op must be a number");
+            return;
+        }
+        final long opId = op.asNumber().longValue();
+        final boolean found = OperationContext.kill(opId);
+        log.info("killOp {} from {}, found: {}", opId, opCtx.channel().remoteAddress(), found);
+        writer.writeStartDocument();
+        writer.writeString("info", found ? "attempting to kill op" : "no such op");
+        writer.writeInt32("ok", 1);
+        writer.writeEndDocument();
+    }
+}
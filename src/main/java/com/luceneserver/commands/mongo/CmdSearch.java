@@ -2,8 +2,11 @@ package com.luceneserver.commands.mongo;
 
 import com.luceneserver.protocol.mongo.MongoMessage;
 import com.luceneserver.server.mongo.MongoServer;
-import com.luceneserver.storage.HnswIndexAccess;
+import com.luceneserver.storage.AnalyzerRegistry;
+import com.luceneserver.storage.HitCount;
+import com.luceneserver.storage.IndexAccess;
 import com.luceneserver.storage.SearchIndexAccess;
+import com.luceneserver.storage.SearchResult;
 import io.netty.channel.ChannelHandlerContext;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -14,24 +17,34 @@ import org.apache.lucene.search.BooleanClause;
 import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.BoostQuery;
 import org.apache.lucene.search.Query;
-import org.bson.BsonBinaryWriter;
+import org.apache.lucene.search.TotalHits;
+import org.bson.BsonWriter;
 import org.bson.BsonDocument;
 import org.bson.BsonValue;
 import org.bson.RawBsonDocument;
-import org.bson.io.BasicOutputBuffer;
 
 import java.io.IOException;
 
-public class CmdSearch extends Command {
+public class CmdSearch extends StreamingCommand {
     private static final Logger log = LogManager.getLogger(CmdSearch.class);
 
     public CmdSearch() {
         super("search");
     }
 
-    Query parseTextQuery(BsonDocument d) throws ParseException {
+    @Override
+    public ExecutionLane getLane() {
+        return ExecutionLane.READ;
+    }
+
+    static Query parseTextQuery(BsonDocument d) throws ParseException {
         final String searchAnalyzer = d.getString("searchAnalyzer").getValue();
-        final Analyzer analyzer = SearchIndexAccess.newAnalyzerFromString(searchAnalyzer);
+        final Analyzer analyzer;
+        try {
+            analyzer = AnalyzerRegistry.get(searchAnalyzer);
+        } catch (IllegalArgumentException e) {
+            throw new ParseException(e.getMessage());
+        }
         final QueryParser parser = new QueryParser(d.getString("path").getValue(), analyzer);
         final boolean matchAll = d.getBoolean("matchAll").getValue();
         if (matchAll) {
@@ -42,7 +55,7 @@ public class CmdSearch extends Command {
         return parser.parse(d.getString("query").getValue());
     }
 
-    Query parseCompoundQuery(BsonDocument d) throws ParseException {
+    static Query parseCompoundQuery(BsonDocument d) throws ParseException {
         BooleanQuery mustClause = null, mustNotClause = null, shouldClause = null, filterClause = null;
         if (d.containsKey("must")) {
             BooleanQuery.Builder b = new BooleanQuery.Builder();
@@ -82,13 +95,14 @@ public class CmdSearch extends Command {
         if (shouldClause != null && !shouldClause.clauses().isEmpty()) {
             resultBuilder.add(shouldClause, BooleanClause.Occur.MUST);
         }
+        // NOTE(deyukong): filters do not score, which lets the query cache keep their matches per segment
         if (filterClause != null && !filterClause.clauses().isEmpty()) {
-            resultBuilder.add(filterClause, BooleanClause.Occur.MUST);
+            resultBuilder.add(filterClause, BooleanClause.Occur.FILTER);
         }
         return resultBuilder.build();
     }
 
-    Query parseSingleQuery(BsonDocument d) throws ParseException {
+    static Query parseSingleQuery(BsonDocument d) throws ParseException {
         final Query query;
         if (d.containsKey("text")) {
             query = parseTextQuery(d.getDocument("text"));
@@ -100,36 +114,122 @@ public class CmdSearch extends Command {
         return query;
     }
 
-    public RawBsonDocument run(ChannelHandlerContext opCtx, MongoMessage msg) throws IOException {
+    /*
+     * the part of the request the query is parsed from, which keys the parse cache.
+     */
+    static BsonDocument querySpecOf(BsonDocument d) {
+        BsonDocument spec = new BsonDocument();
+        if (d.containsKey("text")) {
+            spec.put("text", d.get("text"));
+        }
+        if (d.containsKey("compound")) {
+            spec.put("compound", d.get("compound"));
+        }
+        return spec;
+    }
+
+    static void writeHitCount(BsonWriter writer, TotalHits totalHits) {
+        writer.writeStartDocument("hitCount");
+        writer.writeInt64("value", totalHits.value);
+        writer.writeString("relation", totalHits.relation == TotalHits.Relation.EQUAL_TO ? "eq" : "gte");
+        writer.writeEndDocument();
+    }
+
+    /*
+     * waits for the writes up to the waitForSeqNo of the request, if any, to be visible. Returns false
+     * after writing an error reply if the seqNo is invalid.
+     */
+    static boolean waitForSeqNo(IndexAccess ia, BsonDocument d, BsonWriter writer) throws IOException {
+        BsonValue seqNo = d.get("waitForSeqNo");
+        if (seqNo == null) {
+            return true;
+        }
+        if (!seqNo.isNumber()) {
+            Command.writeErrRspWithMsg(writer, "waitForSeqNo must be a number");
+            return false;
+        }
+        try {
+            ia.waitForSeqNo(seqNo.asNumber().longValue());
+        } catch (IllegalArgumentException e) {
+            Command.writeErrRspWithMsg(writer, e.getMessage());
+            return false;
+        }
+        return true;
+    }
+
+    static void writeHits(BsonWriter writer, SearchResult result) {
+        writer.writeStartArray("hits");
+        for (String id : result.getIds()) {
+            writer.writeStartDocument();
+            writer.writeString("id", id);
+            writer.writeEndDocument();
+        }
+        writer.writeEndArray();
+    }
+
+    /*
+     *  {
+     *      search: 1,
+     *      indexName: "test",
+     *      text: {...} or compound: {...},
+     *      limit: 10,
+     *      hitCount: "none", // optional, or "lowerBound" or "exact" to reply with the number of matches
+     *      batchSize: 100, // optional, replies with the first batchSize hits and a cursorId to getMore the
+     *                      // rest of the limit from, 0 if there are no more
+     *      waitForSeqNo: 42 // optional, a seqNo from batchWrite, the search sees the writes up to it
+     *  }
+     */
+    @Override
+    public void writeReply(ChannelHandlerContext opCtx, MongoMessage msg, BsonWriter writer) throws IOException {
         RawBsonDocument d = msg.getBody();
         String indexName = d.getString("indexName").getValue();
         final Query query;
         try {
-            query = parseSingleQuery(d);
+            query = QueryParseCache.get(querySpecOf(d), CmdSearch::parseSingleQuery);
         } catch (ParseException e) {
-            return Command.createErrRspWithMsg(e.getMessage());
+            Command.writeErrRspWithMsg(writer, e.getMessage());
+            return;
         }
         SearchIndexAccess ia = (SearchIndexAccess) MongoServer.getInstance().getIndexCatalog().getIndex(indexName);
         if (ia == null) {
-            return Command.createErrRspWithMsg("index not exists");
+            Command.writeErrRspWithMsg(writer, "index not exists");
+            return;
         }
         int limit = d.getInt32("limit").getValue();
+        final HitCount hitCount;
+        try {
+            hitCount = d.containsKey("hitCount") ? HitCount.fromName(d.getString("hitCount").getValue()) : HitCount.NONE;
+        } catch (IllegalArgumentException e) {
+            Command.writeErrRspWithMsg(writer, e.getMessage());
+            return;
+        }
+        final int batchSize = d.containsKey("batchSize") ? d.getInt32("batchSize").getValue() : 0;
+        if (batchSize < 0) {
+            Command.writeErrRspWithMsg(writer, "batchSize must not be negative");
+            return;
+        }
+        if (!waitForSeqNo(ia, d, writer)) {
+            return;
+        }
         log.info(query.toString());
-        String[] result = ia.search(query, limit);
+        final boolean paged = batchSize > 0 && batchSize < limit;
+        SearchResult result = paged
+                ? ia.openCursor(query, limit, batchSize, hitCount, OperationContext.current())
+                : ia.search(query, limit, hitCount, OperationContext.current());
 
-        BasicOutputBuffer outputBuffer = new BasicOutputBuffer();
-        BsonBinaryWriter writer = new BsonBinaryWriter(outputBuffer);
         writer.writeStartDocument();
         writer.writeInt32("ok", 1);
-        writer.writeStartArray("hits");
-        for (String id : result) {
-            writer.writeStartDocument();
-            writer.writeString("id", id);
-            writer.writeEndDocument();
+        writeHits(writer, result);
+        if (batchSize > 0) {
+            writer.writeInt64("cursorId", result.getCursorId());
+        }
+        if (hitCount != HitCount.NONE) {
+            writeHitCount(writer, result.getTotalHits());
+        }
+        // the hits collected before maxTimeMS expired
+        if (result.isTimedOut()) {
+            writer.writeBoolean("timedOut", true);
         }
-        writer.writeEndArray();
         writer.writeEndDocument();
-        writer.close();
-        return new RawBsonDocument(outputBuffer.toByteArray());
     }
 }
\ No newline at end of file
@@ -0,0 +1,62 @@
+package com.luceneserver.commands.mongo;
+
+import com.luceneserver.protocol.mongo.MongoMessage;
+import com.luceneserver.server.mongo.MongoServer;
+import com.luceneserver.storage.IndexAccess;
+import com.luceneserver.storage.IndexCatalog;
+import com.luceneserver.utils.Metrics;
+import io.netty.channel.ChannelHandlerContext;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.bson.BsonWriter;
+
+import java.io.IOException;
+import java.util.Map;
+
+public class CmdServerStatus extends StreamingCommand {
+    private static final Logger log = LogManager.getLogger(CmdServerStatus.class);
+
+    public CmdServerStatus() {
+        super("serverStatus");
+    }
+
+    /*
+     * {
+     *     "serverStatus": 1
+     * }
+     * replies with all registered metrics, and the statistics of each index.
+     */
+    @Override
+    public void writeReply(ChannelHandlerContext opCtx, MongoMessage msg, BsonWriter writer) throws IOException {
+        IndexCatalog ic = MongoServer.getInstance().getIndexCatalog();
+        writer.writeStartDocument();
+        writer.writeStartDocument("metrics");
+        for (Map.Entry<String, Long> entry : Metrics.snapshot().entrySet()) {
+            writer.writeInt64(entry.getKey(), entry.getValue());
+        }
+        writer.writeEndDocument();
+        writer.writeStartDocument("indexes");
+        for (String name : ic.getAllIndexNames()) {
+            IndexAccess ia = ic.getIndex(name);
+            if (ia == null) {
+                continue;
+            }
+            final Map<String, Long> stats;
+            try {
+                stats = ia.getStats();
+            } catch (IOException e) {
+                // dropped in the meantime
+                log.debug("skip stats of index {}: {}", name, e.getMessage());
+                continue;
+            }
+            writer.writeStartDocument(name);
+            for (Map.Entry<String, Long> entry : stats.entrySet()) {
+                writer.writeInt64(entry.getKey(), entry.getValue());
+            }
+            writer.writeEndDocument();
+        }
+        writer.writeEndDocument();
+        writer.writeInt32("ok", 1);
+        writer.writeEndDocument();
+    }
+}
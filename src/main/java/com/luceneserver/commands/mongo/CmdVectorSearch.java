@@ -1,64 +1,81 @@
 package com.luceneserver.commands.mongo;
 
+import com.luceneserver.protocol.mongo.BsonVectors;
 import com.luceneserver.protocol.mongo.MongoMessage;
 import com.luceneserver.server.mongo.MongoServer;
 import com.luceneserver.storage.HnswIndexAccess;
+import com.luceneserver.storage.SearchResult;
 import io.netty.channel.ChannelHandlerContext;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.bson.BsonBinaryWriter;
-import org.bson.BsonValue;
+import org.apache.lucene.index.VectorEncoding;
+import org.bson.BsonWriter;
 import org.bson.RawBsonDocument;
-import org.bson.io.BasicOutputBuffer;
 
 import java.io.IOException;
-import java.util.List;
 
-public class CmdVectorSearch extends Command {
+public class CmdVectorSearch extends StreamingCommand {
     private static final Logger log = LogManager.getLogger(CmdVectorSearch.class);
 
     public CmdVectorSearch() {
         super("vectorSearch");
     }
 
+    @Override
+    public ExecutionLane getLane() {
+        return ExecutionLane.READ;
+    }
+
     /*
      *  {
      *      vectorSearch: 1,
      *      indexName: "test",
-     *      vector: [1.0,2.0],
+     *      vector: [1.0,2.0], // or a bson binary vector (subtype 9) of float32 or int8
      *      k: 2 //
-     *      numCandidates: 1
+     *      numCandidates: 1,
+     *      maxTimeMS: 100, // optional, defaults to the defaultMaxTimeMS parameter
+     *      waitForSeqNo: 42 // optional, a seqNo from batchWrite, the search sees the writes up to it
      *  }
      */
-    public RawBsonDocument run(ChannelHandlerContext opCtx, MongoMessage msg) throws IOException {
+    @Override
+    public void writeReply(ChannelHandlerContext opCtx, MongoMessage msg, BsonWriter writer) throws IOException {
         RawBsonDocument d = msg.getBody();
         String indexName = d.getString("indexName").getValue();
-        List<BsonValue> bsonVec = d.getArray("vector");
-        float[] vec = new float[bsonVec.size()];
-        int j = 0;
-        for (BsonValue bf : bsonVec) {
-            vec[j++] = (float)bf.asDouble().getValue();
+        BsonVectors.Vector vec = BsonVectors.read(d, "vector");
+        if (vec == null) {
+            Command.writeErrRspWithMsg(writer, "vector is required");
+            return;
         }
         int k = d.getInt32("k").getValue();
         int m = d.getInt32("numCandidates").getValue();
         HnswIndexAccess ia = (HnswIndexAccess)MongoServer.getInstance().getIndexCatalog().getIndex(indexName);
         if (ia == null) {
-            return Command.createErrRspWithMsg("index not exists");
+            Command.writeErrRspWithMsg(writer, "index not exists");
+            return;
+        }
+        if (!CmdSearch.waitForSeqNo(ia, d, writer)) {
+            return;
+        }
+
+        final SearchResult result;
+        if (ia.getVectorEncoding() == VectorEncoding.BYTE) {
+            result = ia.knn(vec.asBytes(), k, m, OperationContext.current());
+        } else {
+            result = ia.knn(vec.asFloats(), k, m, OperationContext.current());
         }
 
-        BasicOutputBuffer outputBuffer = new BasicOutputBuffer();
-        BsonBinaryWriter writer = new BsonBinaryWriter(outputBuffer);
         writer.writeStartDocument();
         writer.writeInt32("ok", 1);
         writer.writeStartArray("hits");
-        for (String id : ia.knn(vec, k, m)) {
+        for (String id : result.getIds()) {
             writer.writeStartDocument();
             writer.writeString("id", id);
             writer.writeEndDocument();
         }
         writer.writeEndArray();
+        if (result.isTimedOut()) {
+            writer.writeBoolean("timedOut", true);
+        }
         writer.writeEndDocument();
-        writer.close();
-        return new RawBsonDocument(outputBuffer.toByteArray());
     }
 }
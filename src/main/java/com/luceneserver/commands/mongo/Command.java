@@ -1,8 +1,11 @@
 package com.luceneserver.commands.mongo;
 
+import com.luceneserver.protocol.mongo.ErrorCode;
 import com.luceneserver.protocol.mongo.MongoMessage;
 import io.netty.channel.ChannelHandlerContext;
+import org.bson.BsonBinaryReader;
 import org.bson.BsonBinaryWriter;
+import org.bson.BsonWriter;
 import org.bson.RawBsonDocument;
 import org.bson.io.BasicOutputBuffer;
 
@@ -21,6 +24,26 @@ public abstract class Command {
         this.oldName = oldName;
     }
     public abstract RawBsonDocument run(ChannelHandlerContext opCtx, MongoMessage msg) throws IOException;
+
+    /*
+     * writes the reply into writer, which is backed by the outbound buffer of the connection.
+     * The default pipes the document built by run(), commands with large replies extend
+     * StreamingCommand to serialize without the intermediate document.
+     */
+    public void writeReply(ChannelHandlerContext opCtx, MongoMessage msg, BsonWriter writer) throws IOException {
+        RawBsonDocument rsp = run(opCtx, msg);
+        try (BsonBinaryReader reader = new BsonBinaryReader(rsp.getByteBuffer().asNIO())) {
+            writer.pipe(reader);
+        }
+    }
+
+    /*
+     * the lane this command is executed in, commands are ADMIN unless they declare otherwise.
+     */
+    public ExecutionLane getLane() {
+        return ExecutionLane.ADMIN;
+    }
+
     public void register(HashMap<String, Command> m) {
         m.put(name, this);
         if (oldName != null) {
@@ -30,12 +53,30 @@ public abstract class Command {
     public static RawBsonDocument createErrRspWithMsg(String msg) {
         BasicOutputBuffer outputBuffer = new BasicOutputBuffer();
         BsonBinaryWriter writer = new BsonBinaryWriter(outputBuffer);
+        writeErrRspWithMsg(writer, msg);
+        writer.close();
+        RawBsonDocument rsp = new RawBsonDocument(outputBuffer.toByteArray());
+        return rsp;
+    }
+    public static void writeErrRspWithMsg(BsonWriter writer, String msg) {
         writer.writeStartDocument();
         writer.writeInt32("ok", 0);
         writer.writeString("errmsg", msg);
         writer.writeEndDocument();
-        writer.close();
-        RawBsonDocument rsp = new RawBsonDocument(outputBuffer.toByteArray());
-        return rsp;
+    }
+    public static void writeErrRsp(BsonWriter writer, ErrorCode code, String msg) {
+        writer.writeStartDocument();
+        writer.writeInt32("ok", 0);
+        writer.writeString("errmsg", msg);
+        writer.writeInt32("code", code.getCode());
+        writer.writeString("codeName", code.getCodeName());
+        if (code.getErrorLabels().length > 0) {
+            writer.writeStartArray("errorLabels");
+            for (String label : code.getErrorLabels()) {
+                writer.writeString(label);
+            }
+            writer.writeEndArray();
+        }
+        writer.writeEndDocument();
     }
 }
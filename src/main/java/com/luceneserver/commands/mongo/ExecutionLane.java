@@ -0,0 +1,13 @@
+package com.luceneserver.commands.mongo;
+
+/*
+ * the lane a command is executed in. Each lane but INLINE has its own pool, queue and admission limit,
+ * so that e.g. a burst of fsyncing batchWrites can not starve searches or driver heartbeats.
+ */
+public enum ExecutionLane {
+    // trivial commands which never block, run directly on the netty event loop
+    INLINE,
+    READ,
+    WRITE,
+    ADMIN,
+}
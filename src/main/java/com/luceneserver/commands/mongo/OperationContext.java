@@ -0,0 +1,136 @@
+package com.luceneserver.commands.mongo;
+
+import com.luceneserver.storage.Interruption;
+import com.luceneserver.utils.ServerParameter;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * a running command, registered for its whole execution so that currentOp can list it and killOp can
+ * interrupt it. Interruption is cooperative: queries check shouldExit() while they run, which turns true
+ * once the operation is killed or its maxTimeMS is exceeded. Only an operation with a maxTimeMS makes its
+ * queries read the clock, see InterruptibleSearch.
+ */
+public class OperationContext implements Interruption {
+    // applied to commands which do not send a maxTimeMS, 0 means no time limit
+    private static final ServerParameter<Integer> defaultMaxTimeMS =
+            new ServerParameter<>("defaultMaxTimeMS", 0, true) {
+                @Override
+                public void validate(Integer data) {
+                    if (data < 0) {
+                        throw new IllegalArgumentException("defaultMaxTimeMS must not be negative");
+                    }
+                }
+            };
+
+    private static final AtomicLong nextOpId = new AtomicLong(1);
+    private static final ConcurrentHashMap<Long, OperationContext> running = new ConcurrentHashMap<>();
+    private static final ThreadLocal<OperationContext> current = new ThreadLocal<>();
+
+    private final long opId;
+    private final String command;
+    private final String client;
+    private final long startNanos;
+    private final long maxTimeMS;
+    // Long.MAX_VALUE if there is no time limit
+    private final long deadlineNanos;
+    private volatile boolean killed = false;
+
+    public static void loadClass() {}
+
+    private OperationContext(String command, String client, long maxTimeMS) {
+        this.opId = nextOpId.getAndIncrement();
+        this.command = command;
+        this.client = client;
+        this.startNanos = System.nanoTime();
+        this.maxTimeMS = maxTimeMS;
+        this.deadlineNanos = maxTimeMS > 0 ? startNanos + TimeUnit.MILLISECONDS.toNanos(maxTimeMS) : Long.MAX_VALUE;
+    }
+
+    /*
+     * registers the command in body as running on the calling thread, until end() is called.
+     */
+    public static OperationContext begin(String command, String client, BsonDocument body) {
+        long maxTimeMS = defaultMaxTimeMS.get();
+        BsonValue v = body.get("maxTimeMS");
+        if (v != null && v.isNumber() && v.asNumber().longValue() > 0) {
+            maxTimeMS = v.asNumber().longValue();
+        }
+        OperationContext op = new OperationContext(command, client, maxTimeMS);
+        running.put(op.opId, op);
+        current.set(op);
+        return op;
+    }
+
+    public void end() {
+        current.remove();
+        running.remove(opId);
+    }
+
+    /*
+     * the operation running on the calling thread, or null.
+     */
+    public static OperationContext current() {
+        return current.get();
+    }
+
+    /*
+     * marks the operation opId as killed, returns false if no such operation is running.
+     */
+    static boolean kill(long opId) {
+        OperationContext op = running.get(opId);
+        if (op == null) {
+            return false;
+        }
+        op.killed = true;
+        return true;
+    }
+
+    static List<OperationContext> snapshot() {
+        return new ArrayList<>(running.values());
+    }
+
+    @Override
+    public boolean shouldExit() {
+        return killed || isExpired();
+    }
+
+    @Override
+    public boolean hasDeadline() {
+        return deadlineNanos != Long.MAX_VALUE;
+    }
+
+    public boolean isKilled() {
+        return killed;
+    }
+
+    public boolean isExpired() {
+        return hasDeadline() && System.nanoTime() - deadlineNanos > 0;
+    }
+
+    long getOpId() {
+        return opId;
+    }
+
+    String getCommand() {
+        return command;
+    }
+
+    String getClient() {
+        return client;
+    }
+
+    long getMaxTimeMS() {
+        return maxTimeMS;
+    }
+
+    long getRunningMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos);
+    }
+}
@@ -0,0 +1,125 @@
+package com.luceneserver.commands.mongo;
+
+import com.luceneserver.utils.Counter;
+import com.luceneserver.utils.Metrics;
+import com.luceneserver.utils.ServerParameter;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.search.Query;
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * the parsed queries of the search command, keyed by their canonical bson. Lucene queries are immutable,
+ * so a hot query is parsed once and the same instance is shared by every request sending it. The
+ * canonical form sorts the fields of every document, two requests spelling the same query with fields
+ * in a different order share an entry.
+ */
+public class QueryParseCache {
+    // how many distinct parsed queries are kept, 0 disables the cache
+    private static final ServerParameter<Integer> queryParseCacheSize =
+            new ServerParameter<>("queryParseCacheSize", 1024, true) {
+                @Override
+                public void validate(Integer data) {
+                    if (data < 0) {
+                        throw new IllegalArgumentException("queryParseCacheSize must not be negative");
+                    }
+                }
+            };
+
+    private static final Counter parses = new Counter("search.parse.count");
+    private static final Counter parseNanos = new Counter("search.parse.nanos");
+    private static final Counter hits = new Counter("search.parseCache.hits");
+    private static final Counter misses = new Counter("search.parseCache.misses");
+
+    interface Parser {
+        Query parse(BsonDocument d) throws ParseException;
+    }
+
+    private static final ReentrantLock lock = new ReentrantLock();
+    // canonical json -> query, in access order
+    private static final LinkedHashMap<String, Query> cache = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Query> eldest) {
+            return size() > queryParseCacheSize.get();
+        }
+    };
+
+    static {
+        Metrics.register("search.parseCache.size", () -> {
+            lock.lock();
+            try {
+                return cache.size();
+            } finally {
+                lock.unlock();
+            }
+        });
+    }
+
+    public static void loadClass() {}
+
+    /*
+     * returns the query d parses to, parsing it with parser only if it is not cached. Queries which fail
+     * to parse are not cached.
+     */
+    static Query get(BsonDocument d, Parser parser) throws ParseException {
+        if (queryParseCacheSize.get() == 0) {
+            return timedParse(d, parser);
+        }
+        final String key = canonicalize(d).asDocument().toJson();
+        lock.lock();
+        try {
+            Query query = cache.get(key);
+            if (query != null) {
+                hits.increment();
+                return query;
+            }
+        } finally {
+            lock.unlock();
+        }
+        misses.increment();
+        // NOTE(deyukong): parsed outside of the lock, two requests missing on the same query both parse it
+        final Query query = timedParse(d, parser);
+        lock.lock();
+        try {
+            cache.put(key, query);
+        } finally {
+            lock.unlock();
+        }
+        return query;
+    }
+
+    private static Query timedParse(BsonDocument d, Parser parser) throws ParseException {
+        final long start = System.nanoTime();
+        try {
+            return parser.parse(d);
+        } finally {
+            parses.increment();
+            parseNanos.add(System.nanoTime() - start);
+        }
+    }
+
+    private static BsonValue canonicalize(BsonValue v) {
+        if (v.isDocument()) {
+            TreeMap<String, BsonValue> sorted = new TreeMap<>();
+            for (Map.Entry<String, BsonValue> e : v.asDocument().entrySet()) {
+                sorted.put(e.getKey(), canonicalize(e.getValue()));
+            }
+            BsonDocument result = new BsonDocument();
+            result.putAll(sorted);
+            return result;
+        } else if (v.isArray()) {
+            BsonArray result = new BsonArray();
+            for (BsonValue e : v.asArray()) {
+                result.add(canonicalize(e));
+            }
+            return result;
+        }
+        return v;
+    }
+}
@@ -0,0 +1,36 @@
+package com.luceneserver.commands.mongo;
+
+import com.luceneserver.protocol.mongo.MongoMessage;
+import io.netty.channel.ChannelHandlerContext;
+import org.bson.BsonBinaryWriter;
+import org.bson.BsonWriter;
+import org.bson.RawBsonDocument;
+import org.bson.io.BasicOutputBuffer;
+
+import java.io.IOException;
+
+/*
+ * a command which serializes its reply straight into the response buffer, run() is only kept for
+ * callers that need the reply as a document.
+ */
+public abstract class StreamingCommand extends Command {
+    StreamingCommand(String name) {
+        super(name);
+    }
+
+    StreamingCommand(String name, String oldName) {
+        super(name, oldName);
+    }
+
+    @Override
+    public abstract void writeReply(ChannelHandlerContext opCtx, MongoMessage msg, BsonWriter writer) throws IOException;
+
+    @Override
+    public RawBsonDocument run(ChannelHandlerContext opCtx, MongoMessage msg) throws IOException {
+        BasicOutputBuffer outputBuffer = new BasicOutputBuffer();
+        BsonBinaryWriter writer = new BsonBinaryWriter(outputBuffer);
+        writeReply(opCtx, msg, writer);
+        writer.close();
+        return new RawBsonDocument(outputBuffer.toByteArray());
+    }
+}
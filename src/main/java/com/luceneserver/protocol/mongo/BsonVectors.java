@@ -0,0 +1,187 @@
+package com.luceneserver.protocol.mongo;
+
+import org.bson.BsonBinary;
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinarySubType;
+import org.bson.BsonDocument;
+import org.bson.BsonType;
+import org.bson.BsonValue;
+import org.bson.RawBsonDocument;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/*
+ * decodes the vector of a request. A vector is either an array of numbers, or a bson binary of subtype 9
+ * (vector) whose first byte is the element type and second byte the padding, followed by the elements
+ * packed little-endian. Packed float32 and int8 vectors are decoded with a single bulk copy straight out
+ * of the request bytes, arrays are decoded without materializing a BsonDouble per element.
+ */
+public final class BsonVectors {
+    public static final byte DTYPE_INT8 = 0x03;
+    public static final byte DTYPE_FLOAT32 = 0x27;
+
+    /*
+     * a decoded vector, exactly one of floats and bytes is set.
+     */
+    public static class Vector {
+        private final float[] floats;
+        private final byte[] bytes;
+
+        private Vector(float[] floats, byte[] bytes) {
+            this.floats = floats;
+            this.bytes = bytes;
+        }
+
+        public int dimensions() {
+            return floats != null ? floats.length : bytes.length;
+        }
+
+        public float[] asFloats() {
+            if (floats != null) {
+                return floats;
+            }
+            float[] result = new float[bytes.length];
+            for (int i = 0; i < bytes.length; i++) {
+                result[i] = bytes[i];
+            }
+            return result;
+        }
+
+        /*
+         * int8 payloads as is, arrays only if all of their elements are integers in the int8 range.
+         */
+        public byte[] asBytes() {
+            if (bytes != null) {
+                return bytes;
+            }
+            byte[] result = new byte[floats.length];
+            for (int i = 0; i < floats.length; i++) {
+                float f = floats[i];
+                if (f != (byte) f) {
+                    throw new IllegalArgumentException("vector element " + f + " is not an int8");
+                }
+                result[i] = (byte) f;
+            }
+            return result;
+        }
+    }
+
+    private BsonVectors() {}
+
+    /*
+     * returns the vector stored under key, or null if doc has no such field.
+     */
+    public static Vector read(BsonDocument doc, String key) {
+        if (doc instanceof RawBsonDocument) {
+            return readRaw((RawBsonDocument) doc, key);
+        }
+        BsonValue v = doc.get(key);
+        if (v == null) {
+            return null;
+        }
+        if (v.isBinary()) {
+            BsonBinary bin = v.asBinary();
+            if (bin.getType() != BsonBinarySubType.VECTOR.getValue()) {
+                throw new IllegalArgumentException(key + " is a binary of subtype " + bin.getType() + ", not a vector");
+            }
+            return decodePacked(key, ByteBuffer.wrap(bin.getData()), 0, bin.getData().length);
+        }
+        if (!v.isArray()) {
+            throw new IllegalArgumentException(key + " must be an array or a binary vector");
+        }
+        float[] vec = new float[v.asArray().size()];
+        int j = 0;
+        for (BsonValue e : v.asArray()) {
+            if (!e.isNumber()) {
+                throw new IllegalArgumentException(key + " contains a non-numeric element");
+            }
+            vec[j++] = (float) e.asNumber().doubleValue();
+        }
+        return new Vector(vec, null);
+    }
+
+    private static Vector readRaw(RawBsonDocument doc, String key) {
+        // positions of the reader are absolute in the buffer, which starts at the document's offset
+        final ByteBuffer buf = doc.getByteBuffer().asNIO();
+        try (BsonBinaryReader reader = new BsonBinaryReader(buf)) {
+            reader.readStartDocument();
+            while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+                if (!reader.readName().equals(key)) {
+                    reader.skipValue();
+                    continue;
+                }
+                if (reader.getCurrentBsonType() == BsonType.ARRAY) {
+                    return readArray(reader, key);
+                }
+                if (reader.getCurrentBsonType() != BsonType.BINARY) {
+                    throw new IllegalArgumentException(key + " must be an array or a binary vector");
+                }
+                if (reader.peekBinarySubType() != BsonBinarySubType.VECTOR.getValue()) {
+                    throw new IllegalArgumentException(
+                            key + " is a binary of subtype " + reader.peekBinarySubType() + ", not a vector");
+                }
+                // the reader stands at the int32 length, followed by the subtype byte and the payload
+                final int size = reader.peekBinarySize();
+                return decodePacked(key, buf, reader.getBsonInput().getPosition() + 5, size);
+            }
+        }
+        return null;
+    }
+
+    private static Vector readArray(BsonBinaryReader reader, String key) {
+        float[] vec = new float[16];
+        int n = 0;
+        reader.readStartArray();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            final float f;
+            switch (reader.getCurrentBsonType()) {
+                case DOUBLE:
+                    f = (float) reader.readDouble();
+                    break;
+                case INT32:
+                    f = reader.readInt32();
+                    break;
+                case INT64:
+                    f = reader.readInt64();
+                    break;
+                default:
+                    throw new IllegalArgumentException(key + " contains a non-numeric element");
+            }
+            if (n == vec.length) {
+                vec = Arrays.copyOf(vec, n * 2);
+            }
+            vec[n++] = f;
+        }
+        reader.readEndArray();
+        return new Vector(n == vec.length ? vec : Arrays.copyOf(vec, n), null);
+    }
+
+    private static Vector decodePacked(String key, ByteBuffer buf, int offset, int size) {
+        if (size < 2) {
+            throw new IllegalArgumentException(key + " is a truncated binary vector");
+        }
+        final byte dtype = buf.get(offset);
+        final byte padding = buf.get(offset + 1);
+        final int payload = size - 2;
+        if (padding != 0) {
+            throw new IllegalArgumentException(key + " has padding " + padding + ", only float32 and int8 vectors are supported");
+        }
+        ByteBuffer data = buf.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        data.limit(offset + size).position(offset + 2);
+        if (dtype == DTYPE_FLOAT32) {
+            if (payload % Float.BYTES != 0) {
+                throw new IllegalArgumentException(key + " has a float32 payload of " + payload + " bytes");
+            }
+            float[] vec = new float[payload / Float.BYTES];
+            data.slice().order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(vec);
+            return new Vector(vec, null);
+        } else if (dtype == DTYPE_INT8) {
+            byte[] vec = new byte[payload];
+            data.get(vec);
+            return new Vector(null, vec);
+        }
+        throw new IllegalArgumentException(key + " has unsupported vector type " + dtype);
+    }
+}
@@ -0,0 +1,63 @@
+package com.luceneserver.protocol.mongo;
+
+import io.netty.buffer.ByteBuf;
+import org.bson.RawBsonDocument;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/*
+ * a kind-1 section of an OP_MSG: an identifier followed by back-to-back bson documents.
+ * Documents are not decoded up front, each one is wrapped in place when the iterator reaches it,
+ * so the memory used by a consumer walking the sequence is bounded by a single document.
+ * Like the body, it is only valid while the owning MongoMessage is retained.
+ */
+public class DocumentSequence implements Iterable<RawBsonDocument> {
+    private final String identifier;
+    private final ByteBuf documents;
+
+    public DocumentSequence(String identifier, ByteBuf documents) {
+        this.identifier = identifier;
+        this.documents = documents;
+    }
+
+    public String getIdentifier() {
+        return identifier;
+    }
+
+    @Override
+    public Iterator<RawBsonDocument> iterator() {
+        return new Iterator<RawBsonDocument>() {
+            private int offset = documents.readerIndex();
+
+            @Override
+            public boolean hasNext() {
+                return offset < documents.writerIndex();
+            }
+
+            @Override
+            public RawBsonDocument next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                if (documents.writerIndex() - offset < 4) {
+                    throw new IllegalArgumentException("truncated document in sequence " + identifier);
+                }
+                int bsonLen = documents.getIntLE(offset);
+                if (bsonLen < 5 || bsonLen > documents.writerIndex() - offset) {
+                    throw new IllegalArgumentException("invalid document length " + bsonLen + " in sequence " + identifier);
+                }
+                final RawBsonDocument doc;
+                if (documents.hasArray()) {
+                    doc = new RawBsonDocument(documents.array(), documents.arrayOffset() + offset, bsonLen);
+                } else {
+                    byte[] bytes = new byte[bsonLen];
+                    documents.getBytes(offset, bytes);
+                    doc = new RawBsonDocument(bytes);
+                }
+                offset += bsonLen;
+                return doc;
+            }
+        };
+    }
+}
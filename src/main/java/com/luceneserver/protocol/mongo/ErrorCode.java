@@ -0,0 +1,39 @@
+package com.luceneserver.protocol.mongo;
+
+/*
+ * error codes returned in the "code" field of a failed reply, values follow mongodb's error_codes.yml
+ * so that drivers classify them the same way.
+ */
+public enum ErrorCode {
+    // the server is over capacity and rejected the command without running it, it is safe to retry
+    TEMPORARILY_UNAVAILABLE(365, "TemporarilyUnavailable", "SystemOverloadedError", "RetryableError"),
+    // the command ran longer than its maxTimeMS
+    MAX_TIME_MS_EXPIRED(50, "MaxTimeMSExpired"),
+    // the command was killed by killOp
+    INTERRUPTED(11601, "Interrupted"),
+    // getMore on a cursor which was exhausted, killed or timed out
+    CURSOR_NOT_FOUND(43, "CursorNotFound"),
+    ;
+
+    private final int code;
+    private final String codeName;
+    private final String[] errorLabels;
+
+    ErrorCode(int code, String codeName, String... errorLabels) {
+        this.code = code;
+        this.codeName = codeName;
+        this.errorLabels = errorLabels;
+    }
+
+    public int getCode() {
+        return code;
+    }
+
+    public String getCodeName() {
+        return codeName;
+    }
+
+    public String[] getErrorLabels() {
+        return errorLabels;
+    }
+}
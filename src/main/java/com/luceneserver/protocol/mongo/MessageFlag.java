@@ -12,6 +12,10 @@ public enum MessageFlag {
         this.value = 1 << bit;
     }
 
+    public int getValue() {
+        return value;
+    }
+
     public boolean isSet(int flags) {
         return (flags & value) == value;
     }
@@ -1,8 +1,20 @@
 package com.luceneserver.protocol.mongo;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.util.AbstractReferenceCounted;
+import io.netty.util.ReferenceCounted;
 import org.bson.RawBsonDocument;
 
-public class MongoMessage {
+import java.util.Collections;
+import java.util.Map;
+
+/*
+ * NOTE(deyukong): a request MongoMessage may own the retained frame its body was decoded from, the
+ * RawBsonDocument body then points directly into the pooled frame memory. The frame is returned to
+ * the pool on the last release(), so the body (and any nested RawBsonDocument/RawBsonArray taken from
+ * it) must not be touched after the command has finished.
+ */
+public class MongoMessage extends AbstractReferenceCounted {
 
     public static final int SECTION_KIND_BODY = 0;
     public static final int SECTION_KIND_DOCUMENT_SEQUENCE = 1;
@@ -11,11 +23,26 @@ public class MongoMessage {
     private final MsgHeader header;
     private final int flags = 0;
     private final boolean legacyFormat;
+    private final ByteBuf frame;
+    private final Map<String, DocumentSequence> documentSequences;
+    // id of the compressor the request came in with, replies are compressed with the same one
+    private int compressorId = -1;
 
     public MongoMessage(MsgHeader header, RawBsonDocument body, boolean legacyFormat) {
+        this(header, body, legacyFormat, null, Collections.emptyMap());
+    }
+
+    public MongoMessage(MsgHeader header, RawBsonDocument body, boolean legacyFormat, ByteBuf frame) {
+        this(header, body, legacyFormat, frame, Collections.emptyMap());
+    }
+
+    public MongoMessage(MsgHeader header, RawBsonDocument body, boolean legacyFormat, ByteBuf frame,
+                        Map<String, DocumentSequence> documentSequences) {
         this.body = body;
         this.header = header;
         this.legacyFormat = legacyFormat;
+        this.frame = frame;
+        this.documentSequences = documentSequences;
     }
 
     public int getFlags() {
@@ -34,7 +61,37 @@ public class MongoMessage {
         return body;
     }
 
+    /*
+     * returns the kind-1 section sent with the given identifier, or null if there is none.
+     */
+    public DocumentSequence getDocumentSequence(String identifier) {
+        return documentSequences.get(identifier);
+    }
+
+    public int getCompressorId() {
+        return compressorId;
+    }
+
+    public void setCompressorId(int compressorId) {
+        this.compressorId = compressorId;
+    }
+
     public boolean isLegacyFormat() {
         return legacyFormat;
     }
-}
\ No newline at end of file
+
+    @Override
+    protected void deallocate() {
+        if (frame != null) {
+            frame.release();
+        }
+    }
+
+    @Override
+    public ReferenceCounted touch(Object hint) {
+        if (frame != null) {
+            frame.touch(hint);
+        }
+        return this;
+    }
+}
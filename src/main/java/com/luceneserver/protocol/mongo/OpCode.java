@@ -7,6 +7,7 @@ public enum OpCode {
     OP_REPLY(1), // Reply to a client request. responseTo is set
 
     OP_QUERY(2004),  // legacy mongo command
+    OP_COMPRESSED(2012), // wraps another opCode compressed by a negotiated compressor
     OP_MSG(2013); // Send a message using the format introduced in MongoDB 3.6
 
     private final int id;
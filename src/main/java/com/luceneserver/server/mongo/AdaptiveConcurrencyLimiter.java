@@ -0,0 +1,100 @@
+package com.luceneserver.server.mongo;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * limits the number of admitted (queued or running) commands with a gradient on observed latency:
+ * a long-term average of the latency is tracked as the no-load baseline, and whenever recent samples
+ * get slower than the baseline the limit shrinks proportionally, while it grows by about sqrt(limit)
+ * as long as latency stays flat. Under overload the limit converges to what the server can actually
+ * serve at its baseline latency, instead of letting requests pile up in the queue.
+ */
+class AdaptiveConcurrencyLimiter {
+    // how many samples the long-term latency average spans
+    private static final int LONG_WINDOW = 600;
+    // latency may exceed the baseline by this factor before the limit starts to shrink
+    private static final double TOLERANCE = 1.5;
+    private static final double SMOOTHING = 0.2;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final AtomicInteger inflight = new AtomicInteger();
+    private volatile int limit;
+    // guards estimatedLimit and longRttNanos, not a monitor so that virtual threads never pin on it
+    private final ReentrantLock sampleLock = new ReentrantLock();
+    private double estimatedLimit;
+    private double longRttNanos = 0;
+
+    AdaptiveConcurrencyLimiter(int minLimit, int initialLimit, int maxLimit) {
+        if (minLimit <= 0 || minLimit > maxLimit) {
+            throw new IllegalArgumentException("invalid concurrency limits [" + minLimit + ", " + maxLimit + "]");
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.estimatedLimit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+        this.limit = (int) estimatedLimit;
+    }
+
+    boolean tryAcquire() {
+        while (true) {
+            int cur = inflight.get();
+            if (cur >= limit) {
+                return false;
+            }
+            if (inflight.compareAndSet(cur, cur + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /*
+     * releases a slot acquired by tryAcquire. rttNanos is the latency of the command, including the time
+     * it spent queued, or negative if the command did not run and should not be sampled.
+     */
+    void release(long rttNanos) {
+        int cur = inflight.getAndDecrement();
+        if (rttNanos >= 0) {
+            sample(rttNanos, cur);
+        }
+    }
+
+    private void sample(long rttNanos, int inflightAtCompletion) {
+        sampleLock.lock();
+        try {
+            final double shortRtt = Math.max(rttNanos, 1);
+            if (longRttNanos == 0) {
+                longRttNanos = shortRtt;
+            } else {
+                longRttNanos += (shortRtt - longRttNanos) / LONG_WINDOW;
+            }
+            // a baseline which drifted far above the recent latency would keep the limit from ever shrinking
+            if (longRttNanos / shortRtt > 2) {
+                longRttNanos *= 0.95;
+            }
+            // the server is not using its limit, the latency tells nothing about how far it may grow
+            if (inflightAtCompletion < estimatedLimit / 2) {
+                return;
+            }
+            double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * longRttNanos / shortRtt));
+            double newLimit = estimatedLimit * gradient + Math.sqrt(estimatedLimit);
+            newLimit = estimatedLimit * (1 - SMOOTHING) + newLimit * SMOOTHING;
+            estimatedLimit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+            limit = (int) estimatedLimit;
+        } finally {
+            sampleLock.unlock();
+        }
+    }
+
+    boolean isSaturated() {
+        return inflight.get() >= limit;
+    }
+
+    int getLimit() {
+        return limit;
+    }
+
+    int getInflight() {
+        return inflight.get();
+    }
+}
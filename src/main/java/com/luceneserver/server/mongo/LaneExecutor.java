@@ -0,0 +1,163 @@
+package com.luceneserver.server.mongo;
+
+import com.luceneserver.commands.mongo.ExecutionLane;
+import com.luceneserver.utils.mongo.MongoThreadFactory;
+import io.netty.channel.Channel;
+import io.netty.util.AttributeKey;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * the executor, queue and admission limit of one ExecutionLane. Lanes share nothing, a lane which is
+ * saturated rejects its own commands and pauses the connections which sent them, while the other
+ * lanes keep serving other connections.
+ * NOTE(deyukong): a pause stops reading the whole connection, so the commands of other lanes sent on it
+ * wait for the lane which paused it too, only connections are isolated from each other's lanes. That
+ * lane is kept in PAUSED_BY and is the only one to resume the connection, clients which must not have
+ * their reads held up by their writes use connections of their own for them.
+ */
+class LaneExecutor {
+    private static final Logger log = LogManager.getLogger(LaneExecutor.class);
+
+    private final ExecutionLane lane;
+    private final ExecutorService executor;
+    // only in virtual mode, caps the number of commands running at the same time
+    private final Semaphore runPermits;
+    private final AtomicInteger waitingForPermit = new AtomicInteger();
+    private final int maxQueueSize;
+    private final AdaptiveConcurrencyLimiter limiter;
+    // the lane a connection whose autoRead is off was paused by, unset while it is read
+    static final AttributeKey<ExecutionLane> PAUSED_BY = AttributeKey.valueOf("pausedBy");
+
+    // connections whose autoRead is turned off until the lane is no longer saturated
+    private final ConcurrentLinkedQueue<Channel> pausedChannels = new ConcurrentLinkedQueue<>();
+
+    LaneExecutor(ExecutionLane lane, MessageProcessor.LaneConfig cfg) {
+        this.lane = lane;
+        final String prefix = "mongo-" + lane.name().toLowerCase() + "-";
+        maxQueueSize = cfg.maxQueueSize;
+        if (cfg.executorMode.equals(MessageProcessor.EXECUTOR_MODE_VIRTUAL)) {
+            executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(prefix, 0).factory());
+            runPermits = new Semaphore(cfg.maxPoolSize);
+        } else if (cfg.executorMode.equals(MessageProcessor.EXECUTOR_MODE_PLATFORM)) {
+            executor = new ThreadPoolExecutor(
+                    cfg.minPoolSize,
+                    cfg.maxPoolSize,
+                    cfg.threadIdleMillis,
+                    TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<Runnable>(cfg.maxQueueSize),
+                    new MongoThreadFactory(prefix)
+            );
+            runPermits = null;
+        } else {
+            throw new IllegalArgumentException("unknown executorMode " + cfg.executorMode + " of lane " + lane);
+        }
+        limiter = new AdaptiveConcurrencyLimiter(cfg.minConcurrency, cfg.initialConcurrency, cfg.maxConcurrency);
+        log.info("lane {} executor mode {} maxPoolSize {} maxQueueSize {}",
+                lane, cfg.executorMode, cfg.maxPoolSize, cfg.maxQueueSize);
+    }
+
+    ExecutionLane getLane() {
+        return lane;
+    }
+
+    boolean tryAcquire() {
+        return limiter.tryAcquire();
+    }
+
+    /*
+     * releases a slot acquired by tryAcquire, see AdaptiveConcurrencyLimiter.release.
+     */
+    void release(long rttNanos) {
+        limiter.release(rttNanos);
+        maybeResumeReading();
+    }
+
+    boolean isSaturated() {
+        return limiter.isSaturated();
+    }
+
+    int getLimit() {
+        return limiter.getLimit();
+    }
+
+    int getInflight() {
+        return limiter.getInflight();
+    }
+
+    void execute(Runnable task) {
+        if (runPermits == null) {
+            executor.execute(task);
+            return;
+        }
+        // virtual threads are cheap, but the commands they run are not: bound the running ones like a pool
+        // does, and the ones waiting for a permit like its queue.
+        if (waitingForPermit.incrementAndGet() > maxQueueSize) {
+            waitingForPermit.decrementAndGet();
+            throw new RejectedExecutionException("too many commands waiting to run");
+        }
+        try {
+            executor.execute(() -> {
+                runPermits.acquireUninterruptibly();
+                waitingForPermit.decrementAndGet();
+                try {
+                    task.run();
+                } finally {
+                    runPermits.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            waitingForPermit.decrementAndGet();
+            throw e;
+        }
+    }
+
+    /*
+     * turns autoRead of channel off unless another lane paused it already, which then resumes it.
+     */
+    void pauseReading(Channel channel) {
+        if (!channel.config().isAutoRead()) {
+            return;
+        }
+        channel.attr(PAUSED_BY).set(lane);
+        channel.config().setAutoRead(false);
+        pausedChannels.add(channel);
+        // the last in-flight command may have completed before the channel was queued
+        maybeResumeReading();
+    }
+
+    private void maybeResumeReading() {
+        // resume below the limit with some headroom, so that connections do not flap around it. At a limit of
+        // 1 there is none short of an idle lane, which must resume them, it admits nothing while they are paused
+        while (limiter.getInflight() < Math.max(1, limiter.getLimit() * 3 / 4)) {
+            Channel channel = pausedChannels.poll();
+            if (channel == null) {
+                return;
+            }
+            channel.attr(PAUSED_BY).set(null);
+            channel.config().setAutoRead(true);
+        }
+    }
+
+    void shutdown() {
+        executor.shutdown();
+    }
+
+    boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return executor.awaitTermination(timeout, unit);
+    }
+
+    void shutdownNow() {
+        executor.shutdownNow();
+    }
+}
@@ -1,17 +1,22 @@
 package com.luceneserver.server.mongo;
 
 import com.luceneserver.commands.mongo.*;
+import com.luceneserver.protocol.mongo.ErrorCode;
 import com.luceneserver.protocol.mongo.MongoMessage;
 import com.luceneserver.protocol.mongo.MsgHeader;
+import com.luceneserver.transport.mongo.MessageChecksums;
+import com.luceneserver.transport.mongo.ResponseWriter;
+import com.luceneserver.transport.mongo.compression.MessageCompressors;
+import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.bson.RawBsonDocument;
 
 
 import java.io.IOException;
+import java.util.EnumMap;
 import java.util.HashMap;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 
 public class MessageProcessor {
@@ -19,12 +24,33 @@ public class MessageProcessor {
 
     private final HashMap<String, Command> cmdMap;
 
-    public static class Config {
+    public static final String EXECUTOR_MODE_PLATFORM = "platform";
+    public static final String EXECUTOR_MODE_VIRTUAL = "virtual";
+
+    public static class LaneConfig {
+        // "platform": a ThreadPoolExecutor sized by minPoolSize/maxPoolSize.
+        // "virtual": one virtual thread per command, at most maxPoolSize of them running at a time.
+        public String executorMode = EXECUTOR_MODE_PLATFORM;
         public int minPoolSize = 10;
         public int maxPoolSize = 1000;
         public int threadIdleMillis = 30000;
+        // commands waiting for a thread (or a permit in virtual mode), beyond this commands are rejected
+        public int maxQueueSize = 1000;
+        // bounds of the adaptive limit on admitted (queued or running) commands
+        public int minConcurrency = 10;
+        public int initialConcurrency = 100;
+        public int maxConcurrency = 2000;
+    }
+
+    /*
+     * the top-level settings apply to every lane which has no section of its own.
+     */
+    public static class Config extends LaneConfig {
+        public LaneConfig read;
+        public LaneConfig write;
+        public LaneConfig admin;
     }
-    ThreadPoolExecutor executor;
+    private final EnumMap<ExecutionLane, LaneExecutor> lanes = new EnumMap<>(ExecutionLane.class);
 
     MessageProcessor(Config cfg) {
         cmdMap = new HashMap<String, Command>();
@@ -40,57 +66,170 @@ public class MessageProcessor {
                 new CmdDropIndex(),
                 new CmdCreateSearchIndex(),
                 new CmdSearch(),
+                new CmdServerStatus(),
+                new CmdCurrentOp(),
+                new CmdKillOp(),
+                new CmdCount(),
+                new CmdGetMore(),
+                new CmdKillCursors(),
         };
         for (Command c : cmds) {
             c.register(cmdMap);
         }
 
-        executor = new ThreadPoolExecutor(
-                cfg.minPoolSize,
-                cfg.maxPoolSize,
-                cfg.threadIdleMillis,
-                TimeUnit.MILLISECONDS,
-                new java.util.concurrent.LinkedBlockingQueue<Runnable>()
-        );
+        lanes.put(ExecutionLane.READ, new LaneExecutor(ExecutionLane.READ, cfg.read != null ? cfg.read : cfg));
+        lanes.put(ExecutionLane.WRITE, new LaneExecutor(ExecutionLane.WRITE, cfg.write != null ? cfg.write : cfg));
+        lanes.put(ExecutionLane.ADMIN, new LaneExecutor(ExecutionLane.ADMIN, cfg.admin != null ? cfg.admin : cfg));
     }
 
     void shutdown() {
         //Initiates an orderly shutdown in which previously submitted tasks are executed,
         //but no new tasks will be accepted.
-        executor.shutdown();
+        for (LaneExecutor lane : lanes.values()) {
+            lane.shutdown();
+        }
 
         try {
             //Waits for a maximum of 3 seconds for all tasks to complete execution
             //after shutdown request.
-            if (!executor.awaitTermination(3, TimeUnit.SECONDS)) {
-                //Force shutdown if not all tasks could complete in the given timeout
-                executor.shutdownNow();
+            final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(3);
+            for (LaneExecutor lane : lanes.values()) {
+                if (!lane.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+                    //Force shutdown if not all tasks could complete in the given timeout
+                    lane.shutdownNow();
+                }
             }
         } catch (InterruptedException e) {
             //If the current thread is interrupted while waiting
-            executor.shutdownNow();
+            for (LaneExecutor lane : lanes.values()) {
+                lane.shutdownNow();
+            }
         }
     }
 
+    /*
+     * INLINE commands (and unknown ones, which only produce an error) are answered right on the event loop.
+     * Others are admitted to their lane if its adaptive limit allows it, otherwise failed right away with a
+     * retryable TemporarilyUnavailable, and reading from the connection stops, so that the backlog stays
+     * in the clients' socket buffers instead of our heap. Reading is resumed once the lane's load drops.
+     * The whole connection is paused, its commands of other lanes wait for that lane too, see LaneExecutor.
+     */
     public void process(ChannelHandlerContext opCtx, MongoMessage msg, MsgHeader rspMsgHeader) {
-        executor.execute(() -> {
-            RawBsonDocument rsp = handleMessage(opCtx, msg);
-            MongoMessage rspMsg = new MongoMessage(rspMsgHeader, rsp, msg.isLegacyFormat());
-            opCtx.channel().writeAndFlush(rspMsg);
-        });
+        final Command cmd = cmdMap.get(msg.getCommandName());
+        if (cmd == null || cmd.getLane() == ExecutionLane.INLINE) {
+            respond(opCtx, msg, rspMsgHeader);
+            return;
+        }
+        final LaneExecutor lane = lanes.get(cmd.getLane());
+        if (!lane.tryAcquire()) {
+            reject(opCtx, msg, rspMsgHeader, lane);
+            return;
+        }
+        if (lane.isSaturated()) {
+            lane.pauseReading(opCtx.channel());
+        }
+        final long admittedNanos = System.nanoTime();
+        try {
+            lane.execute(() -> {
+                try {
+                    respond(opCtx, msg, rspMsgHeader);
+                } finally {
+                    lane.release(System.nanoTime() - admittedNanos);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            lane.release(-1);
+            reject(opCtx, msg, rspMsgHeader, lane);
+        } catch (RuntimeException e) {
+            lane.release(-1);
+            msg.release();
+            throw e;
+        }
     }
 
-    public RawBsonDocument handleMessage(ChannelHandlerContext opCtx, MongoMessage msg) {
-        MongoMessage rsp = null;
+    /*
+     * runs the command of msg and writes its reply, releasing msg. The reply buffer is released too if
+     * the command could not even be started, e.g. OperationContext.begin threw.
+     */
+    private void respond(ChannelHandlerContext opCtx, MongoMessage msg, MsgHeader rspMsgHeader) {
+        final ResponseWriter rsp;
+        try {
+            rsp = new ResponseWriter(opCtx.alloc(), rspMsgHeader, msg.isLegacyFormat());
+            try {
+                handleMessage(opCtx, msg, rsp);
+            } catch (RuntimeException | Error e) {
+                rsp.release();
+                throw e;
+            }
+        } finally {
+            // the request body points into the pooled frame, nothing may read it after this
+            msg.release();
+        }
+        writeResponse(opCtx, msg, rsp);
+    }
+
+    private void reject(ChannelHandlerContext opCtx, MongoMessage msg, MsgHeader rspMsgHeader, LaneExecutor lane) {
+        final ResponseWriter rsp;
+        try {
+            rsp = new ResponseWriter(opCtx.alloc(), rspMsgHeader, msg.isLegacyFormat());
+            try {
+                log.debug("reject cmd {} from {}, {} in flight in lane {}",
+                        msg.getCommandName(), opCtx.channel(), lane.getInflight(), lane.getLane());
+                Command.writeErrRsp(rsp.getWriter(), ErrorCode.TEMPORARILY_UNAVAILABLE,
+                        "server is over capacity, " + lane.getLane() + " concurrency limit " + lane.getLimit());
+            } catch (RuntimeException | Error e) {
+                rsp.release();
+                throw e;
+            }
+        } finally {
+            msg.release();
+        }
+        writeResponse(opCtx, msg, rsp);
+        lane.pauseReading(opCtx.channel());
+    }
+
+    private void writeResponse(ChannelHandlerContext opCtx, MongoMessage msg, ResponseWriter rsp) {
+        // a checksum would have to cover the uncompressed message, so compressed replies go without one
+        final boolean compress = msg.getCompressorId() != MessageCompressors.NO_COMPRESSION;
+        ByteBuf out = rsp.finish(!compress && MessageChecksums.shouldGenerate());
+        if (compress) {
+            try {
+                out = MessageCompressors.compress(
+                        opCtx.alloc(), out, MessageCompressors.getById(msg.getCompressorId()));
+            } catch (IOException e) {
+                log.error("compress reply to {} failed, close the connection", opCtx.channel(), e);
+                opCtx.channel().close();
+                return;
+            }
+        }
+        opCtx.channel().writeAndFlush(out);
+    }
+
+    public void handleMessage(ChannelHandlerContext opCtx, MongoMessage msg, ResponseWriter rsp) {
         log.debug("get cmd name {}", msg.getCommandName());
         Command cmd = cmdMap.get(msg.getCommandName());
         if (cmd == null) {
-            return Command.createErrRspWithMsg(msg.getCommandName() + " is not a valid command name");
+            Command.writeErrRspWithMsg(rsp.getWriter(), msg.getCommandName() + " is not a valid command name");
+            return;
         }
+        final OperationContext op = OperationContext.begin(
+                msg.getCommandName(), String.valueOf(opCtx.channel().remoteAddress()), msg.getBody());
         try {
-            return cmd.run(opCtx, msg);
+            cmd.writeReply(opCtx, msg, rsp.getWriter());
         } catch (Exception e) {
-            return Command.createErrRspWithMsg(e.toString());
+            // the command may have failed halfway through its reply
+            rsp.reset();
+            // NOTE(deyukong): interruption is cooperative, whatever a killed or expired command failed with
+            // is how it noticed.
+            if (op.isKilled()) {
+                Command.writeErrRsp(rsp.getWriter(), ErrorCode.INTERRUPTED, "operation was interrupted");
+            } else if (op.isExpired()) {
+                Command.writeErrRsp(rsp.getWriter(), ErrorCode.MAX_TIME_MS_EXPIRED, "operation exceeded time limit");
+            } else {
+                Command.writeErrRspWithMsg(rsp.getWriter(), e.toString());
+            }
+        } finally {
+            op.end();
         }
     }
 }
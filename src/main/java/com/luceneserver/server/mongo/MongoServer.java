@@ -1,8 +1,21 @@
 package com.luceneserver.server.mongo;
 
+import com.luceneserver.commands.mongo.OperationContext;
+import com.luceneserver.commands.mongo.QueryParseCache;
+import com.luceneserver.storage.GroupCommitter;
+import com.luceneserver.storage.IndexAccess;
 import com.luceneserver.storage.IndexCatalog;
+import com.luceneserver.storage.IndexingThreadPool;
+import com.luceneserver.storage.QueryCaches;
+import com.luceneserver.storage.RecentQueriesWarmer;
+import com.luceneserver.storage.RefreshScheduler;
+import com.luceneserver.storage.SearchCursors;
+import com.luceneserver.storage.SearchResultCache;
+import com.luceneserver.storage.SearchThreadPool;
+import com.luceneserver.transport.mongo.MessageChecksums;
 import com.luceneserver.transport.mongo.MongoServerHandler;
 import com.luceneserver.transport.mongo.MongoWireProtocolEncoder;
+import com.luceneserver.transport.mongo.compression.MessageCompressors;
 import com.luceneserver.utils.mongo.MongoThreadFactory;
 import com.luceneserver.utils.ServerParameter;
 import org.apache.logging.log4j.Level;
@@ -15,18 +28,27 @@ import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.time.Clock;
 import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
 
 import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerDomainSocketChannel;
+import io.netty.channel.epoll.EpollServerSocketChannel;
 import io.netty.channel.group.ChannelGroup;
 import io.netty.channel.group.DefaultChannelGroup;
 import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.unix.DomainSocketAddress;
+import com.luceneserver.transport.mongo.HeapIoByteBufAllocator;
 import com.luceneserver.transport.mongo.MongoExceptionHandler;
 import com.luceneserver.transport.mongo.MongoWireProtocolHandler;
 
@@ -40,10 +62,27 @@ import sun.misc.SignalHandler;
 public class MongoServer {
 
 
+    public static class TransportConfig {
+        // use the native epoll transport if it is available on this platform, NIO otherwise
+        public boolean nativeTransport = false;
+        // 0 lets netty pick 2*nCPU
+        public int acceptorThreads = 1;
+        public int workerThreads = 0;
+        public int backlog = 100;
+        // 0 keeps the OS defaults
+        public int receiveBufferSize = 0;
+        public int sendBufferSize = 0;
+        // epoll only, binds one listen socket per acceptor thread so that the kernel spreads the accepts
+        public boolean reusePort = false;
+        // epoll only, an additional listener for co-located clients
+        public String unixDomainSocketPath;
+    }
+
     public static class ServerConfig {
         public String host;
         public int port;
         public String dataDir;
+        public TransportConfig transport;
         public MessageProcessor.Config messageProcessor;
         public HashMap<String, Object> setParameters;
     }
@@ -55,8 +94,8 @@ public class MongoServer {
 
     private ChannelGroup channelGroup;
 
-    // something represents the server's binding listen socket
-    private Channel serverChannel;
+    // the server's binding listen sockets, more than one with SO_REUSEPORT or a unix domain socket
+    private final List<Channel> serverChannels = new CopyOnWriteArrayList<>();
 
     private MessageProcessor messageProcessor;
 
@@ -85,40 +124,100 @@ public class MongoServer {
         return instance;
     }
     public void bind(String hostname, int port) {
-        bind(new InetSocketAddress(hostname, port));
+        bind(new InetSocketAddress(hostname, port), new TransportConfig());
     }
 
-    public void bind(SocketAddress socketAddress) {
+    public void bind(SocketAddress socketAddress, TransportConfig cfg) {
+        final boolean useEpoll = cfg.nativeTransport && Epoll.isAvailable();
+        if (cfg.nativeTransport && !useEpoll) {
+            log.warn("native transport is unavailable, fall back to nio", Epoll.unavailabilityCause());
+        }
         // use netty-default by setting nThread = 0, netty resets threads-count to 2*nCPU
-        bossGroup = new NioEventLoopGroup(0, new MongoThreadFactory("mongo-server-boss"));
-        workerGroup = new NioEventLoopGroup(0, new MongoThreadFactory("mongo-server-worker"));
+        if (useEpoll) {
+            bossGroup = new EpollEventLoopGroup(cfg.acceptorThreads, new MongoThreadFactory("mongo-server-boss"));
+            workerGroup = new EpollEventLoopGroup(cfg.workerThreads, new MongoThreadFactory("mongo-server-worker"));
+        } else {
+            bossGroup = new NioEventLoopGroup(cfg.acceptorThreads, new MongoThreadFactory("mongo-server-boss"));
+            workerGroup = new NioEventLoopGroup(cfg.workerThreads, new MongoThreadFactory("mongo-server-worker"));
+        }
         channelGroup = new DefaultChannelGroup("mongodb-channels", workerGroup.next());
 
         try {
-            ServerBootstrap bootstrap = new ServerBootstrap()
-                    .group(bossGroup, workerGroup)
-                    .channel(NioServerSocketChannel.class)
-                    .option(ChannelOption.SO_BACKLOG, 100)
+            ServerBootstrap bootstrap = newBootstrap(useEpoll)
+                    .channel(useEpoll ? EpollServerSocketChannel.class : NioServerSocketChannel.class)
                     .localAddress(socketAddress)
-                    .childOption(ChannelOption.TCP_NODELAY, Boolean.TRUE)
-                    .childHandler(new ChannelInitializer<SocketChannel>() {
-                        @Override
-                        public void initChannel(SocketChannel ch) throws Exception {
-                            ch.pipeline().addLast(new MongoWireProtocolEncoder());
-                            ch.pipeline().addLast(new MongoWireProtocolHandler());
-                            ch.pipeline().addLast(new MongoServerHandler(channelGroup));
-                            ch.pipeline().addLast(new MongoExceptionHandler());
-                        }
-                    });
-
-            serverChannel = bootstrap.bind().syncUninterruptibly().channel();
-            log.info("started {} on {}", this, socketAddress.toString());
+                    .childOption(ChannelOption.TCP_NODELAY, Boolean.TRUE);
+            if (cfg.receiveBufferSize > 0) {
+                bootstrap.option(ChannelOption.SO_RCVBUF, cfg.receiveBufferSize);
+            }
+            if (cfg.sendBufferSize > 0) {
+                bootstrap.childOption(ChannelOption.SO_SNDBUF, cfg.sendBufferSize);
+            }
+            bootstrap.option(ChannelOption.SO_BACKLOG, cfg.backlog);
+            int listeners = 1;
+            if (cfg.reusePort && useEpoll) {
+                bootstrap.option(EpollChannelOption.SO_REUSEPORT, Boolean.TRUE);
+                // each bind registers the listen socket to the next acceptor thread
+                listeners = Math.max(1, cfg.acceptorThreads);
+            } else if (cfg.reusePort) {
+                log.warn("reusePort is only supported by the native transport, bind a single listener");
+            }
+            for (int i = 0; i < listeners; i++) {
+                serverChannels.add(bootstrap.bind().syncUninterruptibly().channel());
+            }
+            log.info("started {} on {} with {} transport, {} listeners",
+                    this, socketAddress.toString(), useEpoll ? "epoll" : "nio", listeners);
+
+            if (cfg.unixDomainSocketPath != null) {
+                if (useEpoll) {
+                    bindUnixDomainSocket(cfg);
+                } else {
+                    log.warn("unix domain socket {} needs the native transport, skip it", cfg.unixDomainSocketPath);
+                }
+            }
         } catch (RuntimeException e) {
             shutdown();
             throw e;
         }
     }
 
+    private ServerBootstrap newBootstrap(boolean useEpoll) {
+        return new ServerBootstrap()
+                .group(bossGroup, workerGroup)
+                // NOTE(deyukong): epoll reads straight into the buffer's memory address, which heap buffers
+                // do not have, so native transport reads into pooled direct buffers and
+                // MongoWireProtocolHandler copies each frame out of them once.
+                .childOption(ChannelOption.ALLOCATOR, useEpoll
+                        ? PooledByteBufAllocator.DEFAULT
+                        : new HeapIoByteBufAllocator(PooledByteBufAllocator.DEFAULT))
+                .childHandler(new ChannelInitializer<Channel>() {
+                    @Override
+                    public void initChannel(Channel ch) throws Exception {
+                        ch.pipeline().addLast(new MongoWireProtocolEncoder());
+                        ch.pipeline().addLast(new MongoWireProtocolHandler());
+                        ch.pipeline().addLast(new MongoServerHandler(channelGroup));
+                        ch.pipeline().addLast(new MongoExceptionHandler());
+                    }
+                });
+    }
+
+    private void bindUnixDomainSocket(TransportConfig cfg) {
+        File socketFile = new File(cfg.unixDomainSocketPath);
+        // a socket file left behind by a crashed server would make bind fail with EADDRINUSE
+        if (socketFile.exists()) {
+            log.warn("remove stale unix domain socket {}", socketFile);
+            if (!socketFile.delete()) {
+                throw new IllegalStateException("can not remove stale unix domain socket " + socketFile);
+            }
+        }
+        ServerBootstrap bootstrap = newBootstrap(true)
+                .channel(EpollServerDomainSocketChannel.class)
+                .option(ChannelOption.SO_BACKLOG, cfg.backlog)
+                .localAddress(new DomainSocketAddress(socketFile));
+        serverChannels.add(bootstrap.bind().syncUninterruptibly().channel());
+        log.info("started {} on unix domain socket {}", this, socketFile);
+    }
+
     /**
      * Stop accepting new clients. Wait until all resources (such as client
      * connection) are closed and then shutdown. This method blocks until all
@@ -139,6 +238,8 @@ public class MongoServer {
         if (messageProcessor != null) {
             messageProcessor.shutdown();
         }
+        SearchThreadPool.shutdown();
+        IndexingThreadPool.shutdown();
 
         if (bossGroup != null) {
             bossGroup.terminationFuture().syncUninterruptibly();
@@ -159,11 +260,15 @@ public class MongoServer {
      * Closes the server socket. No new clients are accepted afterwards.
      */
     public void stopListening() {
-        if (serverChannel != null) {
-            log.info("closing server channel");
+        for (Channel serverChannel : serverChannels) {
+            log.info("closing server channel {}", serverChannel);
+            SocketAddress localAddress = serverChannel.localAddress();
             serverChannel.close().syncUninterruptibly();
-            serverChannel = null;
+            if (localAddress instanceof DomainSocketAddress) {
+                new File(((DomainSocketAddress) localAddress).path()).delete();
+            }
         }
+        serverChannels.clear();
     }
 
     /**
@@ -171,10 +276,10 @@ public class MongoServer {
      * need to wait for all threads terminated.
      */
     public void waitUntilShutdown() {
-        if (serverChannel != null) {
+        for (Channel serverChannel : serverChannels) {
             serverChannel.closeFuture().syncUninterruptibly();
-            log.info("wait for server channel closed succ");
         }
+        log.info("wait for server channels closed succ");
     }
     private void closeClients() {
         if (channelGroup != null) {
@@ -197,6 +302,19 @@ public class MongoServer {
      */
     public static void loadClass() {
         IndexCatalog.loadClass();
+        IndexAccess.loadClass();
+        RecentQueriesWarmer.loadClass();
+        SearchThreadPool.loadClass();
+        SearchResultCache.loadClass();
+        QueryCaches.loadClass();
+        MessageCompressors.loadClass();
+        MessageChecksums.loadClass();
+        QueryParseCache.loadClass();
+        OperationContext.loadClass();
+        SearchCursors.loadClass();
+        GroupCommitter.loadClass();
+        RefreshScheduler.loadClass();
+        IndexingThreadPool.loadClass();
     }
 
     public static void main(String[] args) throws IOException {
@@ -213,7 +331,8 @@ public class MongoServer {
         server.indexCatalog = new IndexCatalog(serverConfig.dataDir, server.getClock());
         server.indexCatalog.start();
         MongoServer.instance = server;
-        server.bind(serverConfig.host, serverConfig.port);
+        server.bind(new InetSocketAddress(serverConfig.host, serverConfig.port),
+                serverConfig.transport != null ? serverConfig.transport : new TransportConfig());
         Signal.handle(new Signal("INT"), new SignalHandler() {
             @Override
             public void handle(Signal sig) {
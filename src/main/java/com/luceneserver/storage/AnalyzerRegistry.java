@@ -0,0 +1,27 @@
+package com.luceneserver.storage;
+
+import org.apache.lucene.analysis.Analyzer;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * the analyzers of the server, one shared instance per name. An Analyzer is thread-safe and keeps its
+ * token stream components per thread, so sharing it lets every request reuse the components its thread
+ * already built, instead of allocating a fresh analyzer, with its own components, per text clause.
+ */
+public class AnalyzerRegistry {
+    private static final ConcurrentHashMap<String, Analyzer> analyzers = new ConcurrentHashMap<>();
+
+    private AnalyzerRegistry() {}
+
+    /*
+     * returns the shared analyzer named name, throws IllegalArgumentException if there is no such analyzer.
+     */
+    public static Analyzer get(String name) {
+        Analyzer analyzer = analyzers.get(name);
+        if (analyzer != null) {
+            return analyzer;
+        }
+        return analyzers.computeIfAbsent(name, SearchIndexAccess::newAnalyzerFromString);
+    }
+}
@@ -0,0 +1,136 @@
+package com.luceneserver.storage;
+
+import com.luceneserver.utils.Counter;
+import com.luceneserver.utils.ServerParameter;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * commits of an index on behalf of concurrent autoCommit batches. The first batch to ask for a commit
+ * leads a group: it waits groupCommitWindowMillis for others to join, then commits and refreshes once for
+ * all of them. Batches asking while a group is committing form the next group, whose commit covers their
+ * writes as well, so at most one commit is running and one is forming at any time.
+ */
+public class GroupCommitter {
+    // how long the leader of a group waits for more batches before committing, 0 commits right away and
+    // groups only the batches which arrived during the previous commit
+    private static final ServerParameter<Integer> groupCommitWindowMillis =
+            new ServerParameter<>("groupCommitWindowMillis", 1, true) {
+                @Override
+                public void validate(Integer data) {
+                    if (data < 0) {
+                        throw new IllegalArgumentException("groupCommitWindowMillis must not be negative");
+                    }
+                }
+            };
+    private static final Counter allCommits = new Counter("groupCommit.commits");
+    private static final Counter allBatches = new Counter("groupCommit.batches");
+
+    public interface Commit {
+        void run() throws IOException;
+    }
+
+    private static class Group {
+        boolean done = false;
+        IOException error = null;
+    }
+
+    private final Commit commit;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition committed = lock.newCondition();
+    // guarded by lock, the group new batches join, and whether a group is committing
+    private Group open = new Group();
+    private boolean committing = false;
+    private final AtomicLong commits = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+
+    public static void loadClass() {}
+
+    GroupCommitter(Commit commit) {
+        this.commit = commit;
+    }
+
+    /*
+     * returns once a commit which started after the call has made the writes before it durable and
+     * visible, throws if that commit failed.
+     */
+    void commit() throws IOException {
+        batches.incrementAndGet();
+        allBatches.increment();
+        lock.lock();
+        try {
+            final Group group = open;
+            while (!group.done) {
+                if (committing) {
+                    try {
+                        committed.await();
+                    } catch (InterruptedException e) {
+                        throw new InterruptedIOException("interrupted waiting for group commit");
+                    }
+                    continue;
+                }
+                // NOTE(deyukong): no group is committing, so ours is the open one, and we lead it
+                committing = true;
+                lock.unlock();
+                IOException error = null;
+                try {
+                    final int window = groupCommitWindowMillis.get();
+                    if (window > 0) {
+                        sleepUninterruptibly(window);
+                    }
+                } finally {
+                    lock.lock();
+                }
+                open = new Group();
+                lock.unlock();
+                try {
+                    commit.run();
+                    commits.incrementAndGet();
+                    allCommits.increment();
+                } catch (IOException e) {
+                    error = e;
+                } catch (RuntimeException e) {
+                    // e.g. the writer was closed under us, the waiters must not take it for a commit
+                    error = new IOException(e);
+                } finally {
+                    lock.lock();
+                    group.done = true;
+                    group.error = error;
+                    committing = false;
+                    committed.signalAll();
+                }
+            }
+            if (group.error != null) {
+                throw new IOException("group commit failed", group.error);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static void sleepUninterruptibly(int millis) {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        boolean interrupted = false;
+        for (long left = TimeUnit.MILLISECONDS.toNanos(millis); left > 0; left = deadline - System.nanoTime()) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(left);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    void addStats(Map<String, Long> stats) {
+        stats.put("groupCommits", commits.get());
+        stats.put("groupCommitBatches", batches.get());
+    }
+}
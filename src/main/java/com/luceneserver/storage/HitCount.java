@@ -0,0 +1,51 @@
+package com.luceneserver.storage;
+
+/*
+ * how precisely a search counts its hits. Counting a hit means visiting it, so the less precise the count,
+ * the more of the non-competitive documents block-max WAND is free to skip.
+ */
+public enum HitCount {
+    // hits are counted only as far as it takes to fill the top limit
+    NONE("none"),
+    // hits are counted exactly up to LOWER_BOUND_THRESHOLD, beyond it the count is a lower bound
+    LOWER_BOUND("lowerBound"),
+    // every hit is counted
+    EXACT("exact"),
+    ;
+
+    // the threshold lucene itself counts up to by default
+    public static final int LOWER_BOUND_THRESHOLD = 1000;
+
+    private final String name;
+
+    HitCount(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public static HitCount fromName(String name) {
+        for (HitCount h : values()) {
+            if (h.name.equals(name)) {
+                return h;
+            }
+        }
+        throw new IllegalArgumentException("invalid hitCount " + name + ", must be none, lowerBound or exact");
+    }
+
+    /*
+     * the number of hits counted exactly, before the count may turn into a lower bound.
+     */
+    int threshold(int limit) {
+        switch (this) {
+            case NONE:
+                return limit;
+            case LOWER_BOUND:
+                return Math.max(limit, LOWER_BOUND_THRESHOLD);
+            default:
+                return Integer.MAX_VALUE;
+        }
+    }
+}
@@ -11,6 +11,7 @@ import org.apache.lucene.document.*;
 import org.apache.lucene.index.*;
 import org.apache.lucene.search.*;
 import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.CloseableThreadLocal;
 
 import java.io.IOException;
 import java.nio.file.Path;
@@ -24,10 +25,21 @@ public class HnswIndexAccess extends IndexAccess {
         public int maxConn;
         public int dimensions;
         public String similarity;
+        // "float32" (also when absent, for indexes created before it was configurable) or "int8"
+        public String encoding;
     }
 
     private final VectorSimilarityFunction similarity;
+    private final VectorEncoding encoding;
     private final int dimensions;
+    // per instance, the vector field depends on the dimensions and similarity of the index. A template
+    // refers to this index, so they are closed on drop rather than left in the maps of the indexing threads
+    private final CloseableThreadLocal<VectorDocTemplate> templates = new CloseableThreadLocal<>() {
+        @Override
+        protected VectorDocTemplate initialValue() {
+            return new VectorDocTemplate();
+        }
+    };
 
     public static HnswIndexAccess createInstance(
             Path dir, Clock c, HnswConfig cfg, MergeScheduler ms, long maxSegmentSize, long ramBufferSizeMB) throws IOException {
@@ -59,66 +71,113 @@ public class HnswIndexAccess extends IndexAccess {
         } else {
             throw new IllegalArgumentException("unknown similarity type " + cfg.similarity);
         }
-        return new HnswIndexAccess(index, config, c, sim, cfg.dimensions);
+        final VectorEncoding encoding;
+        if (cfg.encoding == null || cfg.encoding.equals("float32")) {
+            encoding = VectorEncoding.FLOAT32;
+        } else if (cfg.encoding.equals("int8")) {
+            encoding = VectorEncoding.BYTE;
+        } else {
+            throw new IllegalArgumentException("unknown vector encoding " + cfg.encoding);
+        }
+        return new HnswIndexAccess(index, config, c, sim, encoding, cfg.dimensions);
+    }
+
+    public VectorEncoding getVectorEncoding() {
+        return encoding;
+    }
+
+    /*
+     * interruption may be null, see searchIdsInLock.
+     */
+    public SearchResult knn(float[] query, int k, int candidates, Interruption interruption) throws IOException {
+        if (encoding != VectorEncoding.FLOAT32) {
+            throw new IllegalArgumentException("index has " + encoding + " vectors, query with an int8 vector");
+        }
+        return knn(new KnnFloatVectorQuery("vector", query, candidates), k, interruption);
+    }
+
+    public SearchResult knn(byte[] query, int k, int candidates, Interruption interruption) throws IOException {
+        if (encoding != VectorEncoding.BYTE) {
+            throw new IllegalArgumentException("index has " + encoding + " vectors, query with a float32 vector");
+        }
+        return knn(new KnnByteVectorQuery("vector", query, candidates), k, interruption);
     }
 
-    public String[] knn(float[] query, int k, int candidates) throws IOException {
+    private SearchResult knn(Query query, int k, Interruption interruption) throws IOException {
         rwLock.readLock().lock();
         try {
-            return doKnnInLock(query, k, candidates);
+            // the graph search already bounds the hits to k, there is nothing left to skip by not counting
+            return searchIdsInLock(query, k, HitCount.NONE, interruption);
         } finally {
             rwLock.readLock().unlock();
         }
     }
 
-    private String[] doKnnInLock(float[] q, int k, int m) throws IOException {
-        IndexSearcher searcher = new IndexSearcher(directoryReader.get());
-        Query query = new KnnFloatVectorQuery("vector", q, m);
-        TopDocs topDocs = searcher.search(query, k);
-        ScoreDoc[] hits = topDocs.scoreDocs;
-        String[] ids = new String[hits.length];
-        int i = 0;
-        for (ScoreDoc hit: hits) {
-            Document d = searcher.storedFields().document(hit.doc);
-            ids[i++] = d.get("id");
-        }
-        return ids;
-    }
-
     /*
-     * TODO(deyukong):
-     * NOTE(deyukong): the multi-thread access model of this class is NOT determined.
-     * should it be 1-writer-n-readers or n-writers-n-readers? As writing is in  batch mode,
-     * a single-writer probably may be enough, if so, a explicitly synchronized keyword
-     * should be marked somewhere.
+     * NOTE(deyukong): IndexWriter is thread-safe, ops of a large batch arrive here from several indexing
+     * threads at once, each building the graph of its own segment.
      */
     @Override
-    protected void doBatchWrite(WriteBatch batch) throws IOException {
-        for (WriteBatch.Op o : batch.ops) {
-            WriteBatch.HnswOp op = (WriteBatch.HnswOp) o;
-            Document doc = null;
-            if (op.isInsert() || op.isUpdate()) {
-                doc = new Document();
-                doc.add(new StringField("id", op.id, Field.Store.YES));
-                if (op.vector.length != dimensions) {
+    protected long applyOp(WriteBatch.Op o) throws IOException {
+        WriteBatch.HnswOp op = (WriteBatch.HnswOp) o;
+        Document doc = null;
+        if (op.isInsert() || op.isUpdate()) {
+            if (!indexWriter.isOpen()) {
+                throw new IOException("index not open or maybe dropped");
+            }
+            doc = templates.get().fill(op);
+        }
+        if (op.isInsert()) {
+            return indexWriter.addDocument(doc);
+        } else if (op.isDelete()) {
+            return indexWriter.deleteDocuments(new Term(ID_FIELD, op.id));
+        } else if (op.isUpdate()) {
+            return indexWriter.updateDocument(new Term(ID_FIELD, op.id), doc);
+        }
+        return 0;
+    }
+
+    private class VectorDocTemplate extends DocTemplate {
+        private final KnnFloatVectorField floatVector = encoding == VectorEncoding.FLOAT32
+                ? new KnnFloatVectorField("vector", new float[dimensions], similarity) : null;
+        private final KnnByteVectorField byteVector = encoding == VectorEncoding.BYTE
+                ? new KnnByteVectorField("vector", new byte[dimensions], similarity) : null;
+
+        Document fill(WriteBatch.HnswOp op) {
+            if (encoding == VectorEncoding.BYTE) {
+                if (op.byteVector == null || op.byteVector.length != dimensions) {
                     throw new IllegalArgumentException("invalid vector length");
                 }
-                doc.add(new KnnFloatVectorField("vector", op.vector, similarity));
+                byteVector.setVectorValue(op.byteVector);
+                return add(reset(op.id), byteVector);
             }
-            if (op.isInsert()) {
-                indexWriter.addDocument(doc);
-            } else if (op.isDelete()) {
-                indexWriter.deleteDocuments(new Term("id", op.id));
-            } else if (op.isUpdate()) {
-                indexWriter.updateDocument(new Term("id", op.id), doc);
+            if (op.vector == null || op.vector.length != dimensions) {
+                throw new IllegalArgumentException("invalid vector length");
             }
+            floatVector.setVectorValue(op.vector);
+            return add(reset(op.id), floatVector);
+        }
+
+        private Document add(Document doc, Field field) {
+            doc.add(field);
+            return doc;
+        }
+    }
+
+    @Override
+    void drop() throws IOException {
+        try {
+            super.drop();
+        } finally {
+            templates.close();
         }
-        super.doBatchWrite(batch);
     }
 
-    private HnswIndexAccess(FSDirectory d, IndexWriterConfig cfg, Clock c, VectorSimilarityFunction sim, int dimensions) throws IOException {
+    private HnswIndexAccess(FSDirectory d, IndexWriterConfig cfg, Clock c, VectorSimilarityFunction sim,
+                            VectorEncoding encoding, int dimensions) throws IOException {
         super(d, cfg, c);
         this.similarity = sim;
+        this.encoding = encoding;
         this.dimensions = dimensions;
     }
 
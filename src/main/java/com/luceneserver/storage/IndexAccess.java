@@ -2,53 +2,173 @@ package com.luceneserver.storage;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import com.luceneserver.utils.Counter;
+import com.luceneserver.utils.ServerParameter;
+import com.luceneserver.utils.SingleFlight;
+import org.apache.lucene.document.BinaryDocValuesField;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
 import org.apache.lucene.index.*;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ReferenceManager;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TopScoreDocCollector;
+import org.apache.lucene.search.TotalHits;
 import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.file.Path;
 import java.time.Clock;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public abstract class IndexAccess {
     private static final Logger log = LogManager.getLogger(IndexCatalog.class);
 
+    public static final String ID_FIELD = "id";
+    // NOTE(deyukong): a copy of the id in binary doc values, reading it for a hit is a random access instead
+    // of decompressing a stored-fields block. Binary rather than sorted, because only binary and numeric
+    // doc values can be updated in place, which is how documents indexed before it existed are migrated.
+    public static final String ID_DOC_VALUES_FIELD = "id_dv";
+    // indexed in place of a real document to create ID_DOC_VALUES_FIELD, and deleted right away
+    private static final String ID_DOC_VALUES_PLACEHOLDER = "\0id_dv";
+    private static final Set<String> ID_FIELD_SET = Set.of(ID_FIELD);
+
+    private static final Counter idsFromDocValues = new Counter("search.ids.docValues");
+    private static final Counter idsFromStoredFields = new Counter("search.ids.storedFields");
+
+    // whether identical searches running at the same time on the same reader share one execution
+    private static final ServerParameter<Boolean> coalesceSearches =
+            new ServerParameter<>("coalesceSearches", true, true);
+    private static final Counter searchExecutions = new Counter("search.singleFlight.executions");
+    private static final Counter searchesCoalesced = new Counter("search.singleFlight.coalesced");
+    // coalesced requests which searched again, the one they waited for having been cut short
+    private static final Counter searchesRerun = new Counter("search.singleFlight.rerun");
+    private static final Counter searchesTimedOut = new Counter("search.timedOut");
+    private static final Counter refreshes = new Counter("refresh.count");
+    private static final Counter refreshNanos = new Counter("refresh.nanos");
+    private static final Counter seqNoRefreshes = new Counter("refresh.waitForSeqNo");
+
+    private record InflightSearch(long readerVersion, Query query, int limit, HitCount hitCount) {}
+
     protected final IndexWriter indexWriter;
-    protected final AtomicReference<DirectoryReader> directoryReader;
-    // NOTE(deyukong): rwLock is used to protect indexWriter and directoryReader
+    // NOTE(deyukong): searchers are reference counted, acquire one with acquireSearcher() and hand it back
+    // with releaseSearcher(), the reader of a replaced searcher is closed after its last release.
+    protected final SearcherManager searcherManager;
+    private volatile SearcherWarmer warmer;
+    private final SearchResultCache resultCache = new SearchResultCache();
+    private final QueryCaches.Stats queryCacheStats = new QueryCaches.Stats();
+    private final SingleFlight<InflightSearch, SearchResult> inflightSearches =
+            new SingleFlight<>(searchExecutions, searchesCoalesced);
+    // autoCommit batches share commits through it
+    private final GroupCommitter groupCommitter = new GroupCommitter(this::commitAndRefreshReaderInLock);
+    private final AtomicLong parallelSearches = new AtomicLong();
+    private final AtomicLong sequentialSearches = new AtomicLong();
+    // NOTE(deyukong): rwLock is used to protect indexWriter and searcherManager
     // TODO(deyukong): implement standard IntentionLock
     protected final ReentrantReadWriteLock rwLock;
     private final Clock clock;
     private long lastCommitMillis;
     private final AtomicLong lastWriteTimestamp = new AtomicLong(0);
     private final AtomicLong lastCommittedTimestamp = new AtomicLong(0);
+    // the refresh interval of this index, null to follow the refreshIntervalMs server parameter
+    private volatile Integer refreshIntervalMs = null;
+    private volatile long lastRefreshMillis;
+    // documents inserted, updated or deleted, and how many of them a refresh has made visible
+    private final AtomicLong writtenDocs = new AtomicLong();
+    private final AtomicLong refreshedDocs = new AtomicLong();
+    private final AtomicLong refreshCount = new AtomicLong();
+    private final AtomicLong refreshNanosTotal = new AtomicLong();
+    private volatile long lastRefreshNanos = 0;
+    // every op up to it is visible to searches
+    private final AtomicLong refreshedSeqNo = new AtomicLong();
+    // waitForSeqNo refreshes one at a time, so that those waiting behind a refresh which covers them skip theirs
+    private final ReentrantLock seqNoRefreshLock = new ReentrantLock();
     private final SnapshotDeletionPolicy snapshotter = new SnapshotDeletionPolicy(new KeepOnlyLastCommitDeletionPolicy());
+    // protects backup, a j.u.c lock so that virtual threads waiting on it do not pin their carrier
+    private final ReentrantLock backupLock = new ReentrantLock();
     private IndexCommit backup = null;
     private final Path directory;
+    public static void loadClass() {}
+
     IndexAccess(FSDirectory d, IndexWriterConfig iwc, Clock c) throws IOException {
         directory = d.getDirectory();
         iwc.setIndexDeletionPolicy(snapshotter);
         indexWriter = new IndexWriter(d, iwc);
-        DirectoryReader reader = DirectoryReader.open(indexWriter);
-        directoryReader = new AtomicReference<DirectoryReader>(reader);
+        refreshedSeqNo.set(indexWriter.getMaxCompletedSequenceNumber());
+        warmer = new RecentQueriesWarmer(directory.getFileName().toString());
+        searcherManager = new SearcherManager(indexWriter, new SearcherFactory() {
+            @Override
+            public IndexSearcher newSearcher(IndexReader reader, IndexReader previousReader) throws IOException {
+                IndexSearcher searcher = SearchThreadPool.newSearcher(reader);
+                QueryCaches.configure(searcher, queryCacheStats);
+                warmer.warm(searcher, previousReader);
+                return searcher;
+            }
+        });
+        searcherManager.addListener(new ReferenceManager.RefreshListener() {
+            @Override
+            public void beforeRefresh() {}
+
+            @Override
+            public void afterRefresh(boolean didRefresh) {
+                if (didRefresh) {
+                    resultCache.invalidate();
+                }
+            }
+        });
         rwLock = new ReentrantReadWriteLock();
         clock = c;
         lastCommitMillis = clock.millis();
+        lastRefreshMillis = lastCommitMillis;
     }
 
     IndexAccess(FSDirectory d, IndexWriterConfig iwc) throws IOException {
         this(d, iwc, Clock.systemUTC());
     }
 
-    protected  void doBatchWrite(WriteBatch batch) throws IOException {
+    /*
+     * applies a single op of a batch to indexWriter and returns its sequence number. Large batches are
+     * applied from several indexing threads at once, see IndexingThreadPool, ops of the same id never
+     * concurrently.
+     */
+    protected abstract long applyOp(WriteBatch.Op op) throws IOException;
+
+    protected void doBatchWrite(WriteBatch batch) throws IOException {
+        final long seqNo = IndexingThreadPool.apply(batch.ops, op -> {
+            final long opSeqNo = applyOp(op);
+            docWritten();
+            return opSeqNo;
+        });
+        batch.seqNo = Math.max(batch.seqNo, seqNo);
         if (batch.autoCommit) {
-            commitAndRefreshReaderInLock();
+            groupCommitter.commit();
         }
     }
 
+    /*
+     * counts a document written to indexWriter, visible from the next refresh on.
+     */
+    private void docWritten() {
+        writtenDocs.incrementAndGet();
+    }
+
     public Path getDirectory() { return directory; }
 
     public Collection<String> beginBackup() throws IOException {
@@ -57,12 +177,15 @@ public abstract class IndexAccess {
             if (!indexWriter.isOpen()) {
                 throw new IOException("index not open or maybe dropped");
             }
-            synchronized (this) {
+            backupLock.lock();
+            try {
                 if (backup != null) {
                     throw new IOException("backup is still in progress");
                 }
                 backup = snapshotter.snapshot();
                 return backup.getFileNames();
+            } finally {
+                backupLock.unlock();
             }
         } finally {
             rwLock.readLock().unlock();
@@ -75,22 +198,29 @@ public abstract class IndexAccess {
             if (!indexWriter.isOpen()) {
                 throw new IOException("index not open or maybe dropped");
             }
-            synchronized (this) {
+            backupLock.lock();
+            try {
                 if (backup == null) {
                     return;
                 }
                 snapshotter.release(backup);
                 backup = null;
+            } finally {
+                backupLock.unlock();
             }
         } finally {
             rwLock.readLock().unlock();
         }
     }
 
-    public final void batchWrite(WriteBatch batch) throws IOException {
+    /*
+     * returns the sequence number of the batch, searches given it as waitForSeqNo see its writes.
+     */
+    public final long batchWrite(WriteBatch batch) throws IOException {
         rwLock.readLock().lock();
         try {
             doBatchWrite(batch);
+            return batch.seqNo;
         } finally {
             rwLock.readLock().unlock();
         }
@@ -108,12 +238,480 @@ public abstract class IndexAccess {
         lastWriteTimestamp.compareAndExchange(oldVal, ts);
     }
 
+    /*
+     * replaces the searcher warmer, which is a RecentQueriesWarmer by default.
+     */
+    public void setSearcherWarmer(SearcherWarmer warmer) {
+        this.warmer = warmer;
+    }
+
+    protected SearcherWarmer getSearcherWarmer() {
+        return warmer;
+    }
+
+    protected IndexSearcher acquireSearcher() throws IOException {
+        return searcherManager.acquire();
+    }
+
+    protected void releaseSearcher(IndexSearcher searcher) throws IOException {
+        searcherManager.release(searcher);
+    }
+
+    /*
+     * the searcher to run a request on, see SearchThreadPool.select. The acquired one is still the one
+     * to release.
+     */
+    protected IndexSearcher selectSearcher(IndexSearcher acquired) {
+        IndexSearcher searcher = SearchThreadPool.select(acquired);
+        if (searcher == acquired && SearchThreadPool.isParallel(acquired)) {
+            parallelSearches.incrementAndGet();
+        } else {
+            sequentialSearches.incrementAndGet();
+        }
+        return searcher;
+    }
+
+    /*
+     * the ids of the top limit hits of query, served from the result cache if the current reader already
+     * answered it. Otherwise identical requests arriving while it runs on the same reader wait for it and
+     * share its result. If interruption is not null the query gives up once it says so: past its deadline
+     * it returns the hits collected so far if it was collecting, or throws if it was still rewriting the
+     * query or walking a vector graph. Killed, it throws an InterruptedIOException.
+     */
+    protected SearchResult searchIdsInLock(Query query, int limit, HitCount hitCount, Interruption interruption)
+            throws IOException {
+        IndexSearcher acquired = acquireSearcher();
+        try {
+            final boolean versioned = acquired.getIndexReader() instanceof DirectoryReader;
+            final long version = versioned ? ((DirectoryReader) acquired.getIndexReader()).getVersion() : -1;
+            final boolean cacheable = versioned && SearchResultCache.isEnabled();
+            SearchResult result = cacheable ? resultCache.get(version, query, limit, hitCount) : null;
+            if (result == null) {
+                if (versioned && coalesceSearches.get()) {
+                    result = coalesceSearch(acquired, version, cacheable, query, limit, hitCount, interruption);
+                } else {
+                    result = executeSearch(acquired, version, cacheable, query, limit, hitCount, interruption);
+                }
+            }
+            getSearcherWarmer().onQuery(query, limit);
+            return result;
+        } finally {
+            releaseSearcher(acquired);
+        }
+    }
+
+    /*
+     * NOTE(deyukong): the leading request stops on its own deadline or kill, not on those of the requests
+     * waiting for it. They stop waiting on theirs, and share its result only if it is complete: a waiter
+     * whose leader timed out, was killed or gave up while rewriting searches by itself.
+     */
+    private SearchResult coalesceSearch(IndexSearcher acquired, long version, boolean cacheable, Query query,
+                                        int limit, HitCount hitCount, Interruption interruption) throws IOException {
+        final AtomicBoolean led = new AtomicBoolean();
+        SearchResult result;
+        try {
+            result = inflightSearches.run(new InflightSearch(version, query, limit, hitCount), () -> {
+                led.set(true);
+                return executeSearch(acquired, version, cacheable, query, limit, hitCount, interruption);
+            }, interruption == null ? null : interruption::shouldExit);
+        } catch (ExitableDirectoryReader.ExitingReaderException | InterruptedIOException e) {
+            if (led.get()) {
+                throw e;
+            }
+            result = null;
+        }
+        if (!led.get() && (result == null || result.isTimedOut())) {
+            searchesRerun.increment();
+            result = executeSearch(acquired, version, cacheable, query, limit, hitCount, interruption);
+        }
+        return result;
+    }
+
+    private SearchResult executeSearch(IndexSearcher acquired, long version, boolean cacheable, Query query,
+                                       int limit, HitCount hitCount, Interruption interruption) throws IOException {
+        IndexSearcher searcher = selectSearcher(acquired);
+        InterruptibleSearch search = new InterruptibleSearch(searcher, interruption);
+        // as IndexSearcher.search(query, n) does, but counting hits no further than hitCount requires
+        final int numHits = Math.min(limit, Math.max(1, searcher.getIndexReader().maxDoc()));
+        TopDocs topDocs = search.search(query,
+                TopScoreDocCollector.createSharedManager(numHits, null, hitCount.threshold(numHits)));
+        // the reader of a timed searcher gives up too, ids are read through the plain one
+        String[] ids = resolveIds(searcher, topDocs.scoreDocs);
+        final boolean timedOut = search.timedOut();
+        SearchResult result = new SearchResult(ids, topDocs.totalHits, timedOut);
+        if (timedOut) {
+            searchesTimedOut.increment();
+        } else if (cacheable) {
+            resultCache.put(version, query, limit, hitCount, result);
+        }
+        return result;
+    }
+
+    /*
+     * the first batchSize of the top limit hits of query, on a searcher pinned for the rest of them to be
+     * paged through with getMore, if there may be more. Pages skip the result cache and are not coalesced.
+     */
+    protected SearchResult openCursorInLock(Query query, int limit, int batchSize, HitCount hitCount,
+                                            Interruption interruption) throws IOException {
+        SearchCursor cursor = new SearchCursor(SearchCursors.nextId(), this, acquireSearcher(), query, limit,
+                batchSize, clock.millis());
+        // a cursor nobody else knows about yet
+        cursor.tryLock();
+        boolean registered = false;
+        try {
+            SearchResult result = nextPageInLock(cursor, batchSize, hitCount, interruption);
+            if (result.getCursorId() != 0) {
+                SearchCursors.register(cursor);
+                registered = true;
+            }
+            getSearcherWarmer().onQuery(query, limit);
+            return result;
+        } finally {
+            if (!registered) {
+                cursor.closeInLock();
+            }
+            cursor.unlock();
+        }
+    }
+
+    /*
+     * the next batchSize hits of cursor, or null if it was closed meanwhile. The cursor is closed once it
+     * is exhausted, as well as after a page which timed out, hits past its last one may have been skipped.
+     */
+    public SearchResult getMore(SearchCursor cursor, int batchSize, Interruption interruption) throws IOException {
+        rwLock.readLock().lock();
+        try {
+            if (!cursor.tryLock()) {
+                throw new IOException("cursor " + cursor.getId() + " is in use");
+            }
+            try {
+                if (cursor.isClosed()) {
+                    return null;
+                }
+                SearchResult result = nextPageInLock(cursor, batchSize, HitCount.NONE, interruption);
+                if (result.getCursorId() == 0) {
+                    SearchCursors.remove(cursor);
+                    cursor.closeInLock();
+                }
+                return result;
+            } finally {
+                cursor.unlock();
+            }
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
+    private SearchResult nextPageInLock(SearchCursor cursor, int batchSize, HitCount hitCount,
+                                        Interruption interruption) throws IOException {
+        IndexSearcher searcher = selectSearcher(cursor.getSearcher());
+        InterruptibleSearch search = new InterruptibleSearch(searcher, interruption);
+        final int numHits = Math.min(cursor.nextPageSize(batchSize), Math.max(1, searcher.getIndexReader().maxDoc()));
+        TopDocs topDocs = search.search(cursor.getQuery(),
+                TopScoreDocCollector.createSharedManager(numHits, cursor.getAfter(), hitCount.threshold(numHits)));
+        String[] ids = resolveIds(searcher, topDocs.scoreDocs);
+        final ScoreDoc[] hits = topDocs.scoreDocs;
+        final boolean timedOut = search.timedOut();
+        final boolean more = cursor.advance(hits.length == 0 ? null : hits[hits.length - 1], numHits, hits.length,
+                clock.millis());
+        if (timedOut) {
+            searchesTimedOut.increment();
+        }
+        return new SearchResult(ids, topDocs.totalHits, timedOut, more && !timedOut ? cursor.getId() : 0);
+    }
+
+    /*
+     * the number of documents matching query, answered from index statistics where lucene can, e.g. for
+     * a term query on a segment without deletions, and by counting matches without scoring otherwise.
+     * A count which timed out is a lower bound.
+     */
+    protected SearchResult countInLock(Query query, Interruption interruption) throws IOException {
+        IndexSearcher acquired = acquireSearcher();
+        try {
+            InterruptibleSearch search = new InterruptibleSearch(selectSearcher(acquired), interruption);
+            final int count = search.count(query);
+            final boolean timedOut = search.timedOut();
+            if (timedOut) {
+                searchesTimedOut.increment();
+            }
+            TotalHits totalHits = new TotalHits(count,
+                    timedOut ? TotalHits.Relation.GREATER_THAN_OR_EQUAL_TO : TotalHits.Relation.EQUAL_TO);
+            return new SearchResult(new String[0], totalHits, timedOut);
+        } finally {
+            releaseSearcher(acquired);
+        }
+    }
+
+    /*
+     * resolves the ids of hits, leaf by leaf in docID order so that the doc values of each leaf are only
+     * walked forward. Documents without the doc values copy fall back to stored fields.
+     */
+    protected static String[] resolveIds(IndexSearcher searcher, ScoreDoc[] hits) throws IOException {
+        final String[] ids = new String[hits.length];
+        final long[] byDoc = new long[hits.length];
+        for (int i = 0; i < hits.length; i++) {
+            byDoc[i] = ((long) hits[i].doc << 32) | i;
+        }
+        Arrays.sort(byDoc);
+        final List<LeafReaderContext> leaves = searcher.getIndexReader().leaves();
+        LeafReaderContext leaf = null;
+        BinaryDocValues docValues = null;
+        StoredFields storedFields = null;
+        long fallbacks = 0;
+        for (long packed : byDoc) {
+            final int doc = (int) (packed >>> 32);
+            final int i = (int) packed;
+            if (leaf == null || doc >= leaf.docBase + leaf.reader().maxDoc()) {
+                leaf = leaves.get(ReaderUtil.subIndex(doc, leaves));
+                docValues = leaf.reader().getBinaryDocValues(ID_DOC_VALUES_FIELD);
+            }
+            if (docValues != null && docValues.advanceExact(doc - leaf.docBase)) {
+                ids[i] = docValues.binaryValue().utf8ToString();
+            } else {
+                if (storedFields == null) {
+                    storedFields = searcher.storedFields();
+                }
+                ids[i] = storedFields.document(doc, ID_FIELD_SET).get(ID_FIELD);
+                fallbacks++;
+            }
+        }
+        idsFromDocValues.add(hits.length - fallbacks);
+        idsFromStoredFields.add(fallbacks);
+        return ids;
+    }
+
+    /*
+     * NOTE(deyukong): IndexWriter is done with a document once addDocument or updateDocument returns, so
+     * each indexing thread refills a document of its own, with the same Field instances, rather than
+     * allocating a Document and its Fields per op. Subclasses add the fields of their kind of document.
+     */
+    protected static class DocTemplate {
+        protected final Document doc = new Document();
+        private final StringField id = new StringField(ID_FIELD, "", Field.Store.YES);
+        private final BinaryDocValuesField idDocValues = new BinaryDocValuesField(ID_DOC_VALUES_FIELD, new BytesRef());
+
+        /*
+         * empties the document down to the id fields of id.
+         */
+        protected Document reset(String id) {
+            doc.clear();
+            this.id.setStringValue(id);
+            idDocValues.setBytesValue(new BytesRef(id));
+            doc.add(this.id);
+            doc.add(idDocValues);
+            return doc;
+        }
+    }
+
+    protected static void addIdFields(Document doc, String id) {
+        doc.add(new StringField(ID_FIELD, id, Field.Store.YES));
+        doc.add(new BinaryDocValuesField(ID_DOC_VALUES_FIELD, new BytesRef(id)));
+    }
+
+    /*
+     * copies the id of every live document indexed before ids were kept in doc values into
+     * ID_DOC_VALUES_FIELD, and commits. It goes segment by segment and holds the read lock for one segment
+     * at a time, so a drop does not wait for the whole index. Writes may go on meanwhile, the documents they
+     * add already carry the copy. An interrupt stops it between segments with nothing committed, a later
+     * run skips documents which already have the copy. Returns the number of documents updated.
+     */
+    public long migrateIdDocValues() throws IOException {
+        final IndexSearcher searcher;
+        rwLock.readLock().lock();
+        try {
+            if (!indexWriter.isOpen()) {
+                throw new IOException("index not open or maybe dropped");
+            }
+            // doc values can only be updated for a field which already exists
+            Document placeholder = new Document();
+            addIdFields(placeholder, ID_DOC_VALUES_PLACEHOLDER);
+            indexWriter.addDocument(placeholder);
+            indexWriter.deleteDocuments(new Term(ID_FIELD, ID_DOC_VALUES_PLACEHOLDER));
+            searcher = acquireSearcher();
+        } finally {
+            rwLock.readLock().unlock();
+        }
+
+        long updated = 0;
+        try {
+            final List<LeafReaderContext> leaves = searcher.getIndexReader().leaves();
+            for (int i = 0; i < leaves.size(); i++) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedIOException("id doc values migration of " + getDirectory() + " interrupted");
+                }
+                final long segmentUpdated;
+                rwLock.readLock().lock();
+                try {
+                    if (!indexWriter.isOpen()) {
+                        throw new IOException("index not open or maybe dropped");
+                    }
+                    segmentUpdated = migrateIdDocValuesInLock(leaves.get(i).reader());
+                } finally {
+                    rwLock.readLock().unlock();
+                }
+                updated += segmentUpdated;
+                log.info("id doc values migration of {}: segment {}/{} done, {} documents updated so far",
+                        getDirectory(), i + 1, leaves.size(), updated);
+            }
+        } finally {
+            releaseSearcher(searcher);
+        }
+
+        rwLock.readLock().lock();
+        try {
+            if (!indexWriter.isOpen()) {
+                throw new IOException("index not open or maybe dropped");
+            }
+            commitAndRefreshReaderInLock();
+        } finally {
+            rwLock.readLock().unlock();
+        }
+        return updated;
+    }
+
+    private long migrateIdDocValuesInLock(LeafReader reader) throws IOException {
+        long updated = 0;
+        BinaryDocValues docValues = reader.getBinaryDocValues(ID_DOC_VALUES_FIELD);
+        Bits liveDocs = reader.getLiveDocs();
+        StoredFields storedFields = reader.storedFields();
+        for (int doc = 0; doc < reader.maxDoc(); doc++) {
+            if (liveDocs != null && !liveDocs.get(doc)) {
+                continue;
+            }
+            if (docValues != null && docValues.advanceExact(doc)) {
+                continue;
+            }
+            String id = storedFields.document(doc, ID_FIELD_SET).get(ID_FIELD);
+            if (id == null) {
+                continue;
+            }
+            indexWriter.updateBinaryDocValue(new Term(ID_FIELD, id), ID_DOC_VALUES_FIELD, new BytesRef(id));
+            updated++;
+        }
+        return updated;
+    }
+
+    /*
+     * point-in-time statistics of this index, reported by serverStatus.
+     */
+    public Map<String, Long> getStats() throws IOException {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        rwLock.readLock().lock();
+        try {
+            if (!indexWriter.isOpen()) {
+                throw new IOException("index not open or maybe dropped");
+            }
+            IndexSearcher searcher = acquireSearcher();
+            try {
+                IndexReader reader = searcher.getIndexReader();
+                stats.put("numDocs", (long) reader.numDocs());
+                stats.put("maxDoc", (long) reader.maxDoc());
+                stats.put("segments", (long) reader.leaves().size());
+            } finally {
+                releaseSearcher(searcher);
+            }
+            stats.put("ramBytesUsed", indexWriter.ramBytesUsed());
+        } finally {
+            rwLock.readLock().unlock();
+        }
+        stats.put("pendingRefreshDocs", getPendingRefreshDocs());
+        stats.put("refreshes", refreshCount.get());
+        stats.put("lastRefreshMicros", lastRefreshNanos / 1000);
+        stats.put("refreshMicrosTotal", refreshNanosTotal.get() / 1000);
+        stats.put("parallelSearches", parallelSearches.get());
+        stats.put("sequentialSearches", sequentialSearches.get());
+        resultCache.addStats(stats);
+        queryCacheStats.addStats(stats);
+        groupCommitter.addStats(stats);
+        return stats;
+    }
+
+    /*
+     * publishes a searcher over the latest changes of indexWriter, once the warmer is done with it.
+     * Blocks if another thread is refreshing, so that changes are visible when it returns.
+     */
     protected void refreshReader() throws IOException {
-        DirectoryReader oldReader = directoryReader.get();
-        DirectoryReader newReader = DirectoryReader.openIfChanged(directoryReader.get());
-        if (newReader != null) {
-            directoryReader.compareAndExchange(oldReader, newReader);
+        // NOTE(deyukong): as ControlledRealTimeReopenThread does, every op up to the max completed sequence
+        // number is applied to the writer already, so the reader reopened next covers all of them.
+        final long seqNo = indexWriter.getMaxCompletedSequenceNumber();
+        final long written = writtenDocs.get();
+        final long start = System.nanoTime();
+        lastRefreshMillis = clock.millis();
+        searcherManager.maybeRefreshBlocking();
+        final long nanos = System.nanoTime() - start;
+        refreshedDocs.accumulateAndGet(written, Math::max);
+        refreshedSeqNo.accumulateAndGet(seqNo, Math::max);
+        lastRefreshNanos = nanos;
+        refreshNanosTotal.addAndGet(nanos);
+        refreshCount.incrementAndGet();
+        refreshes.increment();
+        refreshNanos.add(nanos);
+    }
+
+    /*
+     * makes the writes so far visible to searches, without committing them.
+     */
+    public void refresh() throws IOException {
+        rwLock.readLock().lock();
+        try {
+            if (!indexWriter.isOpen()) {
+                throw new IOException("index not open or maybe dropped");
+            }
+            refreshReader();
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
+    /*
+     * returns once searches see every write up to seqNo, a sequence number returned by batchWrite, and
+     * refreshes right away if they do not yet. Sequence numbers start over with the IndexWriter, one ahead
+     * of all writes is rejected, it was handed out before the server restarted.
+     */
+    public void waitForSeqNo(long seqNo) throws IOException {
+        if (refreshedSeqNo.get() >= seqNo) {
+            return;
         }
+        rwLock.readLock().lock();
+        try {
+            if (!indexWriter.isOpen()) {
+                throw new IOException("index not open or maybe dropped");
+            }
+            if (seqNo > indexWriter.getMaxCompletedSequenceNumber()) {
+                throw new IllegalArgumentException("seqNo " + seqNo + " is ahead of the writes of the index, "
+                        + "it may be from before a restart");
+            }
+            seqNoRefreshLock.lock();
+            try {
+                if (refreshedSeqNo.get() < seqNo) {
+                    refreshReader();
+                    seqNoRefreshes.increment();
+                }
+            } finally {
+                seqNoRefreshLock.unlock();
+            }
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
+    public Integer getRefreshIntervalMs() {
+        return refreshIntervalMs;
+    }
+
+    public void setRefreshIntervalMs(Integer refreshIntervalMs) {
+        this.refreshIntervalMs = refreshIntervalMs;
+    }
+
+    long getLastRefreshMillis() {
+        return lastRefreshMillis;
+    }
+
+    /*
+     * the number of documents written since the last refresh started, which searches do not see yet.
+     */
+    public long getPendingRefreshDocs() {
+        return writtenDocs.get() - refreshedDocs.get();
     }
 
     public void commitAndRefreshReader() throws IOException {
@@ -151,12 +749,18 @@ public abstract class IndexAccess {
     void drop() throws IOException {
         rwLock.writeLock().lock();
         try {
-            synchronized (this) {
+            backupLock.lock();
+            try {
                 if (backup != null) {
                     snapshotter.release(backup);
                     backup = null;
                 }
+            } finally {
+                backupLock.unlock();
             }
+            // no page is being served under the write lock, the pinned searchers are released right away
+            SearchCursors.killAll(this);
+            searcherManager.close();
             indexWriter.commit();
             indexWriter.deleteAll();
             indexWriter.close();
@@ -14,6 +14,7 @@ import java.lang.reflect.Type;
 import java.nio.file.*;
 import java.time.Clock;
 import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class IndexCatalog extends Thread {
     private static final Logger log = LogManager.getLogger(IndexCatalog.class);
@@ -35,59 +36,106 @@ public class IndexCatalog extends Thread {
             new ServerParameter<>("maxBufferedMemoryMBAllIndexes", 1024, false);
     private static final ServerParameter<Integer> maxIndexInMemoryMillis =
             new ServerParameter<>("maxIndexInMemoryMillis", 60*1000, true);
+    // whether indexes created before ids were kept in doc values are migrated when the server starts
+    private static final ServerParameter<Boolean> migrateIdDocValues =
+            new ServerParameter<>("migrateIdDocValues", true, false);
     public static class IndexConfig {
         public String name;
         public String path;
+        // whether every document of the index has its id in doc values, null for indexes created before
+        public Boolean idDocValues;
+        // see RefreshScheduler, null to follow the refreshIntervalMs server parameter
+        public Integer refreshIntervalMs;
         public HnswIndexAccess.HnswConfig hnswConfig;
         public SearchIndexAccess.SearchConfig searchConfig;
     }
 
     private final Path rootDir;
     private final Map<String, IndexAccess> indexes;
+    // NOTE(deyukong): catalogLock protects indexes. It is a j.u.c lock rather than a monitor because
+    // createIndex/dropIndex do file IO while holding it, and a virtual thread blocked on a monitor
+    // pins its carrier thread.
+    private final ReentrantReadWriteLock catalogLock = new ReentrantReadWriteLock();
     private final ConcurrentMergeScheduler mergeScheduler;
     private final Clock clock;
+    private final RefreshScheduler refreshScheduler;
+    // runs migrateIdDocValues beside this thread, whose periodical commits must not wait for it
+    private final Thread idDocValuesMigration;
 
     public static void loadClass() {}
 
     public void close() {
+        refreshScheduler.close();
+        idDocValuesMigration.interrupt();
         interrupt();
         try {
+            idDocValuesMigration.join();
             join();
         } catch (InterruptedException e) {
             log.warn("caught {} during IndexCatalog.close", e.getMessage());
         }
     }
 
-    public synchronized void advanceWriteTimestamp(long ts) {
-        for (Map.Entry<String, IndexAccess> entry : indexes.entrySet()) {
-            try {
-                entry.getValue().advanceWriteTimestamp(ts);
-            } catch (IllegalArgumentException e) {
-                throw new IllegalArgumentException("index " + entry.getKey() + " " + e.getMessage());
+    public void advanceWriteTimestamp(long ts) {
+        catalogLock.readLock().lock();
+        try {
+            for (Map.Entry<String, IndexAccess> entry : indexes.entrySet()) {
+                try {
+                    entry.getValue().advanceWriteTimestamp(ts);
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("index " + entry.getKey() + " " + e.getMessage());
+                }
             }
+        } finally {
+            catalogLock.readLock().unlock();
         }
     }
 
-    public synchronized long getCommittedTimestamp() {
-        if (indexes.isEmpty()) {
-            return 0;
+    public long getCommittedTimestamp() {
+        catalogLock.readLock().lock();
+        try {
+            if (indexes.isEmpty()) {
+                return 0;
+            }
+            long result = Long.MAX_VALUE;
+            for (Map.Entry<String, IndexAccess> entry : indexes.entrySet()) {
+                result = Long.min(result, entry.getValue().getCommittedTimestamp());
+            }
+            return result;
+        } finally {
+            catalogLock.readLock().unlock();
         }
-        long result = Long.MAX_VALUE;
-        for (Map.Entry<String, IndexAccess> entry : indexes.entrySet()) {
-            result = Long.min(result, entry.getValue().getCommittedTimestamp());
+    }
+
+    public Set<String> getAllIndexNames() {
+        catalogLock.readLock().lock();
+        try {
+            return new TreeSet<>(indexes.keySet());
+        } finally {
+            catalogLock.readLock().unlock();
         }
-        return result;
     }
 
-    public synchronized Set<String> getAllIndexNames() {
-        return indexes.keySet();
+    Collection<IndexAccess> snapshotIndexes() {
+        catalogLock.readLock().lock();
+        try {
+            return new ArrayList<>(indexes.values());
+        } finally {
+            catalogLock.readLock().unlock();
+        }
     }
 
-    public Collection<String> beginBackup() throws IOException {
-        final Set<Map.Entry<String, IndexAccess>> entries;
-        synchronized (this) {
-            entries = indexes.entrySet();
+    private List<Map.Entry<String, IndexAccess>> snapshotEntries() {
+        catalogLock.readLock().lock();
+        try {
+            return new ArrayList<>(indexes.entrySet());
+        } finally {
+            catalogLock.readLock().unlock();
         }
+    }
+
+    public Collection<String> beginBackup() throws IOException {
+        final List<Map.Entry<String, IndexAccess>> entries = snapshotEntries();
         ArrayList<String> result = new ArrayList<>();
         for (Map.Entry<String, IndexAccess> entry : entries) {
             for (String subPath : entry.getValue().beginBackup()) {
@@ -98,21 +146,66 @@ public class IndexCatalog extends Thread {
     }
 
     public void endBackup() throws IOException {
-        final Set<Map.Entry<String, IndexAccess>> entries;
-        synchronized (this) {
-            entries = indexes.entrySet();
-        }
+        final List<Map.Entry<String, IndexAccess>> entries = snapshotEntries();
         for (Map.Entry<String, IndexAccess> entry : entries) {
             entry.getValue().endBackup();
         }
     }
 
+    /*
+     * see IndexAccess.migrateIdDocValues, an index is flagged in the meta file once it is migrated.
+     * Until then, ids of hits which lack the doc values copy are read from stored fields. Runs on its own
+     * thread, one index after another.
+     */
+    private void migrateIdDocValues() {
+        final ArrayList<IndexConfig> indexCfgs;
+        try {
+            indexCfgs = loadIndexConfigs();
+        } catch (IOException e) {
+            log.error("load index configs for id doc values migration failed with error {}", e.getMessage());
+            return;
+        }
+        for (IndexConfig cfg : indexCfgs) {
+            if (Boolean.TRUE.equals(cfg.idDocValues) || Thread.currentThread().isInterrupted()) {
+                continue;
+            }
+            IndexAccess ia = getIndex(cfg.name);
+            if (ia == null) {
+                continue;
+            }
+            try {
+                long updated = ia.migrateIdDocValues();
+                catalogLock.writeLock().lock();
+                try {
+                    ArrayList<IndexConfig> latest = loadIndexConfigs();
+                    for (IndexConfig c : latest) {
+                        if (c.name.equals(cfg.name)) {
+                            c.idDocValues = true;
+                        }
+                    }
+                    saveIndexConfigs(latest);
+                } finally {
+                    catalogLock.writeLock().unlock();
+                }
+                log.info("index {} migrated ids of {} documents to doc values", cfg.name, updated);
+            } catch (IOException | RuntimeException e) {
+                log.error("migrate ids of index {} to doc values failed with error {}", cfg.name, e.getMessage());
+            }
+        }
+    }
+
     public void run() {
+        refreshScheduler.start();
+        if (migrateIdDocValues.get()) {
+            idDocValuesMigration.start();
+        }
         while (!isInterrupted()) {
             try {
                 sleep(1000);
+                SearchCursors.reapIdle(clock.millis());
                 final Set<String> keySet = new HashSet<>();
-                synchronized (this) {
+                catalogLock.readLock().lock();
+                try {
                     long memoryUsed = 0;
                     for (Map.Entry<String, IndexAccess> entry : indexes.entrySet()) {
                         memoryUsed += entry.getValue().ramBytesUsed();
@@ -128,6 +221,8 @@ public class IndexCatalog extends Thread {
                             }
                         }
                     }
+                } finally {
+                    catalogLock.readLock().unlock();
                 }
                 for (String indexName : keySet) {
                     IndexAccess ia = getIndex(indexName);
@@ -158,6 +253,8 @@ public class IndexCatalog extends Thread {
         this.indexes = new TreeMap<String, IndexAccess>();
         this.mergeScheduler = new ConcurrentMergeScheduler();
         this.mergeScheduler.setMaxMergesAndThreads(maxMergeTasks.get(), maxMergeThreads.get());
+        this.refreshScheduler = new RefreshScheduler(this, clock);
+        this.idDocValuesMigration = new Thread(this::migrateIdDocValues, "idDocValuesMigration");
         if (metaFilePath.toFile().exists()) {
             String text = Files.readString(metaFilePath);
             IndexConfig[] indexCfgs = new Gson().fromJson(text, IndexConfig[].class);
@@ -181,14 +278,20 @@ public class IndexCatalog extends Thread {
                             maxBufferedMemoryPerIndex.get()
                     );
                 }
+                ia.setRefreshIntervalMs(indexCfg.refreshIntervalMs);
                 indexes.put(indexCfg.name, ia);
 
             }
         }
     }
 
-    public synchronized IndexAccess getIndex(String name) {
-        return indexes.getOrDefault(name, null);
+    public IndexAccess getIndex(String name) {
+        catalogLock.readLock().lock();
+        try {
+            return indexes.getOrDefault(name, null);
+        } finally {
+            catalogLock.readLock().unlock();
+        }
     }
 
     public ArrayList<IndexConfig> loadIndexConfigs() throws IOException {
@@ -213,7 +316,16 @@ public class IndexCatalog extends Thread {
     }
 
     // TODO(wolfkdy): move IO(write metafile) out of mutex, use a queue for FIFO operations, Use a cv to notify IO complete.
-    public synchronized void createIndex(IndexConfig cfg) throws IOException {
+    public void createIndex(IndexConfig cfg) throws IOException {
+        catalogLock.writeLock().lock();
+        try {
+            createIndexInLock(cfg);
+        } finally {
+            catalogLock.writeLock().unlock();
+        }
+    }
+
+    private void createIndexInLock(IndexConfig cfg) throws IOException {
         if (indexes.containsKey(cfg.name)) {
             throw new IOException(cfg.name + " already exists");
         }
@@ -236,8 +348,10 @@ public class IndexCatalog extends Thread {
                     maxBufferedMemoryPerIndex.get()
             );
         }
+        ia.setRefreshIntervalMs(cfg.refreshIntervalMs);
 
         ArrayList<IndexConfig> indexCfgs = loadIndexConfigs();
+        cfg.idDocValues = true;
         indexCfgs.add(cfg);
         saveIndexConfigs(indexCfgs);
 
@@ -245,7 +359,16 @@ public class IndexCatalog extends Thread {
     }
 
     // TODO(wolfkdy): move IO(write metafile) out of mutex, use a queue for FIFO operations, Use a cv to notify IO complete.
-    public synchronized void dropIndex(String name) throws IOException {
+    public void dropIndex(String name) throws IOException {
+        catalogLock.writeLock().lock();
+        try {
+            dropIndexInLock(name);
+        } finally {
+            catalogLock.writeLock().unlock();
+        }
+    }
+
+    private void dropIndexInLock(String name) throws IOException {
         if (!indexes.containsKey(name)) {
             return;
         }
@@ -0,0 +1,309 @@
+package com.luceneserver.storage;
+
+import com.luceneserver.utils.Counter;
+import com.luceneserver.utils.Metrics;
+import com.luceneserver.utils.ServerParameter;
+import com.luceneserver.utils.mongo.MongoThreadFactory;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * the executor large write batches are applied on, shared by all indexes. IndexWriter indexes from many
+ * threads at once, each into a segment of its own, which for vector indexes means building as many HNSW
+ * graphs in parallel instead of one. A batch is split by the hash of the ids, so the ops of an id stay
+ * in one partition and are applied in their order in the batch.
+ */
+public class IndexingThreadPool {
+    private static final ServerParameter<Integer> indexingThreads =
+            new ServerParameter<>("indexingThreads", Runtime.getRuntime().availableProcessors(), false);
+    private static final ServerParameter<Integer> indexingQueueSize =
+            new ServerParameter<>("indexingQueueSize", 1000, false);
+    // the number of partitions a batch is split into, 1 applies every batch on its request thread
+    private static final ServerParameter<Integer> ingestParallelism =
+            new ServerParameter<>("ingestParallelism", Runtime.getRuntime().availableProcessors(), true) {
+                @Override
+                public void validate(Integer data) {
+                    if (data < 1) {
+                        throw new IllegalArgumentException("ingestParallelism must be positive");
+                    }
+                }
+            };
+    // smaller batches are applied on the request thread, as they are decoded
+    private static final ServerParameter<Integer> parallelIngestMinOps =
+            new ServerParameter<>("parallelIngestMinOps", 1000, true);
+
+    // ops queued per partition of a large batch, beyond that the request thread waits for them to be applied
+    private static final ServerParameter<Integer> partitionQueueOps =
+            new ServerParameter<>("ingestPartitionQueueOps", 1000, true) {
+                @Override
+                public void validate(Integer data) {
+                    if (data < 1) {
+                        throw new IllegalArgumentException("ingestPartitionQueueOps must be positive");
+                    }
+                }
+            };
+
+    private static final Counter parallelBatches = new Counter("ingest.parallelBatches");
+    private static final Counter sequentialBatches = new Counter("ingest.sequentialBatches");
+    private static final Counter callerRunsPartitions = new Counter("ingest.executor.callerRuns");
+
+    private static volatile ThreadPoolExecutor executor;
+
+    public interface Applier {
+        // returns the sequence number of op
+        long apply(WriteBatch.Op op) throws IOException;
+    }
+
+    public static void loadClass() {}
+
+    private static ThreadPoolExecutor sharedExecutor() {
+        if (executor == null) {
+            synchronized (IndexingThreadPool.class) {
+                if (executor == null) {
+                    ThreadPoolExecutor e = new ThreadPoolExecutor(
+                            indexingThreads.get(),
+                            indexingThreads.get(),
+                            0,
+                            TimeUnit.MILLISECONDS,
+                            new ArrayBlockingQueue<>(indexingQueueSize.get()),
+                            new MongoThreadFactory("indexing-"),
+                            (r, pool) -> {
+                                // also once shut down, the request thread applies the partition itself
+                                callerRunsPartitions.increment();
+                            });
+                    Metrics.register("ingest.executor.active", e::getActiveCount);
+                    Metrics.register("ingest.executor.queued", () -> e.getQueue().size());
+                    executor = e;
+                }
+            }
+        }
+        return executor;
+    }
+
+    /*
+     * applies ops and returns the highest of their sequence numbers, 0 if there are none. A batch is not
+     * atomic: its first op which fails, to decode or to apply, stops it and the ops applied until then stay
+     * applied, to be made durable by the next commit. In a large batch those are a prefix of the ops of
+     * each id but not of the batch, as the partitions are applied concurrently. The failure is rethrown as
+     * an IOException telling how many ops were applied.
+     */
+    static long apply(Iterable<? extends WriteBatch.Op> ops, Applier applier) throws IOException {
+        final Iterator<? extends WriteBatch.Op> it = ops.iterator();
+        final int parallelism = indexingThreads.get() > 0 ? ingestParallelism.get() : 1;
+        final int minOps = parallelIngestMinOps.get();
+        // NOTE(deyukong): ops are decoded lazily, only as many as it takes to tell a large batch are held
+        final List<WriteBatch.Op> head = new ArrayList<>();
+        while (parallelism > 1 && head.size() < minOps && it.hasNext()) {
+            head.add(it.next());
+        }
+        final Batch batch = new Batch(applier);
+        if (parallelism <= 1 || !it.hasNext()) {
+            sequentialBatches.increment();
+            try {
+                batch.applyAll(head);
+                while (batch.failure.get() == null && it.hasNext()) {
+                    batch.apply(it.next());
+                }
+            } catch (RuntimeException e) {
+                batch.failure.compareAndSet(null, e);
+            }
+            return batch.result();
+        }
+        parallelBatches.increment();
+        final int queueOps = partitionQueueOps.get();
+        final List<Partition> partitions = new ArrayList<>(parallelism);
+        for (int i = 0; i < parallelism; i++) {
+            Partition partition = new Partition(batch, queueOps);
+            partitions.add(partition);
+            sharedExecutor().execute(partition);
+        }
+        // the request thread decodes the ops and hands them to the indexing threads as it goes
+        try {
+            for (WriteBatch.Op op : head) {
+                partitions.get(Math.floorMod(op.id.hashCode(), parallelism)).add(op);
+            }
+            head.clear();
+            while (batch.failure.get() == null && it.hasNext()) {
+                WriteBatch.Op op = it.next();
+                partitions.get(Math.floorMod(op.id.hashCode(), parallelism)).add(op);
+            }
+        } catch (RuntimeException e) {
+            batch.failure.compareAndSet(null, e);
+        } finally {
+            for (Partition partition : partitions) {
+                partition.finish();
+                // one the executor has not started yet has nothing left to do
+                sharedExecutor().remove(partition);
+            }
+        }
+        return batch.result();
+    }
+
+    /*
+     * the state of a batch shared by its partitions. Once an op failed the ops still queued are skipped.
+     */
+    private static final class Batch {
+        private final Applier applier;
+        private final AtomicLong seqNo = new AtomicLong();
+        private final AtomicLong appliedOps = new AtomicLong();
+        private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        Batch(Applier applier) {
+            this.applier = applier;
+        }
+
+        void apply(WriteBatch.Op op) {
+            try {
+                seqNo.accumulateAndGet(applier.apply(op), Math::max);
+                appliedOps.incrementAndGet();
+            } catch (Throwable e) {
+                failure.compareAndSet(null, e);
+            }
+        }
+
+        void applyAll(List<WriteBatch.Op> ops) {
+            for (WriteBatch.Op op : ops) {
+                if (failure.get() != null) {
+                    return;
+                }
+                apply(op);
+            }
+        }
+
+        long result() throws IOException {
+            final Throwable e = failure.get();
+            if (e instanceof Error) {
+                throw (Error) e;
+            } else if (e != null) {
+                throw new IOException("batch failed with " + appliedOps.get()
+                        + " of its ops applied, which are not rolled back: " + e, e);
+            }
+            return seqNo.get();
+        }
+    }
+
+    /*
+     * a bounded queue of the ops of one partition. Its ops are taken in order by one of the indexing thread
+     * and the request thread at a time, so the ops of an id are applied neither concurrently nor out of
+     * order. The request thread applies the queued ops itself rather than wait for an indexing thread which
+     * has not started, the executor may be busy with other batches or have rejected the partition, so at
+     * most twice the queue size of ops are held per partition and a batch never waits on another.
+     */
+    private static final class Partition implements Runnable {
+        private final Batch batch;
+        private final int capacity;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition changed = lock.newCondition();
+        private final ArrayDeque<WriteBatch.Op> queue = new ArrayDeque<>();
+        // whether the queued ops taken last are still being applied
+        private boolean applying = false;
+        // whether the request thread is done adding ops
+        private boolean closed = false;
+
+        Partition(Batch batch, int capacity) {
+            this.batch = batch;
+            this.capacity = capacity;
+        }
+
+        // run by an indexing thread
+        @Override
+        public void run() {
+            applyQueued();
+        }
+
+        void add(WriteBatch.Op op) {
+            final List<WriteBatch.Op> ops;
+            lock.lock();
+            try {
+                while (queue.size() >= capacity && applying) {
+                    changed.awaitUninterruptibly();
+                }
+                queue.add(op);
+                if (queue.size() <= capacity) {
+                    changed.signalAll();
+                    return;
+                }
+                // full and nobody applying it, the indexing thread has not started
+                ops = takeQueued();
+            } finally {
+                lock.unlock();
+            }
+            applyTaken(ops);
+        }
+
+        /*
+         * called by the request thread once it added every op, returns once all of them are applied.
+         */
+        void finish() {
+            lock.lock();
+            try {
+                closed = true;
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            applyQueued();
+        }
+
+        private void applyQueued() {
+            while (true) {
+                final List<WriteBatch.Op> ops;
+                lock.lock();
+                try {
+                    while (applying || (queue.isEmpty() && !closed)) {
+                        changed.awaitUninterruptibly();
+                    }
+                    if (queue.isEmpty()) {
+                        return;
+                    }
+                    ops = takeQueued();
+                } finally {
+                    lock.unlock();
+                }
+                applyTaken(ops);
+            }
+        }
+
+        private List<WriteBatch.Op> takeQueued() {
+            final List<WriteBatch.Op> ops = new ArrayList<>(queue);
+            queue.clear();
+            applying = true;
+            return ops;
+        }
+
+        private void applyTaken(List<WriteBatch.Op> ops) {
+            try {
+                batch.applyAll(ops);
+            } finally {
+                lock.lock();
+                try {
+                    applying = false;
+                    changed.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+
+    /*
+     * lets the partitions already submitted finish, an interrupt while IndexWriter does IO closes the file
+     * channel under it and takes the whole writer down.
+     */
+    public static void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+}
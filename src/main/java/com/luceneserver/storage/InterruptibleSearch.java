@@ -0,0 +1,122 @@
+package com.luceneserver.storage;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.CollectionTerminatedException;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.CollectorManager;
+import org.apache.lucene.search.ConstantScoreQuery;
+import org.apache.lucene.search.FilterCollector;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.LeafCollector;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TotalHitCountCollectorManager;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/*
+ * the search of a single request, which stops early once its Interruption says so. Stopped by its deadline
+ * it reports timedOut(), stopped by a kill it throws an InterruptedIOException, there is no partial result
+ * to a killed request. A request with a deadline gets a searcher of its own from SearchThreadPool.withTimeout,
+ * whose reader checks the clock while rewriting the query and walking a vector graph, not only between
+ * leaves. A request without one can only be killed: it runs on the shared searcher, which is not
+ * rewrapped per request, and a kill is noticed before each leaf is collected.
+ */
+class InterruptibleSearch {
+    private final IndexSearcher searcher;
+    private final Interruption interruption;
+    // null if searcher checks on its own, or there is nothing to check
+    private final Interruption killCheck;
+    private volatile boolean killed = false;
+
+    InterruptibleSearch(IndexSearcher searcher, Interruption interruption) throws IOException {
+        this.interruption = interruption;
+        if (interruption != null && interruption.hasDeadline()) {
+            this.searcher = SearchThreadPool.withTimeout(searcher, interruption);
+            this.killCheck = null;
+        } else {
+            this.searcher = searcher;
+            this.killCheck = interruption;
+        }
+    }
+
+    <C extends Collector, T> T search(Query query, CollectorManager<C, T> manager) throws IOException {
+        final T result = killCheck == null
+                ? searcher.search(query, manager)
+                : searcher.search(query, new KillCheckingCollectorManager<>(manager));
+        checkKilled();
+        return result;
+    }
+
+    int count(Query query) throws IOException {
+        if (killCheck == null) {
+            final int count = searcher.count(query);
+            checkKilled();
+            return count;
+        }
+        // what IndexSearcher.count does
+        return search(new ConstantScoreQuery(query), new TotalHitCountCollectorManager());
+    }
+
+    /*
+     * whether the last search stopped early for the deadline, it returned the hits collected until then.
+     */
+    boolean timedOut() {
+        return stopped();
+    }
+
+    private boolean stopped() {
+        return killed || searcher.timedOut();
+    }
+
+    private void checkKilled() throws InterruptedIOException {
+        if (stopped() && interruption.isKilled()) {
+            throw new InterruptedIOException("query was killed");
+        }
+    }
+
+    private class KillCheckingCollectorManager<C extends Collector, T>
+            implements CollectorManager<KillCheckingCollector<C>, T> {
+        private final CollectorManager<C, T> manager;
+
+        KillCheckingCollectorManager(CollectorManager<C, T> manager) {
+            this.manager = manager;
+        }
+
+        @Override
+        public KillCheckingCollector<C> newCollector() throws IOException {
+            return new KillCheckingCollector<>(manager.newCollector());
+        }
+
+        @Override
+        public T reduce(Collection<KillCheckingCollector<C>> collectors) throws IOException {
+            List<C> unwrapped = new ArrayList<>(collectors.size());
+            for (KillCheckingCollector<C> c : collectors) {
+                unwrapped.add(c.collector);
+            }
+            return manager.reduce(unwrapped);
+        }
+    }
+
+    private class KillCheckingCollector<C extends Collector> extends FilterCollector {
+        private final C collector;
+
+        KillCheckingCollector(C collector) {
+            super(collector);
+            this.collector = collector;
+        }
+
+        @Override
+        public LeafCollector getLeafCollector(LeafReaderContext context) throws IOException {
+            if (killed || killCheck.shouldExit()) {
+                killed = true;
+                // IndexSearcher moves on to the next leaf, which is skipped the same way
+                throw new CollectionTerminatedException();
+            }
+            return super.getLeafCollector(context);
+        }
+    }
+}
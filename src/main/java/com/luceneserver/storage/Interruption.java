@@ -0,0 +1,14 @@
+package com.luceneserver.storage;
+
+import org.apache.lucene.index.QueryTimeout;
+
+/*
+ * what stops the query of a request: shouldExit() turns true once the request is killed or, if it has a
+ * deadline, once the deadline passes. See InterruptibleSearch for how each kind is checked.
+ */
+public interface Interruption extends QueryTimeout {
+    boolean hasDeadline();
+
+    // whether the request was killed, a query which stopped for a kill fails rather than time out
+    boolean isKilled();
+}
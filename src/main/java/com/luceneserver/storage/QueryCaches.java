@@ -0,0 +1,178 @@
+package com.luceneserver.storage;
+
+import com.luceneserver.utils.Metrics;
+import com.luceneserver.utils.ServerParameter;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.LRUQueryCache;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.QueryCachingPolicy;
+import org.apache.lucene.search.UsageTrackingQueryCachingPolicy;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * the query cache shared by the searchers of all indexes. It keeps, per segment, the doc id sets of
+ * non-scoring clauses, such as the filter clauses of compound queries, so that a filter repeating across
+ * requests is read from memory instead of being evaluated against the postings again. The memory budget
+ * is global, usage is accounted to each index through the core keys of its segments.
+ */
+public class QueryCaches {
+    private static final ServerParameter<Integer> queryCacheMB =
+            new ServerParameter<>("queryCacheMB", 64, false);
+    // the maximum number of distinct queries cached, over all indexes
+    private static final ServerParameter<Integer> queryCacheMaxEntries =
+            new ServerParameter<>("queryCacheMaxEntries", 10000, false);
+    // segments with fewer documents are cheap enough to evaluate every time
+    private static final ServerParameter<Integer> queryCacheMinSegmentDocs =
+            new ServerParameter<>("queryCacheMinSegmentDocs", 10000, true);
+    // "usageTracking" caches clauses seen repeatedly, "always" caches every clause on first use, "never"
+    // disables caching. Changes apply to searchers opened after them.
+    private static final ServerParameter<String> queryCachePolicy =
+            new ServerParameter<>("queryCachePolicy", "usageTracking", true) {
+                @Override
+                public void validate(String data) {
+                    if (!data.equals("usageTracking") && !data.equals("always") && !data.equals("never")) {
+                        throw new IllegalArgumentException("queryCachePolicy must be usageTracking, always or never");
+                    }
+                }
+            };
+
+    // NOTE(deyukong): the lucene default, a clause whose cost is more than this many times the cost of the
+    // leading clause is not cached, as evaluating it entirely would be much slower than the query itself.
+    private static final float SKIP_CACHE_FACTOR = 10;
+
+    private static final QueryCachingPolicy usageTracking = new UsageTrackingQueryCachingPolicy();
+    private static final QueryCachingPolicy always = fixedPolicy(true);
+    private static final QueryCachingPolicy never = fixedPolicy(false);
+
+    // core key of a segment -> stats of the index it belongs to
+    private static final ConcurrentHashMap<Object, Stats> statsByCoreKey = new ConcurrentHashMap<>();
+
+    private static final SharedQueryCache cache = new SharedQueryCache();
+
+    static {
+        Metrics.register("queryCache.ramBytes", cache::ramBytesUsed);
+        Metrics.register("queryCache.entries", cache::getCacheSize);
+        Metrics.register("queryCache.hits", cache::getHitCount);
+        Metrics.register("queryCache.misses", cache::getMissCount);
+        Metrics.register("queryCache.evictions", cache::getEvictionCount);
+    }
+
+    public static void loadClass() {}
+
+    /*
+     * the query cache usage of one index.
+     */
+    static class Stats {
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+        private final LongAdder entries = new LongAdder();
+        private final LongAdder ramBytes = new LongAdder();
+        private final LongAdder evictions = new LongAdder();
+
+        void addStats(Map<String, Long> stats) {
+            stats.put("queryCacheHits", hits.sum());
+            stats.put("queryCacheMisses", misses.sum());
+            stats.put("queryCacheEntries", entries.sum());
+            stats.put("queryCacheBytes", ramBytes.sum());
+            stats.put("queryCacheEvictions", evictions.sum());
+        }
+    }
+
+    /*
+     * makes searcher use the shared cache, accounting the segments of its reader to stats.
+     */
+    static void configure(IndexSearcher searcher, Stats stats) {
+        for (LeafReaderContext leaf : searcher.getIndexReader().leaves()) {
+            IndexReader.CacheHelper helper = leaf.reader().getCoreCacheHelper();
+            if (helper == null) {
+                continue;
+            }
+            if (statsByCoreKey.putIfAbsent(helper.getKey(), stats) == null) {
+                // NOTE(deyukong): this listener is registered before the cache registers its own, so it
+                // evicts the entries of the segment while they can still be accounted to the index.
+                helper.addClosedListener(key -> {
+                    cache.clearCoreCacheKey(key);
+                    statsByCoreKey.remove(key);
+                });
+            }
+        }
+        searcher.setQueryCache(cache);
+        searcher.setQueryCachingPolicy(policy());
+    }
+
+    private static QueryCachingPolicy policy() {
+        switch (queryCachePolicy.get()) {
+            case "always":
+                return always;
+            case "never":
+                return never;
+            default:
+                return usageTracking;
+        }
+    }
+
+    private static QueryCachingPolicy fixedPolicy(boolean shouldCache) {
+        return new QueryCachingPolicy() {
+            @Override
+            public void onUse(Query query) {}
+
+            @Override
+            public boolean shouldCache(Query query) {
+                return shouldCache;
+            }
+        };
+    }
+
+    private static class SharedQueryCache extends LRUQueryCache {
+        SharedQueryCache() {
+            super(queryCacheMaxEntries.get(),
+                    queryCacheMB.get() * 1024L * 1024L,
+                    leaf -> leaf.reader().maxDoc() >= queryCacheMinSegmentDocs.get(),
+                    SKIP_CACHE_FACTOR);
+        }
+
+        @Override
+        protected void onHit(Object readerCoreKey, Query query) {
+            super.onHit(readerCoreKey, query);
+            Stats stats = statsByCoreKey.get(readerCoreKey);
+            if (stats != null) {
+                stats.hits.increment();
+            }
+        }
+
+        @Override
+        protected void onMiss(Object readerCoreKey, Query query) {
+            super.onMiss(readerCoreKey, query);
+            Stats stats = statsByCoreKey.get(readerCoreKey);
+            if (stats != null) {
+                stats.misses.increment();
+            }
+        }
+
+        @Override
+        protected void onDocIdSetCache(Object readerCoreKey, long ramBytesUsed) {
+            super.onDocIdSetCache(readerCoreKey, ramBytesUsed);
+            Stats stats = statsByCoreKey.get(readerCoreKey);
+            if (stats != null) {
+                stats.entries.increment();
+                stats.ramBytes.add(ramBytesUsed);
+            }
+        }
+
+        @Override
+        protected void onDocIdSetEviction(Object readerCoreKey, int numEntries, long sumRamBytesUsed) {
+            super.onDocIdSetEviction(readerCoreKey, numEntries, sumRamBytesUsed);
+            Stats stats = statsByCoreKey.get(readerCoreKey);
+            if (stats != null) {
+                stats.entries.add(-numEntries);
+                stats.ramBytes.add(-sumRamBytesUsed);
+                stats.evictions.add(numEntries);
+            }
+        }
+    }
+}
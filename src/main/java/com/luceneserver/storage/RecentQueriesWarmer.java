@@ -0,0 +1,86 @@
+package com.luceneserver.storage;
+
+import com.luceneserver.utils.ServerParameter;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * the default warmer, replays the most recently served distinct queries of the index.
+ */
+public class RecentQueriesWarmer implements SearcherWarmer {
+    private static final Logger log = LogManager.getLogger(RecentQueriesWarmer.class);
+
+    // how many recent distinct queries are replayed against each new searcher, 0 disables warming
+    private static final ServerParameter<Integer> searcherWarmupQueries =
+            new ServerParameter<>("searcherWarmupQueries", 8, true) {
+                @Override
+                public void validate(Integer data) {
+                    if (data < 0 || data > 1024) {
+                        throw new IllegalArgumentException("searcherWarmupQueries must be in [0, 1024]");
+                    }
+                }
+            };
+
+    private final ReentrantLock lock = new ReentrantLock();
+    // query -> limit, in access order
+    private final LinkedHashMap<Query, Integer> recent = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Query, Integer> eldest) {
+            return size() > searcherWarmupQueries.get();
+        }
+    };
+    private final String indexName;
+
+    public static void loadClass() {}
+
+    public RecentQueriesWarmer(String indexName) {
+        this.indexName = indexName;
+    }
+
+    @Override
+    public void onQuery(Query query, int limit) {
+        if (searcherWarmupQueries.get() == 0) {
+            return;
+        }
+        lock.lock();
+        try {
+            recent.put(query, limit);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void warm(IndexSearcher searcher, IndexReader previousReader) throws IOException {
+        if (previousReader == null) {
+            return;
+        }
+        final List<Map.Entry<Query, Integer>> queries;
+        lock.lock();
+        try {
+            queries = new ArrayList<>(recent.entrySet());
+        } finally {
+            lock.unlock();
+        }
+        final long start = System.nanoTime();
+        for (Map.Entry<Query, Integer> q : queries) {
+            try {
+                searcher.search(q.getKey(), q.getValue());
+            } catch (RuntimeException e) {
+                log.warn("index {} warm-up query {} failed with {}", indexName, q.getKey(), e.getMessage());
+            }
+        }
+        log.debug("index {} warmed a new searcher with {} queries in {}us",
+                indexName, queries.size(), (System.nanoTime() - start) / 1000);
+    }
+}
@@ -0,0 +1,85 @@
+package com.luceneserver.storage;
+
+import com.luceneserver.utils.ServerParameter;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.time.Clock;
+
+/*
+ * near-real-time refreshes: reopens the searcher of each index from its IndexWriter every refreshInterval
+ * it has unrefreshed writes, without committing. Writes become visible within the interval, while
+ * durable commits go on at their own pace, periodically from the catalog or with autoCommit batches.
+ */
+public class RefreshScheduler extends Thread {
+    private static final Logger log = LogManager.getLogger(RefreshScheduler.class);
+
+    // the refresh interval of indexes created without one, -1 disables scheduled refreshes
+    private static final ServerParameter<Integer> refreshIntervalMs =
+            new ServerParameter<>("refreshIntervalMs", 1000, true) {
+                @Override
+                public void validate(Integer data) {
+                    validateInterval(data);
+                }
+            };
+    // the longest the scheduler sleeps, so that new indexes and interval changes are picked up
+    private static final long MAX_SLEEP_MILLIS = 100;
+
+    private final IndexCatalog catalog;
+    private final Clock clock;
+
+    public static void loadClass() {}
+
+    public static void validateInterval(int intervalMs) {
+        if (intervalMs <= 0 && intervalMs != -1) {
+            throw new IllegalArgumentException("refreshIntervalMs must be positive, or -1 to disable refreshes");
+        }
+    }
+
+    RefreshScheduler(IndexCatalog catalog, Clock clock) {
+        super("refreshScheduler");
+        setDaemon(true);
+        this.catalog = catalog;
+        this.clock = clock;
+    }
+
+    public void close() {
+        interrupt();
+        try {
+            join();
+        } catch (InterruptedException e) {
+            log.warn("caught {} during RefreshScheduler.close", e.getMessage());
+        }
+    }
+
+    public void run() {
+        while (!isInterrupted()) {
+            long sleepMillis = MAX_SLEEP_MILLIS;
+            for (IndexAccess ia : catalog.snapshotIndexes()) {
+                final int interval = ia.getRefreshIntervalMs() != null ? ia.getRefreshIntervalMs() : refreshIntervalMs.get();
+                if (interval < 0) {
+                    continue;
+                }
+                final long now = clock.millis();
+                long due = ia.getLastRefreshMillis() + interval;
+                if (due <= now) {
+                    if (ia.getPendingRefreshDocs() > 0) {
+                        try {
+                            ia.refresh();
+                        } catch (IOException | RuntimeException e) {
+                            log.error("refresh {} failed with error {}", ia.getDirectory(), e.getMessage());
+                        }
+                    }
+                    due = now + interval;
+                }
+                sleepMillis = Math.min(sleepMillis, due - now);
+            }
+            try {
+                sleep(Math.max(1, sleepMillis));
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+    }
+}
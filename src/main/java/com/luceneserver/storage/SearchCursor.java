@@ -0,0 +1,139 @@
+package com.luceneserver.storage;
+
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+
+import java.io.IOException;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * a search paged with searchAfter. The cursor holds on to the searcher of its first page, so that all of
+ * its pages see the index as of then, whatever was refreshed meanwhile. Pages are served one at a time,
+ * under lock.
+ */
+public class SearchCursor {
+    private final long id;
+    private final IndexAccess index;
+    private final IndexSearcher searcher;
+    private final Query query;
+    private final int limit;
+    private final int batchSize;
+    private final ReentrantLock lock = new ReentrantLock();
+    // guarded by lock
+    private ScoreDoc after = null;
+    private int returned = 0;
+    private boolean closed = false;
+    private volatile long lastUsedMillis;
+    private volatile boolean killed = false;
+
+    SearchCursor(long id, IndexAccess index, IndexSearcher searcher, Query query, int limit, int batchSize,
+                 long nowMillis) {
+        this.id = id;
+        this.index = index;
+        this.searcher = searcher;
+        this.query = query;
+        this.limit = limit;
+        this.batchSize = batchSize;
+        this.lastUsedMillis = nowMillis;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public IndexAccess getIndex() {
+        return index;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    IndexSearcher getSearcher() {
+        return searcher;
+    }
+
+    Query getQuery() {
+        return query;
+    }
+
+    long getLastUsedMillis() {
+        return lastUsedMillis;
+    }
+
+    boolean isInUse() {
+        return lock.isLocked();
+    }
+
+    boolean tryLock() {
+        return lock.tryLock();
+    }
+
+    /*
+     * unlocks, and if the cursor was killed meanwhile closes it, as kill() could not.
+     */
+    void unlock() {
+        lock.unlock();
+        if (killed && lock.tryLock()) {
+            try {
+                closeInLock();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    ScoreDoc getAfter() {
+        return after;
+    }
+
+    /*
+     * the size of the next page, at most n and no more than the limit leaves.
+     */
+    int nextPageSize(int n) {
+        return Math.min(n, limit - returned);
+    }
+
+    /*
+     * records a page, returns true if the cursor may have more hits.
+     */
+    boolean advance(ScoreDoc last, int pageSize, int hits, long nowMillis) {
+        returned += hits;
+        if (last != null) {
+            after = last;
+        }
+        lastUsedMillis = nowMillis;
+        return hits == pageSize && returned < limit;
+    }
+
+    /*
+     * closes the cursor now if it is idle, otherwise once its current page is served.
+     */
+    void kill() {
+        killed = true;
+        if (lock.tryLock()) {
+            try {
+                closeInLock();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    void closeInLock() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            index.releaseSearcher(searcher);
+        } catch (IOException e) {
+            // the reader is closed with its last reference, which we gave up anyway
+        }
+    }
+}
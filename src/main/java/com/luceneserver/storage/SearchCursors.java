@@ -0,0 +1,127 @@
+package com.luceneserver.storage;
+
+import com.luceneserver.utils.Counter;
+import com.luceneserver.utils.Metrics;
+import com.luceneserver.utils.ServerParameter;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.security.SecureRandom;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * the open cursors of all indexes, by id. Each of them pins a point-in-time reader, segments merged
+ * away since stay on disk and in memory until it is closed, which is why cursors are bounded in number
+ * and closed once idle for cursorTimeoutMillis, as well as when exhausted, killed or their index dropped.
+ */
+public class SearchCursors {
+    private static final Logger log = LogManager.getLogger(SearchCursors.class);
+
+    private static final ServerParameter<Integer> cursorTimeoutMillis =
+            new ServerParameter<>("cursorTimeoutMillis", 600000, true) {
+                @Override
+                public void validate(Integer data) {
+                    if (data <= 0) {
+                        throw new IllegalArgumentException("cursorTimeoutMillis must be positive");
+                    }
+                }
+            };
+    // searches asking for a cursor beyond it fail
+    private static final ServerParameter<Integer> maxOpenCursors =
+            new ServerParameter<>("maxOpenCursors", 1000, true) {
+                @Override
+                public void validate(Integer data) {
+                    if (data < 0) {
+                        throw new IllegalArgumentException("maxOpenCursors must not be negative");
+                    }
+                }
+            };
+
+    private static final ConcurrentHashMap<Long, SearchCursor> cursors = new ConcurrentHashMap<>();
+    // NOTE(deyukong): cursors are not owned by a connection or a user, so getMore and killCursors trust
+    // whoever knows the id. Ids are random, as mongod's are, rather than sequential and guessable.
+    private static final SecureRandom ids = new SecureRandom();
+    private static final Counter opened = new Counter("cursors.opened");
+    private static final Counter timedOut = new Counter("cursors.timedOut");
+
+    static {
+        Metrics.register("cursors.open", () -> cursors.size());
+    }
+
+    public static void loadClass() {}
+
+    /*
+     * a random positive id, 0 being the id of no cursor.
+     */
+    static long nextId() {
+        while (true) {
+            final long id = ids.nextLong() & Long.MAX_VALUE;
+            if (id != 0) {
+                return id;
+            }
+        }
+    }
+
+    /*
+     * makes cursor reachable by its id, fails if too many are open already.
+     */
+    static void register(SearchCursor cursor) throws IOException {
+        // NOTE(deyukong): the bound is checked then put without a lock, racing searches may overshoot it by
+        // a few, which is fine for a memory guard.
+        if (cursors.size() >= maxOpenCursors.get()) {
+            throw new IOException("too many open cursors, maxOpenCursors is " + maxOpenCursors.get());
+        }
+        if (cursors.putIfAbsent(cursor.getId(), cursor) != null) {
+            throw new IOException("cursor id " + cursor.getId() + " is already in use");
+        }
+        opened.increment();
+    }
+
+    /*
+     * forgets a cursor its owner is closing.
+     */
+    static void remove(SearchCursor cursor) {
+        cursors.remove(cursor.getId(), cursor);
+    }
+
+    public static SearchCursor get(long id) {
+        return cursors.get(id);
+    }
+
+    /*
+     * returns false if there is no such cursor. A cursor serving a page is closed once done with it.
+     */
+    public static boolean kill(long id) {
+        SearchCursor cursor = cursors.remove(id);
+        if (cursor == null) {
+            return false;
+        }
+        cursor.kill();
+        return true;
+    }
+
+    /*
+     * kills the cursors over index, which is being dropped.
+     */
+    static void killAll(IndexAccess index) {
+        for (SearchCursor cursor : cursors.values()) {
+            if (cursor.getIndex() == index) {
+                kill(cursor.getId());
+            }
+        }
+    }
+
+    /*
+     * kills the cursors left idle for longer than cursorTimeoutMillis, called periodically.
+     */
+    public static void reapIdle(long nowMillis) {
+        final long timeout = cursorTimeoutMillis.get();
+        for (SearchCursor cursor : cursors.values()) {
+            if (!cursor.isInUse() && cursor.getLastUsedMillis() + timeout < nowMillis && kill(cursor.getId())) {
+                timedOut.increment();
+                log.info("cursor {} timed out after {}ms idle", cursor.getId(), nowMillis - cursor.getLastUsedMillis());
+            }
+        }
+    }
+}
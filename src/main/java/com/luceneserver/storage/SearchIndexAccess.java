@@ -7,10 +7,7 @@ import org.apache.lucene.analysis.miscellaneous.PerFieldAnalyzerWrapper;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.*;
 import org.apache.lucene.index.*;
-import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
-import org.apache.lucene.search.ScoreDoc;
-import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.store.FSDirectory;
 
 import java.io.IOException;
@@ -45,9 +42,9 @@ public class SearchIndexAccess extends IndexAccess {
         FSDirectory index = FSDirectory.open(dir);
         Map<String, Analyzer> analyzerMap = new HashMap<>();
         cfg.perFieldAnalyzer.forEach((k, v) -> {
-            analyzerMap.put(k, newAnalyzerFromString(v));
+            analyzerMap.put(k, AnalyzerRegistry.get(v));
         });
-        Analyzer defaultAnalyzer = newAnalyzerFromString(cfg.defaultAnalyzer);
+        Analyzer defaultAnalyzer = AnalyzerRegistry.get(cfg.defaultAnalyzer);
         PerFieldAnalyzerWrapper wrapper = new PerFieldAnalyzerWrapper(defaultAnalyzer, analyzerMap);
         IndexWriterConfig config = new IndexWriterConfig(wrapper);
         config.setMergeScheduler(ms);
@@ -58,53 +55,85 @@ public class SearchIndexAccess extends IndexAccess {
         return new SearchIndexAccess(index, config, c);
     }
 
-    public String[] search(Query query, int limit) throws IOException {
+    /*
+     * interruption may be null, see searchIdsInLock.
+     */
+    public SearchResult search(Query query, int limit, HitCount hitCount, Interruption interruption) throws IOException {
         rwLock.readLock().lock();
         try {
-            return searchInLock(query, limit);
+            return searchInLock(query, limit, hitCount, interruption);
         } finally {
             rwLock.readLock().unlock();
         }
     }
 
-    protected String[] searchInLock(Query query, int limit) throws IOException {
-        IndexSearcher searcher = new IndexSearcher(directoryReader.get());
-        TopDocs topDocs = searcher.search(query, limit);
-        ScoreDoc[] hits = topDocs.scoreDocs;
-        String[] ids = new String[hits.length];
-        int i = 0;
-        for (ScoreDoc hit: hits) {
-            Document d = searcher.storedFields().document(hit.doc);
-            ids[i++] = d.get("id");
+    protected SearchResult searchInLock(Query query, int limit, HitCount hitCount, Interruption interruption)
+            throws IOException {
+        return searchIdsInLock(query, limit, hitCount, interruption);
+    }
+
+    /*
+     * as search, but returns the top limit hits batchSize at a time, see openCursorInLock.
+     */
+    public SearchResult openCursor(Query query, int limit, int batchSize, HitCount hitCount, Interruption interruption)
+            throws IOException {
+        rwLock.readLock().lock();
+        try {
+            return openCursorInLock(query, limit, batchSize, hitCount, interruption);
+        } finally {
+            rwLock.readLock().unlock();
         }
-        return ids;
     }
 
-    @Override
-    protected void doBatchWrite(WriteBatch batch) throws IOException {
-        for (WriteBatch.Op o : batch.ops) {
-            WriteBatch.SearchOp op = (WriteBatch.SearchOp) o;
-            Document doc = null;
-            if (op.isInsert() || op.isUpdate()) {
-                doc = new Document();
-                doc.add(new StringField("id", op.id, Field.Store.YES));
-                for (WriteBatch.SearchOp.Field f : op.fields) {
-                    FieldType type = new FieldType();
-                    type.setOmitNorms(!f.norms);
-                    type.setIndexOptions(f.indexOptions);
-                    type.setStored(f.store);
-                    Field field = new Field(f.fieldName, f.text, type);
-                    doc.add(field);
-                }
+    public SearchResult count(Query query, Interruption interruption) throws IOException {
+        rwLock.readLock().lock();
+        try {
+            return countInLock(query, interruption);
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
+    private static class TextDocTemplate extends DocTemplate {
+        // the fields of the documents of this thread so far, replaced if a field comes with another type
+        private final HashMap<String, Field> fields = new HashMap<>();
+
+        Document fill(WriteBatch.SearchOp op) {
+            Document doc = reset(op.id);
+            if (fields.size() > MAX_TEMPLATE_FIELDS) {
+                fields.clear();
             }
-            if (op.isInsert()) {
-                indexWriter.addDocument(doc);
-            } else if (op.isDelete()) {
-                indexWriter.deleteDocuments(new Term("id", op.id));
-            } else if (op.isUpdate()) {
-                indexWriter.updateDocument(new Term("id", op.id), doc);
+            for (int i = 0; i < op.numFields; i++) {
+                Field field = fields.get(op.fieldNames[i]);
+                if (field == null || field.fieldType() != op.types[i]) {
+                    field = new Field(op.fieldNames[i], op.texts[i], op.types[i]);
+                    fields.put(op.fieldNames[i], field);
+                } else {
+                    field.setStringValue(op.texts[i]);
+                }
+                doc.add(field);
             }
+            return doc;
+        }
+    }
+
+    // bounds the fields a template keeps, for indexes with ever new field names
+    private static final int MAX_TEMPLATE_FIELDS = 1024;
+    // NOTE(deyukong): a template is reused by the indexing threads and by the platform threads of the lanes.
+    // With executorMode virtual every command runs on a new virtual thread, so the small batches applied on
+    // the request thread get a template of their own, reused only across the ops of the batch.
+    private static final ThreadLocal<TextDocTemplate> templates = ThreadLocal.withInitial(TextDocTemplate::new);
+
+    @Override
+    protected long applyOp(WriteBatch.Op o) throws IOException {
+        WriteBatch.SearchOp op = (WriteBatch.SearchOp) o;
+        if (op.isInsert()) {
+            return indexWriter.addDocument(templates.get().fill(op));
+        } else if (op.isDelete()) {
+            return indexWriter.deleteDocuments(new Term(ID_FIELD, op.id));
+        } else if (op.isUpdate()) {
+            return indexWriter.updateDocument(new Term(ID_FIELD, op.id), templates.get().fill(op));
         }
-        super.doBatchWrite(batch);
+        return 0;
     }
 }
@@ -0,0 +1,50 @@
+package com.luceneserver.storage;
+
+import org.apache.lucene.search.TotalHits;
+
+/*
+ * the hits of a search or kNN query, by id in rank order.
+ */
+public class SearchResult {
+    private final String[] ids;
+    private final TotalHits totalHits;
+    private final boolean timedOut;
+    private final long cursorId;
+
+    SearchResult(String[] ids, TotalHits totalHits, boolean timedOut) {
+        this(ids, totalHits, timedOut, 0);
+    }
+
+    SearchResult(String[] ids, TotalHits totalHits, boolean timedOut, long cursorId) {
+        this.ids = ids;
+        this.totalHits = totalHits;
+        this.timedOut = timedOut;
+        this.cursorId = cursorId;
+    }
+
+    public String[] getIds() {
+        return ids;
+    }
+
+    /*
+     * the number of matching documents, exact or a lower bound as the HitCount of the query allows.
+     */
+    public TotalHits getTotalHits() {
+        return totalHits;
+    }
+
+    /*
+     * true if the query ran out of time while collecting hits, the ids are then the best of the documents
+     * it got to.
+     */
+    public boolean isTimedOut() {
+        return timedOut;
+    }
+
+    /*
+     * the cursor to get the next page of hits from, 0 once there are no more.
+     */
+    public long getCursorId() {
+        return cursorId;
+    }
+}
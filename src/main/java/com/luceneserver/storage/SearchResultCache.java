@@ -0,0 +1,144 @@
+package com.luceneserver.storage;
+
+import com.luceneserver.utils.ServerParameter;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TotalHits;
+import org.apache.lucene.util.RamUsageEstimator;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * the result of a query, per index, keyed by the query, the limit and the hit count mode, so that repeated searches and
+ * kNN queries skip the index. Lucene queries compare by value, a kNN query by its vector, k and number of
+ * candidates. Entries are only valid for the reader they were computed on, the cache is tagged with a
+ * reader version and holds entries of that version only: a lookup on any other version misses, and the
+ * first result stored on a newer one drops all of the older entries at once.
+ */
+public class SearchResultCache {
+    // memory budget of the cache of each index, 0 disables result caching
+    private static final ServerParameter<Integer> searchResultCacheMBPerIndex =
+            new ServerParameter<>("searchResultCacheMBPerIndex", 16, true) {
+                @Override
+                public void validate(Integer data) {
+                    if (data < 0) {
+                        throw new IllegalArgumentException("searchResultCacheMBPerIndex must not be negative");
+                    }
+                }
+            };
+
+    private static final long ENTRY_OVERHEAD = RamUsageEstimator.shallowSizeOfInstance(Key.class)
+            + RamUsageEstimator.shallowSizeOfInstance(Entry.class)
+            + RamUsageEstimator.shallowSizeOfInstance(SearchResult.class)
+            + RamUsageEstimator.shallowSizeOfInstance(TotalHits.class)
+            // the node of the linked hash map, with its hash table slot
+            + 2L * RamUsageEstimator.NUM_BYTES_OBJECT_HEADER + 6L * RamUsageEstimator.NUM_BYTES_OBJECT_REF;
+
+    private record Key(Query query, int limit, HitCount hitCount) {}
+
+    private record Entry(SearchResult result, long ramBytes) {}
+
+    private final ReentrantLock lock = new ReentrantLock();
+    // in access order, all of them computed on the reader of version
+    private LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long version = -1;
+    private long ramBytesUsed = 0;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public static void loadClass() {}
+
+    static boolean isEnabled() {
+        return searchResultCacheMBPerIndex.get() > 0;
+    }
+
+    /*
+     * the cached result of query on the reader of readerVersion, or null.
+     */
+    SearchResult get(long readerVersion, Query query, int limit, HitCount hitCount) {
+        lock.lock();
+        try {
+            if (readerVersion == version) {
+                Entry entry = entries.get(new Key(query, limit, hitCount));
+                if (entry != null) {
+                    hits.incrementAndGet();
+                    return entry.result;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    void put(long readerVersion, Query query, int limit, HitCount hitCount, SearchResult result) {
+        final long maxBytes = searchResultCacheMBPerIndex.get() * 1024L * 1024L;
+        final long ramBytes = ENTRY_OVERHEAD
+                + RamUsageEstimator.sizeOf(query, RamUsageEstimator.QUERY_DEFAULT_RAM_BYTES_USED)
+                + RamUsageEstimator.sizeOf(result.getIds());
+        if (ramBytes > maxBytes) {
+            return;
+        }
+        lock.lock();
+        try {
+            if (readerVersion < version) {
+                // computed on a reader which was already replaced
+                return;
+            }
+            if (readerVersion > version) {
+                invalidateInLock();
+                version = readerVersion;
+            }
+            Entry old = entries.put(new Key(query, limit, hitCount), new Entry(result, ramBytes));
+            if (old != null) {
+                ramBytesUsed -= old.ramBytes;
+            }
+            ramBytesUsed += ramBytes;
+            var it = entries.values().iterator();
+            while (ramBytesUsed > maxBytes && it.hasNext()) {
+                ramBytesUsed -= it.next().ramBytes;
+                it.remove();
+                evictions.incrementAndGet();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * drops all of the entries, called once a new reader is published, so that the memory of the stale
+     * ones is not held until the next store.
+     */
+    void invalidate() {
+        lock.lock();
+        try {
+            invalidateInLock();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void invalidateInLock() {
+        if (!entries.isEmpty()) {
+            entries = new LinkedHashMap<>(16, 0.75f, true);
+            ramBytesUsed = 0;
+        }
+    }
+
+    void addStats(Map<String, Long> stats) {
+        lock.lock();
+        try {
+            stats.put("resultCacheEntries", (long) entries.size());
+            stats.put("resultCacheBytes", ramBytesUsed);
+        } finally {
+            lock.unlock();
+        }
+        stats.put("resultCacheHits", hits.get());
+        stats.put("resultCacheMisses", misses.get());
+        stats.put("resultCacheEvictions", evictions.get());
+    }
+}
@@ -0,0 +1,203 @@
+package com.luceneserver.storage;
+
+import com.luceneserver.utils.Counter;
+import com.luceneserver.utils.Metrics;
+import com.luceneserver.utils.ServerParameter;
+import com.luceneserver.utils.mongo.MongoThreadFactory;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.ExitableDirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.QueryTimeout;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.QueryCache;
+import org.apache.lucene.search.QueryCachingPolicy;
+import org.apache.lucene.search.Weight;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * the executor searchers fan segments out to, shared by all indexes. It is bounded, when its queue is
+ * full the searching thread runs the slice itself, which degrades to a sequential search instead of
+ * failing the request.
+ */
+public class SearchThreadPool {
+    // 0 disables intra-query parallelism
+    private static final ServerParameter<Integer> searchThreads =
+            new ServerParameter<>("searchThreads", Runtime.getRuntime().availableProcessors(), false);
+    private static final ServerParameter<Integer> searchQueueSize =
+            new ServerParameter<>("searchQueueSize", 1000, false);
+    // a request fans out only if the index has at least this many documents and segments
+    private static final ServerParameter<Integer> parallelSearchMinDocs =
+            new ServerParameter<>("parallelSearchMinDocs", 1000000, true);
+    private static final ServerParameter<Integer> parallelSearchMinSegments =
+            new ServerParameter<>("parallelSearchMinSegments", 2, true);
+    // slicing of the segments into tasks, changes apply to searchers opened after them
+    private static final ServerParameter<Integer> searchSliceMaxDocs =
+            new ServerParameter<>("searchSliceMaxDocs", 250000, true);
+    private static final ServerParameter<Integer> searchSliceMaxSegments =
+            new ServerParameter<>("searchSliceMaxSegments", 5, true);
+
+    private static final Counter parallelSearches = new Counter("search.parallel");
+    private static final Counter sequentialSearches = new Counter("search.sequential");
+    private static final Counter callerRunsSlices = new Counter("search.executor.callerRuns");
+
+    private static volatile ThreadPoolExecutor executor;
+
+    public static void loadClass() {}
+
+    private static ThreadPoolExecutor sharedExecutor() {
+        if (executor == null) {
+            synchronized (SearchThreadPool.class) {
+                if (executor == null) {
+                    ThreadPoolExecutor e = new ThreadPoolExecutor(
+                            searchThreads.get(),
+                            searchThreads.get(),
+                            0,
+                            TimeUnit.MILLISECONDS,
+                            new ArrayBlockingQueue<>(searchQueueSize.get()),
+                            new MongoThreadFactory("search-"),
+                            (r, pool) -> {
+                                callerRunsSlices.increment();
+                                if (!pool.isShutdown()) {
+                                    r.run();
+                                }
+                            });
+                    Metrics.register("search.executor.active", e::getActiveCount);
+                    Metrics.register("search.executor.queued", () -> e.getQueue().size());
+                    executor = e;
+                }
+            }
+        }
+        return executor;
+    }
+
+    /*
+     * a searcher over reader, able to fan out to the pool if parallelism is enabled.
+     */
+    static IndexSearcher newSearcher(IndexReader reader) {
+        if (searchThreads.get() == 0) {
+            return new IndexSearcher(reader);
+        }
+        return new SlicedIndexSearcher(reader);
+    }
+
+    /*
+     * picks which searcher serves a request, the parallel one only pays off on large multi-segment indexes.
+     */
+    static IndexSearcher select(IndexSearcher searcher) {
+        if (searcher instanceof SlicedIndexSearcher) {
+            IndexReader reader = searcher.getIndexReader();
+            if (reader.maxDoc() >= parallelSearchMinDocs.get()
+                    && reader.leaves().size() >= parallelSearchMinSegments.get()) {
+                parallelSearches.increment();
+                return searcher;
+            }
+            sequentialSearches.increment();
+            return ((SlicedIndexSearcher) searcher).sequential;
+        }
+        sequentialSearches.increment();
+        return searcher;
+    }
+
+    /*
+     * a searcher for a single request, over the same segments as searcher, which stops once timeout says
+     * so. Terms, points and vectors are read through an ExitableDirectoryReader, so that rewriting a
+     * multi-term query or walking a vector graph is interrupted too, not only the collection of hits.
+     */
+    static IndexSearcher withTimeout(IndexSearcher searcher, QueryTimeout timeout) throws IOException {
+        IndexReader reader = searcher.getIndexReader();
+        if (reader instanceof DirectoryReader) {
+            reader = ExitableDirectoryReader.wrap((DirectoryReader) reader, timeout);
+        }
+        IndexSearcher timed = new TimedIndexSearcher(reader, searcher instanceof SlicedIndexSearcher);
+        timed.setSimilarity(searcher.getSimilarity());
+        timed.setQueryCache(searcher.getQueryCache());
+        timed.setQueryCachingPolicy(searcher.getQueryCachingPolicy());
+        timed.setTimeout(timeout);
+        return timed;
+    }
+
+    static boolean isParallel(IndexSearcher searcher) {
+        return searcher instanceof SlicedIndexSearcher;
+    }
+
+    public static void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /*
+     * NOTE(deyukong): both searchers share the reader, the sequential twin serves requests below the
+     * parallel thresholds without a hop to the pool.
+     */
+    private static class SlicedIndexSearcher extends IndexSearcher {
+        private final IndexSearcher sequential;
+
+        SlicedIndexSearcher(IndexReader reader) {
+            super(reader, sharedExecutor());
+            sequential = new IndexSearcher(reader);
+        }
+
+        @Override
+        protected LeafSlice[] slices(List<LeafReaderContext> leaves) {
+            return slices(leaves, searchSliceMaxDocs.get(), searchSliceMaxSegments.get());
+        }
+
+        @Override
+        public void setQueryCache(QueryCache queryCache) {
+            super.setQueryCache(queryCache);
+            sequential.setQueryCache(queryCache);
+        }
+
+        @Override
+        public void setQueryCachingPolicy(QueryCachingPolicy queryCachingPolicy) {
+            super.setQueryCachingPolicy(queryCachingPolicy);
+            sequential.setQueryCachingPolicy(queryCachingPolicy);
+        }
+    }
+
+    /*
+     * NOTE(deyukong): once a segment times out, lucene still goes on with the following ones, whose terms
+     * the exitable reader then refuses to enumerate. The hits collected until then are kept instead, the
+     * query only fails if it times out before it gets to collect, while rewriting.
+     */
+    private static class TimedIndexSearcher extends IndexSearcher {
+        private volatile boolean exited = false;
+
+        TimedIndexSearcher(IndexReader reader, boolean sliced) {
+            super(reader, sliced ? sharedExecutor() : null);
+        }
+
+        @Override
+        protected LeafSlice[] slices(List<LeafReaderContext> leaves) {
+            return slices(leaves, searchSliceMaxDocs.get(), searchSliceMaxSegments.get());
+        }
+
+        @Override
+        protected void search(List<LeafReaderContext> leaves, Weight weight, Collector collector) throws IOException {
+            for (LeafReaderContext leaf : leaves) {
+                if (exited || super.timedOut()) {
+                    exited = true;
+                    return;
+                }
+                try {
+                    super.search(List.of(leaf), weight, collector);
+                } catch (ExitableDirectoryReader.ExitingReaderException e) {
+                    exited = true;
+                }
+            }
+        }
+
+        @Override
+        public boolean timedOut() {
+            return exited || super.timedOut();
+        }
+    }
+}
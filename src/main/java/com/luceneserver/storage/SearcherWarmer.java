@@ -0,0 +1,23 @@
+package com.luceneserver.storage;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+
+import java.io.IOException;
+
+/*
+ * warms a searcher over a newly refreshed reader before it is published to searches, so that the first
+ * queries after a commit do not pay for loading cold segment structures.
+ */
+public interface SearcherWarmer {
+    /*
+     * called with each query served by the index, lets the warmer learn which queries are representative.
+     */
+    default void onQuery(Query query, int limit) {}
+
+    /*
+     * previousReader is null for the first searcher of an index.
+     */
+    void warm(IndexSearcher searcher, IndexReader previousReader) throws IOException;
+}
@@ -0,0 +1,35 @@
+package com.luceneserver.storage;
+
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.index.IndexOptions;
+
+/*
+ * the FieldTypes of text fields, one frozen instance per combination of index options, norms and
+ * stored, shared by every field of every document instead of one allocated per field.
+ */
+public class TextFieldTypes {
+    private static final FieldType[] types = new FieldType[IndexOptions.values().length * 4];
+
+    static {
+        for (IndexOptions indexOptions : IndexOptions.values()) {
+            for (int norms = 0; norms < 2; norms++) {
+                for (int store = 0; store < 2; store++) {
+                    FieldType type = new FieldType();
+                    type.setIndexOptions(indexOptions);
+                    type.setOmitNorms(norms == 0);
+                    type.setStored(store == 1);
+                    type.freeze();
+                    types[slot(indexOptions, norms == 1, store == 1)] = type;
+                }
+            }
+        }
+    }
+
+    private static int slot(IndexOptions indexOptions, boolean norms, boolean store) {
+        return indexOptions.ordinal() * 4 + (norms ? 2 : 0) + (store ? 1 : 0);
+    }
+
+    public static FieldType get(IndexOptions indexOptions, boolean norms, boolean store) {
+        return types[slot(indexOptions, norms, store)];
+    }
+}
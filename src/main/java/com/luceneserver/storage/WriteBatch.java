@@ -1,7 +1,8 @@
 package com.luceneserver.storage;
 
-import org.apache.lucene.analysis.Analyzer;
-import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.document.FieldType;
+
+import java.util.Arrays;
 
 public class WriteBatch {
     public static abstract class Op {
@@ -19,19 +20,34 @@ public class WriteBatch {
     }
     public String indexName;
     public boolean autoCommit;
-    public Op[] ops;
+    // ops may be decoded lazily from the request while they are applied, so iterate them only once.
+    public Iterable<? extends Op> ops;
+    // set once the batch is applied, the highest IndexWriter sequence number of its ops
+    public long seqNo = 0;
 
     public static class HnswOp extends Op {
+        // one of them is set, depending on the vector encoding of the index
         public float[] vector;
+        public byte[] byteVector;
     }
     public static class SearchOp extends Op {
-        public static class Field {
-            public String fieldName;
-            public String text;
-            public boolean store;
-            public IndexOptions indexOptions;
-            public boolean norms;
+        // the text fields of the document, fieldNames[i] holds texts[i] indexed as types[i], a type from
+        // TextFieldTypes
+        public int numFields = 0;
+        public String[] fieldNames = new String[4];
+        public String[] texts = new String[4];
+        public FieldType[] types = new FieldType[4];
+
+        public void addField(String fieldName, String text, FieldType type) {
+            if (numFields == fieldNames.length) {
+                fieldNames = Arrays.copyOf(fieldNames, numFields * 2);
+                texts = Arrays.copyOf(texts, numFields * 2);
+                types = Arrays.copyOf(types, numFields * 2);
+            }
+            fieldNames[numFields] = fieldName;
+            texts[numFields] = text;
+            types[numFields] = type;
+            numFields++;
         }
-        public Field[] fields;
     }
 }
@@ -0,0 +1,100 @@
+package com.luceneserver.transport.mongo;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import org.bson.ByteBufNIO;
+import org.bson.io.OutputBuffer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.List;
+
+/*
+ * a bson OutputBuffer appending to a netty ByteBuf. Positions are relative to the writerIndex of the
+ * ByteBuf at construction time, which is what BsonBinaryWriter expects when it back-patches the length
+ * of each (sub)document.
+ */
+public class ByteBufBsonOutput extends OutputBuffer {
+    private final ByteBuf buf;
+    private final int start;
+
+    public ByteBufBsonOutput(ByteBuf buf) {
+        this.buf = buf;
+        this.start = buf.writerIndex();
+    }
+
+    @Override
+    public void writeBytes(byte[] bytes, int offset, int length) {
+        buf.writeBytes(bytes, offset, length);
+    }
+
+    @Override
+    public void writeByte(int value) {
+        buf.writeByte(value);
+    }
+
+    @Override
+    public void writeInt32(int value) {
+        buf.writeIntLE(value);
+    }
+
+    @Override
+    public void writeInt32(int position, int value) {
+        buf.setIntLE(start + position, value);
+    }
+
+    @Override
+    public void writeInt64(long value) {
+        buf.writeLongLE(value);
+    }
+
+    @Override
+    public void writeDouble(double value) {
+        buf.writeLongLE(Double.doubleToRawLongBits(value));
+    }
+
+    @Override
+    public void writeString(String str) {
+        int lengthIndex = buf.writerIndex();
+        buf.writeIntLE(0);
+        int len = ByteBufUtil.writeUtf8(buf, str);
+        buf.writeByte(0);
+        buf.setIntLE(lengthIndex, len + 1);
+    }
+
+    @Override
+    protected void write(int position, int value) {
+        buf.setByte(start + position, value);
+    }
+
+    @Override
+    public int getPosition() {
+        return buf.writerIndex() - start;
+    }
+
+    @Override
+    public int getSize() {
+        return getPosition();
+    }
+
+    @Override
+    public void truncateToPosition(int newPosition) {
+        if (newPosition > getPosition() || newPosition < 0) {
+            throw new IllegalArgumentException("invalid position " + newPosition);
+        }
+        buf.writerIndex(start + newPosition);
+    }
+
+    @Override
+    public int pipe(OutputStream out) throws IOException {
+        int size = getSize();
+        buf.getBytes(start, out, size);
+        return size;
+    }
+
+    @Override
+    public List<org.bson.ByteBuf> getByteBuffers() {
+        return Collections.singletonList(new ByteBufNIO(buf.nioBuffer(start, getSize())));
+    }
+}
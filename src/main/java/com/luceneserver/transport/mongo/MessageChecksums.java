@@ -0,0 +1,52 @@
+package com.luceneserver.transport.mongo;
+
+import com.luceneserver.utils.ServerParameter;
+import io.netty.buffer.ByteBuf;
+
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32C;
+
+/*
+ * the optional CRC32C trailing an OP_MSG whose CHECKSUM_PRESENT flag is set. It covers the whole message,
+ * header included, up to the checksum itself. CRC32C.update(ByteBuffer) is intrinsified for both heap and
+ * direct buffers, so it runs over the netty buffer memory through nio views, without copying.
+ */
+public class MessageChecksums {
+    public static final int CHECKSUM_LENGTH = 4;
+
+    // whether checksums sent by clients are verified, a mismatch closes the connection
+    private static final ServerParameter<Boolean> validateMessageChecksum =
+            new ServerParameter<>("validateMessageChecksum", false, true);
+    // whether uncompressed OP_MSG replies carry a checksum
+    private static final ServerParameter<Boolean> generateMessageChecksum =
+            new ServerParameter<>("generateMessageChecksum", false, true);
+
+    public static void loadClass() {}
+
+    public static boolean shouldValidate() {
+        return validateMessageChecksum.get();
+    }
+
+    public static boolean shouldGenerate() {
+        return generateMessageChecksum.get();
+    }
+
+    public static void update(CRC32C crc, ByteBuf buf, int index, int length) {
+        if (buf.nioBufferCount() == 1) {
+            crc.update(buf.nioBuffer(index, length));
+            return;
+        }
+        for (ByteBuffer nio : buf.nioBuffers(index, length)) {
+            crc.update(nio);
+        }
+    }
+
+    /*
+     * appends the checksum of everything from start up to the writer index.
+     */
+    public static void append(ByteBuf buf, int start) {
+        CRC32C crc = new CRC32C();
+        update(crc, buf, start, buf.writerIndex() - start);
+        buf.writeIntLE((int) crc.getValue());
+    }
+}
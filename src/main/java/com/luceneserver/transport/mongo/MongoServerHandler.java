@@ -26,6 +26,8 @@ public class MongoServerHandler extends SimpleChannelInboundHandler<MongoMessage
 
 
     public MongoServerHandler(ChannelGroup channelGroup) {
+        // requests are handed over to the MessageProcessor, which releases them once the command finishes
+        super(false);
         this.channelGroup = channelGroup;
     }
 
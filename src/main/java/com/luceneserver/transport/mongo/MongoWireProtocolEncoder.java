@@ -1,8 +1,6 @@
 package com.luceneserver.transport.mongo;
 
 import com.luceneserver.protocol.mongo.MongoMessage;
-import com.luceneserver.protocol.mongo.OpCode;
-import com.luceneserver.storage.WriteBatch;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.bson.RawBsonDocument;
@@ -19,28 +17,12 @@ public class MongoWireProtocolEncoder extends MessageToByteEncoder<MongoMessage>
     }
     @Override
     protected void encode(ChannelHandlerContext ctx, MongoMessage message, ByteBuf buf) {
-        buf.writeIntLE(0); // write length later
-
-        buf.writeIntLE(message.getHeader().getRequestID());
-        buf.writeIntLE(message.getHeader().getResponseTo());
-        if (message.isLegacyFormat()) {
-            buf.writeIntLE(OpCode.OP_REPLY.getId());
-        } else {
-            buf.writeIntLE(OpCode.OP_MSG.getId());
-        }
-        buf.writeIntLE(message.getFlags());
-        if (message.isLegacyFormat()) {
-            buf.writeLongLE(0L); // cursorId
-            buf.writeIntLE(0); // startFrom
-            buf.writeIntLE(1); // body message count
-        } else {
-            buf.writeByte(MongoMessage.SECTION_KIND_BODY);
-        }
+        int start = buf.writerIndex();
+        ResponseWriter.writeHeader(buf, message.getHeader(), message.isLegacyFormat(), message.getFlags());
 
         RawBsonDocument document = message.getBody();
         try {
-            byte []bodyBytes = document.getByteBuffer().array();
-            buf.writeBytes(bodyBytes);
+            buf.writeBytes(document.getByteBuffer().asNIO());
         } catch (RuntimeException e) {
             log.error("Failed to encode {}", document, e);
             ctx.channel().close();
@@ -50,7 +32,6 @@ public class MongoWireProtocolEncoder extends MessageToByteEncoder<MongoMessage>
         log.debug("wrote message: {}", message);
 
         // now set the length
-        int writerIndex = buf.writerIndex();
-        buf.setIntLE(0, writerIndex);
+        buf.setIntLE(start, buf.writerIndex() - start);
     }
-}
\ No newline at end of file
+}
@@ -3,12 +3,17 @@ package com.luceneserver.transport.mongo;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
+import java.util.zip.CRC32C;
 
+import com.luceneserver.protocol.mongo.DocumentSequence;
 import com.luceneserver.protocol.mongo.MessageFlag;
 import com.luceneserver.protocol.mongo.MongoMessage;
 import com.luceneserver.protocol.mongo.MsgHeader;
 import com.luceneserver.protocol.mongo.OpCode;
+import com.luceneserver.transport.mongo.compression.MessageCompressors;
 import com.luceneserver.utils.Assert;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -34,7 +39,7 @@ public class MongoWireProtocolHandler extends LengthFieldBasedFrameDecoder {
     private static final int LENGTH_FIELD_LENGTH = 4;
     private static final int LENGTH_ADJUSTMENT = -LENGTH_FIELD_LENGTH;
     private static final int INITIAL_BYTES_TO_STRIP = 0;
-    private static final int CHECKSUM_LENGTH = 4;
+    private static final int CHECKSUM_LENGTH = MessageChecksums.CHECKSUM_LENGTH;
 
     public MongoWireProtocolHandler() {
         super(MAX_FRAME_LENGTH, LENGTH_FIELD_OFFSET, LENGTH_FIELD_LENGTH, LENGTH_ADJUSTMENT, INITIAL_BYTES_TO_STRIP);
@@ -59,41 +64,100 @@ public class MongoWireProtocolHandler extends LengthFieldBasedFrameDecoder {
             in.resetReaderIndex();
             return null; // retry
         }
-        in = in.readSlice(totalLength - LENGTH_FIELD_LENGTH);
-        long readable = in.readableBytes();
-        Assert.equals(readable, totalLength - LENGTH_FIELD_LENGTH);
+        // the frame is retained by the returned MongoMessage and released after the command finishes,
+        // so that bson bodies can be decoded in place instead of being copied out of the cumulation.
+        in = retainFrame(ctx, in, totalLength - LENGTH_FIELD_LENGTH);
+        try {
+            long readable = in.readableBytes();
+            Assert.equals(readable, totalLength - LENGTH_FIELD_LENGTH);
+
+            final int requestID = in.readIntLE();
+            final int responseTo = in.readIntLE();
+            final MsgHeader header = new MsgHeader(totalLength, requestID, responseTo);
+
+            int opCodeId = in.readIntLE();
+            OpCode opCode = OpCode.getById(opCodeId);
+            if (opCode == null) {
+                throw new IOException("opCode " + opCodeId + " not supported");
+            }
 
-        final int requestID = in.readIntLE();
-        final int responseTo = in.readIntLE();
-        final MsgHeader header = new MsgHeader(totalLength, requestID, responseTo);
+            final Channel channel = ctx.channel();
+            final MongoMessage request;
+
+            int compressorId = MessageCompressors.NO_COMPRESSION;
+            if (opCode == OpCode.OP_COMPRESSED) {
+                opCodeId = in.getIntLE(in.readerIndex());
+                opCode = OpCode.getById(opCodeId);
+                if (opCode == null) {
+                    throw new IOException("compressed opCode " + opCodeId + " not supported");
+                }
+                compressorId = in.getUnsignedByte(in.readerIndex() + 8);
+                ByteBuf inflated = MessageCompressors.decompress(ctx.alloc(), in);
+                in.release();
+                in = inflated;
+            }
 
-        int opCodeId = in.readIntLE();
-        OpCode opCode = OpCode.getById(opCodeId);
-        if (opCode == null) {
-            throw new IOException("opCode " + opCodeId + " not supported");
-        }
+            switch (opCode) {
+                case OP_MSG:
+                    request = handleMessage(channel, header, in, compressorId == MessageCompressors.NO_COMPRESSION);
+                    break;
+                case OP_QUERY:
+                    request = handleLegacyMessage(channel, header, in);
+                    break;
+                default:
+                    throw new UnsupportedOperationException("unsupported opcode: " + opCode);
+            }
+            request.setCompressorId(compressorId);
 
-        final Channel channel = ctx.channel();
-        final MongoMessage request;
+            if (in.isReadable()) {
+                request.release();
+                throw new IOException("channal still readable after handleMessage");
+            }
 
-        switch (opCode) {
-            case OP_MSG:
-                request = handleMessage(channel, header, in);
-                break;
-            case OP_QUERY:
-                request = handleLegacyMessage(channel, header, in);
-                break;
-            default:
-                throw new UnsupportedOperationException("unsupported opcode: " + opCode);
-        }
+            log.debug("get cmd {}", request.getBody());
 
-        if (in.isReadable()) {
-            throw new IOException("channal still readable after handleMessage");
+            return request;
+        } catch (Exception e) {
+            if (in.refCnt() > 0) {
+                in.release();
+            }
+            throw e;
         }
+    }
 
-        log.debug("get cmd {}", request.getBody());
+    /*
+     * returns a retained slice of the next frameLength bytes. Frames are normally backed by the pooled
+     * heap arena (see HeapIoByteBufAllocator). Otherwise the frame is copied once into a pooled heap
+     * buffer rather than into a fresh byte[] per section.
+     */
+    private static ByteBuf retainFrame(ChannelHandlerContext ctx, ByteBuf in, int frameLength) {
+        if (in.hasArray()) {
+            return in.readRetainedSlice(frameLength);
+        }
+        ByteBuf copy = ctx.alloc().heapBuffer(frameLength, frameLength);
+        in.readBytes(copy, frameLength);
+        return copy;
+    }
 
-        return request;
+    /*
+     * wraps the bson document at the reader index without copying and skips over it.
+     * the returned document is only valid while the frame is retained.
+     */
+    private static RawBsonDocument readDocument(ByteBuf buffer) {
+        final int bsonLen = buffer.getIntLE(buffer.readerIndex());
+        if (bsonLen < 5 || bsonLen > buffer.readableBytes()) {
+            throw new IllegalArgumentException("invalid bson document length " + bsonLen);
+        }
+        final RawBsonDocument doc;
+        if (buffer.hasArray()) {
+            doc = new RawBsonDocument(buffer.array(), buffer.arrayOffset() + buffer.readerIndex(), bsonLen);
+        } else {
+            byte[] bytes = new byte[bsonLen];
+            buffer.getBytes(buffer.readerIndex(), bytes);
+            doc = new RawBsonDocument(bytes);
+        }
+        buffer.skipBytes(bsonLen);
+        return doc;
     }
 
     /*
@@ -113,16 +177,10 @@ public class MongoWireProtocolHandler extends LengthFieldBasedFrameDecoder {
 
         RawBsonDocument query = null, returnFieldSector = null;
         while (buffer.isReadable()) {
-            buffer.markReaderIndex();
-            final int bsonLen = buffer.readIntLE();
-            buffer.resetReaderIndex();
-
-            byte[] bytes = new byte[bsonLen];
-            buffer.readBytes(bytes);
             if (query == null) {
-                query = new RawBsonDocument(bytes);
+                query = readDocument(buffer);
             } else if (returnFieldSector == null) {
-                returnFieldSector = new RawBsonDocument(bytes);
+                returnFieldSector = readDocument(buffer);
             } else {
                 throw new IllegalArgumentException("invalid legacy message format");
             }
@@ -134,9 +192,14 @@ public class MongoWireProtocolHandler extends LengthFieldBasedFrameDecoder {
 
         log.info("query {} from {}", query, fullCollectionName);
 
-        return new MongoMessage(header, query, true);
+        return new MongoMessage(header, query, true, buffer);
     }
-    private MongoMessage handleMessage(Channel channel, MsgHeader header, ByteBuf buffer) {
+    /*
+     * buffer is either the frame following the length field, or the inflated content of an OP_COMPRESSED.
+     * Only the former can be checked against the checksum, which covers the message as it was sent.
+     */
+    private MongoMessage handleMessage(Channel channel, MsgHeader header, ByteBuf buffer, boolean isFrame)
+            throws IOException {
         int flagBits = buffer.readIntLE();
 
         Set<MessageFlag> flags = EnumSet.noneOf(MessageFlag.class);
@@ -149,23 +212,30 @@ public class MongoWireProtocolHandler extends LengthFieldBasedFrameDecoder {
             throw new UnsupportedOperationException("flags=" + flagBits + " not yet supported");
         }
 
-        int expectedPayloadSize = header.getTotalLength() - LENGTH_FIELD_LENGTH;
+        // the end of the sections, relative to the buffer, which is either the frame or an inflated OP_COMPRESSED
+        int expectedPayloadSize = buffer.writerIndex();
         if (flags.contains(MessageFlag.CHECKSUM_PRESENT)) {
             expectedPayloadSize -= CHECKSUM_LENGTH;
         }
 
         RawBsonDocument body = null;
+        Map<String, DocumentSequence> documentSequences = null;
         while (buffer.readerIndex() < expectedPayloadSize) {
             byte sectionKind = buffer.readByte();
             switch (sectionKind) {
                 case MongoMessage.SECTION_KIND_BODY:
                     Assert.isNull(body);
-                    byte[] bytes = new byte[buffer.readableBytes()];
-                    buffer.readBytes(bytes);
-                    body = new RawBsonDocument(bytes);
+                    body = readDocument(buffer);
                     break;
                 case MongoMessage.SECTION_KIND_DOCUMENT_SEQUENCE:
-                    // seems SECTION_KIND_DOCUMENT_SEQUENCE is a legacy type, just ignore this
+                    DocumentSequence seq = readDocumentSequence(buffer);
+                    if (documentSequences == null) {
+                        documentSequences = new HashMap<>();
+                    }
+                    if (documentSequences.put(seq.getIdentifier(), seq) != null) {
+                        throw new IllegalArgumentException("duplicate document sequence " + seq.getIdentifier());
+                    }
+                    break;
                 default:
                     throw new IllegalArgumentException("Unexpected section kind: " + sectionKind);
             }
@@ -173,11 +243,49 @@ public class MongoWireProtocolHandler extends LengthFieldBasedFrameDecoder {
 
         if (flags.contains(MessageFlag.CHECKSUM_PRESENT)) {
             int checksum = buffer.readIntLE();
-            //NOTE(deyukong): dont validate checksum because dds c++ code also ignores this, I don't know why
-            log.trace("Ignoring checksum {}", checksum);
+            //NOTE(deyukong): mongod also ignores checksums, validating them is opt-in
+            if (isFrame && MessageChecksums.shouldValidate()) {
+                CRC32C crc = new CRC32C();
+                int length = header.getTotalLength();
+                crc.update(length);
+                crc.update(length >>> 8);
+                crc.update(length >>> 16);
+                crc.update(length >>> 24);
+                MessageChecksums.update(crc, buffer, 0, expectedPayloadSize);
+                if ((int) crc.getValue() != checksum) {
+                    throw new IOException("checksum mismatch on message " + header.getRequestID() + " from " + channel);
+                }
+            } else {
+                log.trace("Ignoring checksum {}", checksum);
+            }
         }
 
         Assert.notNull(body);
-        return new MongoMessage(header, body, false);
+        if (documentSequences == null) {
+            return new MongoMessage(header, body, false, buffer);
+        }
+        return new MongoMessage(header, body, false, buffer, documentSequences);
+    }
+
+    /*
+     * kind-1 section: int32 size (including itself), cstring identifier, then bson documents up to size.
+     * The documents are left undecoded, see DocumentSequence.
+     */
+    private static DocumentSequence readDocumentSequence(ByteBuf buffer) {
+        final int sectionStart = buffer.readerIndex();
+        final int size = buffer.readIntLE();
+        final int sectionEnd = sectionStart + size;
+        if (size < 5 || sectionEnd > buffer.writerIndex()) {
+            throw new IllegalArgumentException("invalid document sequence size " + size);
+        }
+        int length = buffer.bytesBefore(sectionEnd - buffer.readerIndex(), (byte)'\0');
+        if (length < 0) {
+            throw new IllegalArgumentException("document sequence identifier termination not found");
+        }
+        final String identifier = buffer.toString(buffer.readerIndex(), length, StandardCharsets.UTF_8);
+        buffer.skipBytes(length + 1);
+        ByteBuf documents = buffer.slice(buffer.readerIndex(), sectionEnd - buffer.readerIndex());
+        buffer.readerIndex(sectionEnd);
+        return new DocumentSequence(identifier, documents);
     }
 }
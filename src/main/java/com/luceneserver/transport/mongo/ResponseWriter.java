@@ -0,0 +1,89 @@
+package com.luceneserver.transport.mongo;
+
+import com.luceneserver.protocol.mongo.MessageFlag;
+import com.luceneserver.protocol.mongo.MongoMessage;
+import com.luceneserver.protocol.mongo.MsgHeader;
+import com.luceneserver.protocol.mongo.OpCode;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import org.bson.BsonBinaryWriter;
+
+/*
+ * serializes a reply directly into a pooled ByteBuf. The wire header is written up front with a zero
+ * length which is back-patched by finish(), so the buffer can be handed to the channel as is, without
+ * an intermediate byte[] or RawBsonDocument.
+ */
+public class ResponseWriter {
+    private static final int INITIAL_CAPACITY = 256;
+    // length, requestID, responseTo and opCode precede the flags of an OP_MSG
+    private static final int FLAGS_OFFSET = 16;
+
+    private final ByteBuf buf;
+    private final boolean legacyFormat;
+    private final int bodyStart;
+    private BsonBinaryWriter writer;
+
+    public ResponseWriter(ByteBufAllocator alloc, MsgHeader header, boolean legacyFormat) {
+        buf = alloc.directBuffer(INITIAL_CAPACITY);
+        this.legacyFormat = legacyFormat;
+        writeHeader(buf, header, legacyFormat, 0);
+        bodyStart = buf.writerIndex();
+        writer = new BsonBinaryWriter(new ByteBufBsonOutput(buf));
+    }
+
+    /*
+     * writes everything of a reply preceding the body document, with the length field left as zero.
+     */
+    public static void writeHeader(ByteBuf buf, MsgHeader header, boolean legacyFormat, int flags) {
+        buf.writeIntLE(0); // write length later
+
+        buf.writeIntLE(header.getRequestID());
+        buf.writeIntLE(header.getResponseTo());
+        if (legacyFormat) {
+            buf.writeIntLE(OpCode.OP_REPLY.getId());
+        } else {
+            buf.writeIntLE(OpCode.OP_MSG.getId());
+        }
+        buf.writeIntLE(flags);
+        if (legacyFormat) {
+            buf.writeLongLE(0L); // cursorId
+            buf.writeIntLE(0); // startFrom
+            buf.writeIntLE(1); // body message count
+        } else {
+            buf.writeByte(MongoMessage.SECTION_KIND_BODY);
+        }
+    }
+
+    public BsonBinaryWriter getWriter() {
+        return writer;
+    }
+
+    /*
+     * drops whatever part of the body has been written, e.g. when a command fails halfway through
+     * its reply and an error document has to be written instead.
+     */
+    public void reset() {
+        buf.writerIndex(bodyStart);
+        writer = new BsonBinaryWriter(new ByteBufBsonOutput(buf));
+    }
+
+    /*
+     * back-patches the message length and hands the buffer over to the caller. With withChecksum an
+     * OP_MSG reply gets the CHECKSUM_PRESENT flag and a trailing CRC32C, legacy replies have no checksum.
+     */
+    public ByteBuf finish(boolean withChecksum) {
+        writer.close();
+        if (withChecksum && !legacyFormat) {
+            buf.setIntLE(FLAGS_OFFSET, buf.getIntLE(FLAGS_OFFSET) | MessageFlag.CHECKSUM_PRESENT.getValue());
+            buf.setIntLE(0, buf.writerIndex() + MessageChecksums.CHECKSUM_LENGTH);
+            MessageChecksums.append(buf, 0);
+        } else {
+            buf.setIntLE(0, buf.writerIndex());
+        }
+        return buf;
+    }
+
+    public void release() {
+        buf.release();
+    }
+}
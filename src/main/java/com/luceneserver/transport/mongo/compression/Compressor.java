@@ -0,0 +1,35 @@
+package com.luceneserver.transport.mongo.compression;
+
+import io.netty.buffer.ByteBuf;
+
+import java.io.IOException;
+
+/*
+ * a message compressor usable in OP_COMPRESSED, see the wire protocol compression spec.
+ * Implementations are stateless and shared by all connections. Besides the built-in ones, implementations
+ * are discovered with java.util.ServiceLoader, so a jar providing
+ * META-INF/services/com.luceneserver.transport.mongo.compression.Compressor on the classpath adds a codec.
+ */
+public interface Compressor {
+    /*
+     * the name used for negotiation in the isMaster "compression" field, e.g. "zlib".
+     */
+    String getName();
+
+    /*
+     * the compressorId written into OP_COMPRESSED, e.g. 2 for zlib. It is an unsigned byte on the wire,
+     * ids above 127 are negative here.
+     */
+    byte getId();
+
+    /*
+     * compresses the readable bytes of source and appends the result to target.
+     */
+    void compress(ByteBuf source, ByteBuf target) throws IOException;
+
+    /*
+     * decompresses the readable bytes of source into target, which must end up with exactly
+     * uncompressedSize more readable bytes.
+     */
+    void decompress(ByteBuf source, ByteBuf target, int uncompressedSize) throws IOException;
+}
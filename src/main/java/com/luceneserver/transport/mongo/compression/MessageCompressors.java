@@ -0,0 +1,148 @@
+package com.luceneserver.transport.mongo.compression;
+
+import com.luceneserver.protocol.mongo.OpCode;
+import com.luceneserver.utils.ServerParameter;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.luceneserver.transport.mongo.TransportConstants.MAX_MESSAGE_SIZE_BYTES;
+
+/*
+ * registry of the available compressors and the OP_COMPRESSED framing:
+ *   MsgHeader (opCode = OP_COMPRESSED)
+ *   int32 originalOpcode
+ *   int32 uncompressedSize (of the original message, excluding its header)
+ *   uint8 compressorId
+ *   compressed bytes
+ */
+public class MessageCompressors {
+    private static final Logger log = LogManager.getLogger(MessageCompressors.class);
+
+    // compressor ids are unsigned bytes, the sentinel is outside of their range
+    public static final int NO_COMPRESSION = -1;
+    private static final int MSG_HEADER_LENGTH = 16;
+
+    // comma separated, in order of preference, of the compressors offered to clients in isMaster
+    private static final ServerParameter<String> networkMessageCompressors =
+            new ServerParameter<>("networkMessageCompressors", "zlib", false);
+    // replies to compressed requests are only compressed if they are at least this large
+    private static final ServerParameter<Integer> compressionThresholdBytes =
+            new ServerParameter<>("compressionThresholdBytes", 1024, true);
+
+    private static final Map<String, Compressor> byName = new ConcurrentHashMap<>();
+    private static final Map<Integer, Compressor> byId = new ConcurrentHashMap<>();
+
+    static {
+        register(new NoopCompressor());
+        register(new ZlibCompressor());
+        for (Compressor c : ServiceLoader.load(Compressor.class)) {
+            register(c);
+            log.info("loaded compressor {} with id {}", c.getName(), c.getId());
+        }
+    }
+
+    public static void loadClass() {}
+
+    private static void register(Compressor c) {
+        if (byName.putIfAbsent(c.getName(), c) != null || byId.putIfAbsent(c.getId() & 0xFF, c) != null) {
+            throw new IllegalArgumentException("compressor " + c.getName() + " registered twice");
+        }
+    }
+
+    /*
+     * id is the unsigned compressorId, 0 to 255.
+     */
+    public static Compressor getById(int id) {
+        return byId.get(id);
+    }
+
+    private static List<String> enabled() {
+        return List.of(networkMessageCompressors.get().split(","));
+    }
+
+    /*
+     * returns the compressors requested by a client that this server has enabled, in the client's order.
+     */
+    public static List<String> negotiate(List<String> requested) {
+        List<String> enabled = enabled();
+        List<String> result = new ArrayList<>();
+        for (String name : requested) {
+            if (enabled.contains(name) && byName.containsKey(name)) {
+                result.add(name);
+            }
+        }
+        return result;
+    }
+
+    /*
+     * reads the OP_COMPRESSED fields following the header and inflates the original message (without its
+     * header) into a pooled heap buffer, so that bson documents can still be wrapped in place.
+     * The original opCode has to be peeked by the caller beforehand. As mongod does, only compressors
+     * enabled in networkMessageCompressors are accepted, whether registered or not.
+     */
+    public static ByteBuf decompress(ByteBufAllocator alloc, ByteBuf in) throws IOException {
+        final int originalOpcode = in.readIntLE();
+        final int uncompressedSize = in.readIntLE();
+        final int compressorId = in.readUnsignedByte();
+        if (uncompressedSize < 0 || uncompressedSize > MAX_MESSAGE_SIZE_BYTES) {
+            throw new IOException("invalid uncompressedSize " + uncompressedSize);
+        }
+        if (originalOpcode == OpCode.OP_COMPRESSED.getId()) {
+            throw new IOException("nested OP_COMPRESSED");
+        }
+        Compressor c = getById(compressorId);
+        if (c == null) {
+            throw new IOException("unknown compressorId " + compressorId);
+        }
+        if (!enabled().contains(c.getName())) {
+            throw new IOException("compressor " + c.getName() + " is not enabled");
+        }
+        ByteBuf out = alloc.heapBuffer(uncompressedSize, uncompressedSize);
+        try {
+            c.decompress(in, out, uncompressedSize);
+        } catch (IOException | RuntimeException e) {
+            out.release();
+            throw e;
+        }
+        return out;
+    }
+
+    /*
+     * wraps a complete message into OP_COMPRESSED with compressor c if it is larger than
+     * compressionThresholdBytes. Ownership of message is transferred, the result may be message itself.
+     */
+    public static ByteBuf compress(ByteBufAllocator alloc, ByteBuf message, Compressor c) throws IOException {
+        int start = message.readerIndex();
+        int len = message.readableBytes();
+        if (len < compressionThresholdBytes.get()) {
+            return message;
+        }
+        ByteBuf out = alloc.directBuffer(MSG_HEADER_LENGTH + 9 + len / 2);
+        try {
+            out.writeIntLE(0); // write length later
+            out.writeIntLE(message.getIntLE(start + 4)); // requestID
+            out.writeIntLE(message.getIntLE(start + 8)); // responseTo
+            out.writeIntLE(OpCode.OP_COMPRESSED.getId());
+            out.writeIntLE(message.getIntLE(start + 12)); // originalOpcode
+            out.writeIntLE(len - MSG_HEADER_LENGTH);
+            out.writeByte(c.getId());
+            c.compress(message.slice(start + MSG_HEADER_LENGTH, len - MSG_HEADER_LENGTH), out);
+            out.setIntLE(0, out.writerIndex());
+        } catch (IOException | RuntimeException e) {
+            out.release();
+            throw e;
+        } finally {
+            message.release();
+        }
+        return out;
+    }
+}
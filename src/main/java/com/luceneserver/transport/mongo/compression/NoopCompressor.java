@@ -0,0 +1,32 @@
+package com.luceneserver.transport.mongo.compression;
+
+import io.netty.buffer.ByteBuf;
+
+import java.io.IOException;
+
+public class NoopCompressor implements Compressor {
+    public static final byte ID = 0;
+
+    @Override
+    public String getName() {
+        return "noop";
+    }
+
+    @Override
+    public byte getId() {
+        return ID;
+    }
+
+    @Override
+    public void compress(ByteBuf source, ByteBuf target) {
+        target.writeBytes(source);
+    }
+
+    @Override
+    public void decompress(ByteBuf source, ByteBuf target, int uncompressedSize) throws IOException {
+        if (source.readableBytes() != uncompressedSize) {
+            throw new IOException("noop payload of " + source.readableBytes() + " bytes, expected " + uncompressedSize);
+        }
+        target.writeBytes(source);
+    }
+}
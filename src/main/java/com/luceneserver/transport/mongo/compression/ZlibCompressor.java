@@ -0,0 +1,87 @@
+package com.luceneserver.transport.mongo.compression;
+
+import com.luceneserver.utils.ServerParameter;
+import io.netty.buffer.ByteBuf;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/*
+ * zlib through the JDK. Deflater/Inflater work on the nio views of the ByteBufs, so neither direction
+ * copies the payload into an intermediate array.
+ */
+public class ZlibCompressor implements Compressor {
+    public static final byte ID = 2;
+
+    private static final ServerParameter<Integer> zlibCompressionLevel =
+            new ServerParameter<>("zlibCompressionLevel", 6, true) {
+                @Override
+                public void validate(Integer level) {
+                    if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+                        throw new IllegalArgumentException("zlibCompressionLevel must be in [-1, 9], got " + level);
+                    }
+                }
+            };
+
+    @Override
+    public String getName() {
+        return "zlib";
+    }
+
+    @Override
+    public byte getId() {
+        return ID;
+    }
+
+    @Override
+    public void compress(ByteBuf source, ByteBuf target) {
+        int len = source.readableBytes();
+        // compressBound() of zlib
+        target.ensureWritable(len + (len >> 12) + (len >> 14) + (len >> 25) + 13);
+        Deflater deflater = new Deflater(zlibCompressionLevel.get());
+        try {
+            deflater.setInput(source.nioBuffer(source.readerIndex(), len));
+            deflater.finish();
+            ByteBuffer out = target.nioBuffer(target.writerIndex(), target.writableBytes());
+            while (!deflater.finished()) {
+                int n = deflater.deflate(out);
+                target.writerIndex(target.writerIndex() + n);
+                if (n == 0 && !out.hasRemaining()) {
+                    target.ensureWritable((len >> 4) + 64);
+                    out = target.nioBuffer(target.writerIndex(), target.writableBytes());
+                }
+            }
+            source.skipBytes(len);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    @Override
+    public void decompress(ByteBuf source, ByteBuf target, int uncompressedSize) throws IOException {
+        target.ensureWritable(uncompressedSize);
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(source.nioBuffer(source.readerIndex(), source.readableBytes()));
+            ByteBuffer out = target.nioBuffer(target.writerIndex(), uncompressedSize);
+            while (!inflater.finished()) {
+                int n = inflater.inflate(out);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary() || !out.hasRemaining())) {
+                    break;
+                }
+            }
+            if (!inflater.finished() || out.hasRemaining()) {
+                throw new IOException("zlib payload does not inflate to " + uncompressedSize + " bytes");
+            }
+            target.writerIndex(target.writerIndex() + uncompressedSize);
+            source.skipBytes(source.readableBytes());
+        } catch (DataFormatException e) {
+            throw new IOException("invalid zlib payload: " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.luceneserver.utils;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * a monotonic counter registered in Metrics, cheap to bump from many threads at once.
+ */
+public class Counter {
+    private final LongAdder value = new LongAdder();
+
+    public Counter(String name) {
+        Metrics.register(name, this::get);
+    }
+
+    public void increment() {
+        value.increment();
+    }
+
+    public void add(long n) {
+        value.add(n);
+    }
+
+    public long get() {
+        return value.sum();
+    }
+}
@@ -0,0 +1,32 @@
+package com.luceneserver.utils;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/*
+ * process-wide registry of named metrics, reported by serverStatus. Like ServerParameters, metrics are
+ * declared as static fields of the class they belong to, and names are dot-separated, e.g.
+ * "search.parallel".
+ */
+public class Metrics {
+    private final static ConcurrentHashMap<String, LongSupplier> allMetrics = new ConcurrentHashMap<>();
+
+    public static void register(String name, LongSupplier value) {
+        if (allMetrics.putIfAbsent(name, value) != null) {
+            throw new IllegalArgumentException(name + " already exists in metrics");
+        }
+    }
+
+    /*
+     * current values of all metrics, sorted by name.
+     */
+    public static Map<String, Long> snapshot() {
+        TreeMap<String, Long> result = new TreeMap<>();
+        for (Map.Entry<String, LongSupplier> entry : allMetrics.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().getAsLong());
+        }
+        return result;
+    }
+}
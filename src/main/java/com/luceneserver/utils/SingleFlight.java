@@ -0,0 +1,94 @@
+package com.luceneserver.utils;
+
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BooleanSupplier;
+
+/*
+ * coalesces concurrent calls for the same key: the first caller runs the call, callers arriving while it
+ * is in flight wait for it and share its result, or its exception. Nothing is kept once the call
+ * returns, a later caller runs it again.
+ */
+public class SingleFlight<K, V> {
+    public interface Call<V> {
+        V call() throws IOException;
+    }
+
+    // how often a waiting caller checks whether it was cancelled
+    private static final long CANCELLATION_CHECK_MILLIS = 10;
+
+    private final ConcurrentHashMap<K, CompletableFuture<V>> inflight = new ConcurrentHashMap<>();
+    private final Counter executions;
+    private final Counter coalesced;
+
+    /*
+     * executions counts the calls which ran, coalesced the ones which shared the result of another.
+     */
+    public SingleFlight(Counter executions, Counter coalesced) {
+        this.executions = executions;
+        this.coalesced = coalesced;
+    }
+
+    public V run(K key, Call<V> call) throws IOException {
+        return run(key, call, null);
+    }
+
+    /*
+     * like run(key, call), a caller waiting for another one gives up with a CancellationException once
+     * cancelled, which may be null, returns true.
+     */
+    public V run(K key, Call<V> call, BooleanSupplier cancelled) throws IOException {
+        final CompletableFuture<V> mine = new CompletableFuture<>();
+        final CompletableFuture<V> leader = inflight.putIfAbsent(key, mine);
+        if (leader != null) {
+            coalesced.increment();
+            return await(leader, cancelled);
+        }
+        executions.increment();
+        try {
+            V result = call.call();
+            mine.complete(result);
+            return result;
+        } catch (IOException | RuntimeException | Error e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inflight.remove(key, mine);
+        }
+    }
+
+    private static <V> V await(CompletableFuture<V> leader, BooleanSupplier cancelled) throws IOException {
+        try {
+            if (cancelled == null) {
+                return leader.get();
+            }
+            while (true) {
+                try {
+                    return leader.get(CANCELLATION_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    if (cancelled.getAsBoolean()) {
+                        throw new CancellationException("cancelled while waiting for a coalesced call");
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while waiting for a coalesced call", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+}
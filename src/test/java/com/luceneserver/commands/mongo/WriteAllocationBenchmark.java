@@ -0,0 +1,117 @@
+package com.luceneserver.commands.mongo;
+
+import com.luceneserver.storage.IndexingThreadPool;
+import com.luceneserver.storage.SearchIndexAccess;
+import com.luceneserver.storage.WriteBatch;
+import com.luceneserver.utils.ServerParameter;
+import org.apache.lucene.index.ConcurrentMergeScheduler;
+import org.bson.BsonBoolean;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * bytes allocated per ingested document of a search index, decoding the op from raw bson included, as
+ * counted by the JVM for the thread applying the batches. Not a unit test, run it by hand:
+ *   java -cp target/classes:target/test-classes:<deps> com.luceneserver.commands.mongo.WriteAllocationBenchmark \\
+ *       [docs] [fields]
+ */
+public class WriteAllocationBenchmark {
+    private static final int BATCH_SIZE = 1000;
+
+    public static void main(String[] args) throws Exception {
+        final int numDocs = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        final int numFields = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        IndexingThreadPool.loadClass();
+        // every op on this thread, which is the one measured
+        ServerParameter.load(Map.of("ingestParallelism", 1));
+        final List<RawBsonDocument> ops = rawOps(numDocs, numFields);
+        final com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        final Path dir = Files.createTempDirectory("write-allocation-benchmark");
+        SearchIndexAccess.SearchConfig cfg = new SearchIndexAccess.SearchConfig();
+        cfg.defaultAnalyzer = "lucene.standard";
+        cfg.perFieldAnalyzer = new HashMap<>();
+        SearchIndexAccess ia = SearchIndexAccess.createInstance(
+                dir, Clock.systemUTC(), cfg, new ConcurrentMergeScheduler(), 1024, 256);
+        try {
+            // the first pass warms up, the second is measured
+            for (int pass = 0; pass < 2; pass++) {
+                final long threadId = Thread.currentThread().getId();
+                long parseBytes = threads.getThreadAllocatedBytes(threadId);
+                for (RawBsonDocument op : ops) {
+                    CmdBatchWrite.parseSearchOp(op);
+                }
+                parseBytes = threads.getThreadAllocatedBytes(threadId) - parseBytes;
+
+                final long start = System.nanoTime();
+                long totalBytes = threads.getThreadAllocatedBytes(threadId);
+                for (int from = 0; from < ops.size(); from += BATCH_SIZE) {
+                    final List<RawBsonDocument> slice = ops.subList(from, Math.min(from + BATCH_SIZE, ops.size()));
+                    WriteBatch batch = new WriteBatch();
+                    batch.ops = () -> new Iterator<WriteBatch.Op>() {
+                        private final Iterator<RawBsonDocument> it = slice.iterator();
+
+                        @Override
+                        public boolean hasNext() {
+                            return it.hasNext();
+                        }
+
+                        @Override
+                        public WriteBatch.Op next() {
+                            RawBsonDocument d = it.next();
+                            WriteBatch.Op op = CmdBatchWrite.parseSearchOp(d);
+                            op.op = "u";
+                            op.id = d.getString("id").getValue();
+                            return op;
+                        }
+                    };
+                    ia.batchWrite(batch);
+                }
+                totalBytes = threads.getThreadAllocatedBytes(threadId) - totalBytes;
+                final double seconds = (System.nanoTime() - start) / 1e9;
+                System.out.printf("pass %d: decode %6d bytes/doc, decode and index %6d bytes/doc, %8.0f docs/s%n",
+                        pass, parseBytes / numDocs, totalBytes / numDocs, numDocs / seconds);
+            }
+        } finally {
+            ia.commitAndRefreshReader();
+            IndexingThreadPool.shutdown();
+            try (var files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+            }
+        }
+    }
+
+    private static List<RawBsonDocument> rawOps(int numDocs, int numFields) {
+        final BsonDocument options = new BsonDocument()
+                .append("indexOptions", new BsonString("positions"))
+                .append("norms", new BsonString("include"))
+                .append("store", BsonBoolean.FALSE);
+        final List<RawBsonDocument> ops = new ArrayList<>(numDocs);
+        for (int i = 0; i < numDocs; i++) {
+            BsonDocument d = new BsonDocument()
+                    .append("op", new BsonString("u"))
+                    .append("id", new BsonString("d" + i));
+            for (int f = 0; f < numFields; f++) {
+                d.append("field" + f, new BsonDocument()
+                        .append("data", new BsonString("lorem ipsum dolor " + (i % 1000) + " sit amet " + f))
+                        .append("options", options));
+            }
+            ops.add(new RawBsonDocument(d, new BsonDocumentCodec()));
+        }
+        return ops;
+    }
+}
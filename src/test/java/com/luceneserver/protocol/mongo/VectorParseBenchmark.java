@@ -0,0 +1,117 @@
+package com.luceneserver.protocol.mongo;
+
+import org.bson.BsonArray;
+import org.bson.BsonBinary;
+import org.bson.BsonBinarySubType;
+import org.bson.BsonDocument;
+import org.bson.BsonDouble;
+import org.bson.BsonValue;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.ToIntFunction;
+
+/*
+ * time and bytes allocated to decode one vector out of a raw request, for an array of doubles read
+ * through the generic BsonValue api, the same array read by BsonVectors, and the packed float32 and int8
+ * binary forms read by BsonVectors. Not a unit test, run it by hand:
+ *   java -cp target/classes:target/test-classes:<deps> com.luceneserver.protocol.mongo.VectorParseBenchmark \
+ *       [dimensions] [vectors]
+ */
+public class VectorParseBenchmark {
+    private static final String KEY = "vector";
+
+    public static void main(String[] args) {
+        final int dimensions = args.length > 0 ? Integer.parseInt(args[0]) : 768;
+        final int numVectors = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+        final Random random = new Random(0);
+        final List<RawBsonDocument> arrays = new ArrayList<>(numVectors);
+        final List<RawBsonDocument> floats = new ArrayList<>(numVectors);
+        final List<RawBsonDocument> bytes = new ArrayList<>(numVectors);
+        for (int i = 0; i < numVectors; i++) {
+            final float[] v = new float[dimensions];
+            final byte[] b = new byte[dimensions];
+            for (int d = 0; d < dimensions; d++) {
+                v[d] = random.nextFloat() * 2 - 1;
+                b[d] = (byte) (random.nextInt(256) - 128);
+            }
+            arrays.add(raw(array(v)));
+            floats.add(raw(packed(v)));
+            bytes.add(raw(packed(b)));
+        }
+
+        // the first pass warms up, the second is measured
+        for (int pass = 0; pass < 2; pass++) {
+            final boolean print = pass == 1;
+            measure(print, "array, BsonValue", arrays, VectorParseBenchmark::readGeneric);
+            measure(print, "array, BsonVectors", arrays, doc -> BsonVectors.read(doc, KEY).dimensions());
+            measure(print, "float32 binary, BsonVectors", floats, doc -> BsonVectors.read(doc, KEY).dimensions());
+            measure(print, "int8 binary, BsonVectors", bytes, doc -> BsonVectors.read(doc, KEY).dimensions());
+        }
+    }
+
+    private static void measure(boolean print, String name, List<RawBsonDocument> docs,
+                                ToIntFunction<RawBsonDocument> parse) {
+        final com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final long threadId = Thread.currentThread().getId();
+        long sink = 0;
+        final long bytesBefore = threads.getThreadAllocatedBytes(threadId);
+        final long start = System.nanoTime();
+        for (RawBsonDocument doc : docs) {
+            sink += parse.applyAsInt(doc);
+        }
+        final long nanos = System.nanoTime() - start;
+        final long allocated = threads.getThreadAllocatedBytes(threadId) - bytesBefore;
+        if (print) {
+            System.out.printf("%-30s %8.2f us/vector %10d bytes/vector (%d)%n", name,
+                    nanos / 1e3 / docs.size(), allocated / docs.size(), sink);
+        }
+    }
+
+    /*
+     * what decoding a vector costs without BsonVectors: a BsonDouble per element.
+     */
+    private static int readGeneric(RawBsonDocument doc) {
+        final BsonArray array = doc.getArray(KEY);
+        final float[] vec = new float[array.size()];
+        int j = 0;
+        for (BsonValue e : array) {
+            vec[j++] = (float) e.asNumber().doubleValue();
+        }
+        return vec.length;
+    }
+
+    private static BsonValue array(float[] v) {
+        final List<BsonValue> values = new ArrayList<>(v.length);
+        for (float f : v) {
+            values.add(new BsonDouble(f));
+        }
+        return new BsonArray(values);
+    }
+
+    private static BsonValue packed(float[] v) {
+        final ByteBuffer buf = ByteBuffer.allocate(2 + 4 * v.length).order(ByteOrder.LITTLE_ENDIAN);
+        buf.put(BsonVectors.DTYPE_FLOAT32).put((byte) 0);
+        for (float f : v) {
+            buf.putFloat(f);
+        }
+        return new BsonBinary(BsonBinarySubType.VECTOR, buf.array());
+    }
+
+    private static BsonValue packed(byte[] v) {
+        final ByteBuffer buf = ByteBuffer.allocate(2 + v.length);
+        buf.put(BsonVectors.DTYPE_INT8).put((byte) 0).put(v);
+        return new BsonBinary(BsonBinarySubType.VECTOR, buf.array());
+    }
+
+    private static RawBsonDocument raw(BsonValue vector) {
+        return new RawBsonDocument(new BsonDocument(KEY, vector), new BsonDocumentCodec());
+    }
+}
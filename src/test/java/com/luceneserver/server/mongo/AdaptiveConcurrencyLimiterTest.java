@@ -0,0 +1,94 @@
+package com.luceneserver.server.mongo;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AdaptiveConcurrencyLimiterTest {
+    private static final long MILLIS = 1000000L;
+
+    /*
+     * keeps the limiter full and completes samples commands of rttNanos, one at a time.
+     */
+    private static void runSaturated(AdaptiveConcurrencyLimiter limiter, int samples, long rttNanos) {
+        while (limiter.tryAcquire()) {
+        }
+        for (int i = 0; i < samples; i++) {
+            limiter.release(rttNanos);
+            while (limiter.tryAcquire()) {
+            }
+        }
+    }
+
+    @Test
+    public void admitsUpToTheLimit() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 3, 10);
+        assertTrue(limiter.tryAcquire());
+        assertTrue(limiter.tryAcquire());
+        assertTrue(limiter.tryAcquire());
+        assertTrue(limiter.isSaturated());
+        assertFalse(limiter.tryAcquire());
+        assertEquals(3, limiter.getInflight());
+
+        limiter.release(-1);
+        assertFalse(limiter.isSaturated());
+        assertTrue(limiter.tryAcquire());
+    }
+
+    @Test
+    public void clampsTheInitialLimit() {
+        assertEquals(10, new AdaptiveConcurrencyLimiter(1, 100, 10).getLimit());
+        assertEquals(5, new AdaptiveConcurrencyLimiter(5, 1, 10).getLimit());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvalidBounds() {
+        new AdaptiveConcurrencyLimiter(10, 10, 5);
+    }
+
+    @Test
+    public void growsWhileLatencyIsFlat() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10, 100, 2000);
+        runSaturated(limiter, 50, 5 * MILLIS);
+        assertTrue("limit " + limiter.getLimit(), limiter.getLimit() > 100);
+
+        runSaturated(limiter, 5000, 5 * MILLIS);
+        assertEquals(2000, limiter.getLimit());
+    }
+
+    @Test
+    public void shrinksWhenLatencyRises() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10, 100, 2000);
+        runSaturated(limiter, 200, 5 * MILLIS);
+        final int before = limiter.getLimit();
+        runSaturated(limiter, 20, 50 * MILLIS);
+        assertTrue("limit " + limiter.getLimit() + " was " + before, limiter.getLimit() < before);
+
+        runSaturated(limiter, 150, 500 * MILLIS);
+        assertEquals(10, limiter.getLimit());
+    }
+
+    @Test
+    public void ignoresSamplesOfAnUnderusedLimit() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10, 100, 2000);
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(limiter.tryAcquire());
+            limiter.release(i % 2 == 0 ? 5 * MILLIS : 500 * MILLIS);
+        }
+        assertEquals(100, limiter.getLimit());
+    }
+
+    @Test
+    public void doesNotSampleCommandsWhichDidNotRun() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10, 100, 2000);
+        while (limiter.tryAcquire()) {
+        }
+        for (int i = 0; i < 100; i++) {
+            limiter.release(-1);
+            assertTrue(limiter.tryAcquire());
+        }
+        assertEquals(100, limiter.getLimit());
+    }
+}
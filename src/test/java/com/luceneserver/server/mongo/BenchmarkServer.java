@@ -0,0 +1,67 @@
+package com.luceneserver.server.mongo;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+
+/*
+ * a server started through MongoServer.main in this JVM, with the given config less its host, port and
+ * dataDir, for the hand-run benchmarks of this package. Server state is static, so there is one per JVM.
+ */
+class BenchmarkServer {
+    static final String HOST = "127.0.0.1";
+
+    private final Path dataDir;
+    private final int port;
+
+    BenchmarkServer(int port, String config) throws IOException {
+        this.port = port;
+        dataDir = Files.createTempDirectory("benchmark-server");
+        final Path configFile = dataDir.resolve("cfg.yaml");
+        Files.writeString(configFile, "host: " + HOST + "\nport: " + port + "\ndataDir: " + dataDir.resolve("data")
+                + "\n" + config);
+        Files.createDirectories(dataDir.resolve("data"));
+        System.setProperty("configFile", configFile.toString());
+        Thread main = new Thread(() -> {
+            try {
+                MongoServer.main(new String[0]);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }, "benchmark-server");
+        main.setDaemon(true);
+        main.start();
+        awaitListening();
+    }
+
+    private void awaitListening() throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            try (SocketChannel ignored = SocketChannel.open(new InetSocketAddress(HOST, port))) {
+                return;
+            } catch (IOException e) {
+                if (attempt == 100) {
+                    throw e;
+                }
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException ie) {
+                    throw new IOException(ie);
+                }
+            }
+        }
+    }
+
+    InetSocketAddress getAddress() {
+        return new InetSocketAddress(HOST, port);
+    }
+
+    void stop() throws IOException {
+        MongoServer.getInstance().shutdown();
+        try (var files = Files.walk(dataDir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.luceneserver.server.mongo;
+
+import com.luceneserver.commands.mongo.ExecutionLane;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LaneExecutorTest {
+    private LaneExecutor lane;
+    private LaneExecutor otherLane;
+
+    private static MessageProcessor.LaneConfig config(int minConcurrency, int initialConcurrency, int maxConcurrency) {
+        MessageProcessor.LaneConfig cfg = new MessageProcessor.LaneConfig();
+        cfg.minPoolSize = 1;
+        cfg.maxPoolSize = 1;
+        cfg.minConcurrency = minConcurrency;
+        cfg.initialConcurrency = initialConcurrency;
+        cfg.maxConcurrency = maxConcurrency;
+        return cfg;
+    }
+
+    @After
+    public void tearDown() {
+        lane.shutdownNow();
+        if (otherLane != null) {
+            otherLane.shutdownNow();
+        }
+    }
+
+    @Test
+    public void resumesAtLimitOneOnceIdle() {
+        lane = new LaneExecutor(ExecutionLane.ADMIN, config(1, 1, 1));
+        EmbeddedChannel channel = new EmbeddedChannel();
+        assertTrue(lane.tryAcquire());
+        assertTrue(lane.isSaturated());
+        lane.pauseReading(channel);
+        assertFalse(channel.config().isAutoRead());
+
+        lane.release(-1);
+        assertTrue(channel.config().isAutoRead());
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    public void resumesBelowThreeQuartersOfTheLimit() {
+        lane = new LaneExecutor(ExecutionLane.READ, config(1, 4, 4));
+        EmbeddedChannel channel = new EmbeddedChannel();
+        for (int i = 0; i < 4; i++) {
+            assertTrue(lane.tryAcquire());
+        }
+        lane.pauseReading(channel);
+        assertFalse(channel.config().isAutoRead());
+
+        lane.release(-1);
+        assertFalse(channel.config().isAutoRead());
+        lane.release(-1);
+        assertTrue(channel.config().isAutoRead());
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    public void onlyThePausingLaneResumes() {
+        lane = new LaneExecutor(ExecutionLane.WRITE, config(1, 1, 1));
+        otherLane = new LaneExecutor(ExecutionLane.READ, config(1, 1, 1));
+        EmbeddedChannel channel = new EmbeddedChannel();
+        assertTrue(lane.tryAcquire());
+        lane.pauseReading(channel);
+        assertFalse(channel.config().isAutoRead());
+        assertEquals(ExecutionLane.WRITE, channel.attr(LaneExecutor.PAUSED_BY).get());
+
+        // the read lane has headroom, yet the connection stays paused by the write lane
+        assertTrue(otherLane.tryAcquire());
+        otherLane.pauseReading(channel);
+        otherLane.release(-1);
+        assertFalse(channel.config().isAutoRead());
+        assertEquals(ExecutionLane.WRITE, channel.attr(LaneExecutor.PAUSED_BY).get());
+
+        lane.release(-1);
+        assertTrue(channel.config().isAutoRead());
+        assertNull(channel.attr(LaneExecutor.PAUSED_BY).get());
+        channel.finishAndReleaseAll();
+    }
+}
@@ -0,0 +1,124 @@
+package com.luceneserver.server.mongo;
+
+import org.bson.BsonArray;
+import org.bson.BsonBoolean;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonString;
+import org.bson.RawBsonDocument;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/*
+ * latency percentiles of autoCommit batchWrites of one document, which wait for a commit and its fsync,
+ * from many connections at once, each sending its next write once the previous one is answered. The
+ * server runs in this JVM with the given executorMode, start a JVM per mode to compare them. Not a unit
+ * test, run it by hand:
+ *   java -cp target/classes:target/test-classes:<deps> com.luceneserver.server.mongo.LaneLatencyBenchmark \
+ *       [platform|virtual] [connections] [writesPerConnection] [maxPoolSize]
+ */
+public class LaneLatencyBenchmark {
+    private static final int PORT = 27991;
+
+    public static void main(String[] args) throws Exception {
+        final String mode = args.length > 0 ? args[0] : MessageProcessor.EXECUTOR_MODE_PLATFORM;
+        final int connections = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+        final int writes = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        final int maxPoolSize = args.length > 3 ? Integer.parseInt(args[3]) : 1000;
+        // every write is admitted, what is measured is how the lane runs them. A permit is given back after
+        // the reply is sent, so a connection's next write may briefly hold a second one
+        final int admitted = 2 * connections;
+        final BenchmarkServer server = new BenchmarkServer(PORT, "transport:\n  backlog: 4096\n"
+                + "messageProcessor:\n"
+                + "  executorMode: " + mode + "\n"
+                + "  maxPoolSize: " + maxPoolSize + "\n"
+                + "  maxQueueSize: " + admitted + "\n"
+                + "  minConcurrency: " + admitted + "\n"
+                + "  initialConcurrency: " + admitted + "\n"
+                + "  maxConcurrency: " + admitted + "\n"
+                + "setParameters: {}\n");
+        try (WireClient admin = new WireClient(server.getAddress())) {
+            check(admin.run(new BsonDocument("createSearchIndex", new BsonInt32(1))
+                    .append("name", new BsonString("bench"))
+                    .append("defaultAnalyzer", new BsonString("lucene.standard"))
+                    .append("perFieldAnalyzer", new BsonDocument())));
+        }
+
+        final long[][] latencies = new long[connections][writes];
+        final AtomicLong failures = new AtomicLong();
+        final AtomicReference<String> firstFailure = new AtomicReference<>();
+        final CountDownLatch connected = new CountDownLatch(connections);
+        final CountDownLatch go = new CountDownLatch(1);
+        final List<Thread> clients = new ArrayList<>(connections);
+        for (int c = 0; c < connections; c++) {
+            final int client = c;
+            clients.add(Thread.ofVirtual().start(() -> {
+                try (WireClient wire = new WireClient(server.getAddress())) {
+                    connected.countDown();
+                    go.await();
+                    for (int i = 0; i < writes; i++) {
+                        final long start = System.nanoTime();
+                        RawBsonDocument reply = wire.run(write(client + "-" + i));
+                        latencies[client][i] = System.nanoTime() - start;
+                        if (reply.getNumber("ok").intValue() != 1) {
+                            failures.incrementAndGet();
+                            firstFailure.compareAndSet(null, reply.toJson());
+                        }
+                    }
+                } catch (IOException | InterruptedException e) {
+                    failures.incrementAndGet();
+                    firstFailure.compareAndSet(null, e.toString());
+                    connected.countDown();
+                }
+            }));
+        }
+        connected.await();
+        final long start = System.nanoTime();
+        go.countDown();
+        for (Thread client : clients) {
+            client.join();
+        }
+        final double seconds = (System.nanoTime() - start) / 1e9;
+
+        final long[] all = Arrays.stream(latencies).flatMapToLong(Arrays::stream).sorted().toArray();
+        System.out.printf("%s, %d connections, maxPoolSize %d: %.0f writes/s, p50 %.1f ms, p99 %.1f ms,"
+                        + " p99.9 %.1f ms, max %.1f ms, %d failed%n",
+                mode, connections, maxPoolSize, all.length / seconds, percentile(all, 0.5), percentile(all, 0.99),
+                percentile(all, 0.999), all[all.length - 1] / 1e6, failures.get());
+        if (firstFailure.get() != null) {
+            System.out.println("first failure: " + firstFailure.get());
+        }
+        server.stop();
+    }
+
+    private static BsonDocument write(String id) {
+        return new BsonDocument("batchWrite", new BsonInt32(1))
+                .append("indexName", new BsonString("bench"))
+                .append("autoCommit", BsonBoolean.TRUE)
+                .append("ops", new BsonArray(List.of(new BsonDocument()
+                        .append("op", new BsonString("u"))
+                        .append("id", new BsonString(id))
+                        .append("title", new BsonDocument()
+                                .append("data", new BsonString("lorem ipsum " + id))
+                                .append("options", new BsonDocument()
+                                        .append("indexOptions", new BsonString("docs"))
+                                        .append("norms", new BsonString("omit"))
+                                        .append("store", BsonBoolean.FALSE))))));
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * p))] / 1e6;
+    }
+
+    private static void check(RawBsonDocument reply) {
+        if (reply.getNumber("ok").intValue() != 1) {
+            throw new IllegalStateException(reply.toJson());
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.luceneserver.server.mongo;
+
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.net.UnixDomainSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/*
+ * round trip latency of isMaster, which runs inline on the event loop, over loopback tcp and, with the
+ * native transport, over a unix domain socket. One command at a time on one connection, so what is
+ * measured is the transport and not the lanes. Start a JVM per transport to compare them. Not a unit
+ * test, run it by hand:
+ *   java -cp target/classes:target/test-classes:<deps> com.luceneserver.server.mongo.LoopbackLatencyBenchmark \
+ *       [nio|epoll] [requests]
+ */
+public class LoopbackLatencyBenchmark {
+    private static final int PORT = 27992;
+    private static final int WARMUP = 20000;
+
+    public static void main(String[] args) throws Exception {
+        final boolean epoll = args.length > 0 && args[0].equals("epoll");
+        final int requests = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+        final Path socketDir = Files.createTempDirectory("benchmark-socket");
+        final Path socket = socketDir.resolve("lucene-server.sock");
+        final BenchmarkServer server = new BenchmarkServer(PORT, "transport:\n"
+                + "  nativeTransport: " + epoll + "\n"
+                + (epoll ? "  unixDomainSocketPath: " + socket + "\n" : "")
+                + "messageProcessor: {}\n"
+                + "setParameters: {}\n");
+        try {
+            run(epoll ? "epoll tcp" : "nio tcp", server.getAddress(), requests);
+            if (epoll) {
+                run("epoll unix socket", UnixDomainSocketAddress.of(socket), requests);
+            }
+        } finally {
+            server.stop();
+            Files.deleteIfExists(socket);
+            Files.deleteIfExists(socketDir);
+        }
+    }
+
+    private static void run(String name, SocketAddress address, int requests) throws IOException {
+        final BsonDocument isMaster = new BsonDocument("isMaster", new BsonInt32(1));
+        final long[] latencies = new long[requests];
+        try (WireClient client = new WireClient(address)) {
+            for (int i = 0; i < WARMUP; i++) {
+                client.run(isMaster);
+            }
+            for (int i = 0; i < requests; i++) {
+                final long start = System.nanoTime();
+                client.run(isMaster);
+                latencies[i] = System.nanoTime() - start;
+            }
+        }
+        Arrays.sort(latencies);
+        System.out.printf("%s: %d requests, p50 %.1f us, p99 %.1f us, p99.9 %.1f us, mean %.1f us%n",
+                name, requests, percentile(latencies, 0.5), percentile(latencies, 0.99),
+                percentile(latencies, 0.999), Arrays.stream(latencies).average().orElse(0) / 1e3);
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * p))] / 1e3;
+    }
+}
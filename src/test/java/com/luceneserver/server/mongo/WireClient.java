@@ -0,0 +1,66 @@
+package com.luceneserver.server.mongo;
+
+import com.luceneserver.protocol.mongo.MongoMessage;
+import com.luceneserver.protocol.mongo.OpCode;
+import org.bson.BsonDocument;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SocketChannel;
+
+/*
+ * a blocking OP_MSG client over a tcp or unix domain socket, one command at a time, for the hand-run
+ * benchmarks of this package. Replies are expected uncompressed and without a checksum.
+ */
+class WireClient implements Closeable {
+    private final SocketChannel channel;
+    private final ByteBuffer header = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+    private int nextRequestId = 1;
+
+    WireClient(SocketAddress address) throws IOException {
+        channel = SocketChannel.open(address);
+    }
+
+    /*
+     * sends command and returns the body of its reply.
+     */
+    RawBsonDocument run(BsonDocument command) throws IOException {
+        final ByteBuffer bson = new RawBsonDocument(command, new BsonDocumentCodec()).getByteBuffer().asNIO();
+        final int length = 16 + 4 + 1 + bson.remaining();
+        final ByteBuffer request = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        request.putInt(length).putInt(nextRequestId++).putInt(0).putInt(OpCode.OP_MSG.getId());
+        request.putInt(0);
+        request.put((byte) MongoMessage.SECTION_KIND_BODY);
+        request.put(bson);
+        request.flip();
+        while (request.hasRemaining()) {
+            channel.write(request);
+        }
+
+        header.clear();
+        readFully(header);
+        final ByteBuffer reply = ByteBuffer.allocate(header.getInt(0) - 4).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(reply);
+        // requestID, responseTo, opCode, flagBits and the section kind
+        return new RawBsonDocument(reply.array(), 17, reply.getInt(17));
+    }
+
+    private void readFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("connection closed by the server");
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,181 @@
+package com.luceneserver.storage;
+
+import com.luceneserver.utils.ServerParameter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class GroupCommitterTest {
+    private final ExecutorService pool = Executors.newCachedThreadPool();
+
+    @Before
+    public void setUp() {
+        GroupCommitter.loadClass();
+    }
+
+    @After
+    public void tearDown() {
+        pool.shutdownNow();
+        ServerParameter.load(Map.of("groupCommitWindowMillis", 1));
+    }
+
+    private static void setWindow(int millis) {
+        ServerParameter.load(Map.of("groupCommitWindowMillis", millis));
+    }
+
+    private static Map<String, Long> stats(GroupCommitter committer) {
+        Map<String, Long> stats = new HashMap<>();
+        committer.addStats(stats);
+        return stats;
+    }
+
+    private List<Future<?>> commitConcurrently(GroupCommitter committer, int batches) {
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> results = new ArrayList<>();
+        for (int i = 0; i < batches; i++) {
+            results.add(pool.submit(() -> {
+                start.await();
+                committer.commit();
+                return null;
+            }));
+        }
+        start.countDown();
+        return results;
+    }
+
+    /*
+     * waits until n batches asked the committer for a commit.
+     */
+    private static void awaitBatches(GroupCommitter committer, long n) throws InterruptedException {
+        while (stats(committer).get("groupCommitBatches") < n) {
+            Thread.sleep(1);
+        }
+    }
+
+    @Test
+    public void commitsALoneBatch() throws IOException {
+        setWindow(0);
+        final AtomicInteger runs = new AtomicInteger();
+        GroupCommitter committer = new GroupCommitter(runs::incrementAndGet);
+        committer.commit();
+        committer.commit();
+        assertEquals(2, runs.get());
+        assertEquals(2L, (long) stats(committer).get("groupCommits"));
+        assertEquals(2L, (long) stats(committer).get("groupCommitBatches"));
+    }
+
+    @Test(timeout = 10000)
+    public void groupsTheBatchesOfTheWindow() throws Exception {
+        setWindow(500);
+        final AtomicInteger runs = new AtomicInteger();
+        GroupCommitter committer = new GroupCommitter(runs::incrementAndGet);
+        for (Future<?> f : commitConcurrently(committer, 8)) {
+            f.get();
+        }
+        assertEquals(1, runs.get());
+        assertEquals(8L, (long) stats(committer).get("groupCommitBatches"));
+    }
+
+    /*
+     * batches asking while a commit runs are not covered by it, they form the next group, which commits
+     * once for all of them.
+     */
+    @Test(timeout = 10000)
+    public void batchesArrivingDuringACommitFormTheNextGroup() throws Exception {
+        setWindow(0);
+        final CountDownLatch firstRunning = new CountDownLatch(1);
+        final CountDownLatch releaseFirst = new CountDownLatch(1);
+        final AtomicInteger runs = new AtomicInteger();
+        GroupCommitter committer = new GroupCommitter(() -> {
+            if (runs.incrementAndGet() == 1) {
+                firstRunning.countDown();
+                try {
+                    releaseFirst.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+        });
+        Future<?> first = pool.submit(() -> {
+            committer.commit();
+            return null;
+        });
+        firstRunning.await();
+        List<Future<?>> next = commitConcurrently(committer, 4);
+        awaitBatches(committer, 5);
+        // counted right before they lock, give them the time to get to wait for the running commit
+        Thread.sleep(100);
+        for (Future<?> f : next) {
+            assertFalse(f.isDone());
+        }
+
+        releaseFirst.countDown();
+        first.get();
+        for (Future<?> f : next) {
+            f.get();
+        }
+        assertEquals(2, runs.get());
+    }
+
+    @Test(timeout = 10000)
+    public void failureReachesTheWholeGroup() throws Exception {
+        setWindow(500);
+        final IOException failure = new IOException("disk full");
+        final AtomicInteger runs = new AtomicInteger();
+        GroupCommitter committer = new GroupCommitter(() -> {
+            if (runs.incrementAndGet() == 1) {
+                throw failure;
+            }
+        });
+        for (Future<?> f : commitConcurrently(committer, 4)) {
+            try {
+                f.get();
+                fail("expected the group commit to fail");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IOException);
+                assertSame(failure, e.getCause().getCause());
+            }
+        }
+        assertEquals(1, runs.get());
+
+        // the next group commits again
+        setWindow(0);
+        committer.commit();
+        assertEquals(2, runs.get());
+        assertEquals(1L, (long) stats(committer).get("groupCommits"));
+    }
+
+    @Test
+    public void runtimeFailureIsNotTakenForACommit() {
+        setWindow(0);
+        final IllegalStateException closed = new IllegalStateException("this IndexWriter is closed");
+        GroupCommitter committer = new GroupCommitter(() -> {
+            throw closed;
+        });
+        try {
+            committer.commit();
+            fail("expected the commit to fail");
+        } catch (IOException e) {
+            assertSame(closed, e.getCause().getCause());
+        }
+        assertEquals(0L, (long) stats(committer).get("groupCommits"));
+    }
+}
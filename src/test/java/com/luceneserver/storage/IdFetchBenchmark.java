@@ -0,0 +1,102 @@
+package com.luceneserver.storage;
+
+import org.apache.lucene.document.BinaryDocValuesField;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+
+/*
+ * time to resolve the ids of k hits spread over an index, with the ids in doc values and, as for indexes
+ * created before they were, in stored fields only. Documents carry a stored text field too, as documents
+ * stored for highlighting do, which stored fields decompress along with the id. Not a unit test, run it by
+ * hand:
+ *   java -cp target/classes:target/test-classes:<deps> com.luceneserver.storage.IdFetchBenchmark \
+ *       [docs] [queries]
+ */
+public class IdFetchBenchmark {
+    private static final int[] KS = {10, 100, 1000};
+
+    public static void main(String[] args) throws Exception {
+        final int numDocs = args.length > 0 ? Integer.parseInt(args[0]) : 500000;
+        final int queries = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        for (boolean docValues : new boolean[]{true, false}) {
+            final Path dir = Files.createTempDirectory("id-fetch-benchmark");
+            try (FSDirectory directory = FSDirectory.open(dir)) {
+                index(directory, numDocs, docValues);
+                try (DirectoryReader reader = DirectoryReader.open(directory)) {
+                    final IndexSearcher searcher = new IndexSearcher(reader);
+                    // the first pass warms up, the second is measured
+                    for (int pass = 0; pass < 2; pass++) {
+                        for (int k : KS) {
+                            final double micros = fetch(searcher, numDocs, k, queries);
+                            if (pass == 1) {
+                                System.out.printf("%-13s k=%-5d %9.1f us/query %7.3f us/hit%n",
+                                        docValues ? "doc values" : "stored fields", k, micros, micros / k);
+                            }
+                        }
+                    }
+                }
+            } finally {
+                try (var files = Files.walk(dir)) {
+                    files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+                }
+            }
+        }
+    }
+
+    private static void index(FSDirectory directory, int numDocs, boolean docValues) throws IOException {
+        final Random random = new Random(0);
+        final StringBuilder text = new StringBuilder();
+        try (IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig())) {
+            for (int i = 0; i < numDocs; i++) {
+                final String id = "doc-" + i;
+                Document doc = new Document();
+                doc.add(new StringField(IndexAccess.ID_FIELD, id, Field.Store.YES));
+                if (docValues) {
+                    doc.add(new BinaryDocValuesField(IndexAccess.ID_DOC_VALUES_FIELD, new BytesRef(id)));
+                }
+                text.setLength(0);
+                for (int w = 0; w < 40; w++) {
+                    text.append("w").append(random.nextInt(10000)).append(' ');
+                }
+                doc.add(new StoredField("title", text.toString()));
+                writer.addDocument(doc);
+            }
+            writer.commit();
+        }
+    }
+
+    private static double fetch(IndexSearcher searcher, int numDocs, int k, int queries) throws IOException {
+        final Random random = new Random(k);
+        long sink = 0;
+        final long start = System.nanoTime();
+        for (int q = 0; q < queries; q++) {
+            final ScoreDoc[] hits = new ScoreDoc[k];
+            for (int i = 0; i < k; i++) {
+                hits[i] = new ScoreDoc(random.nextInt(numDocs), 1f);
+            }
+            for (String id : IndexAccess.resolveIds(searcher, hits)) {
+                sink += id.length();
+            }
+        }
+        final double micros = (System.nanoTime() - start) / 1e3 / queries;
+        if (sink == 0) {
+            throw new IllegalStateException("no ids resolved");
+        }
+        return micros;
+    }
+}
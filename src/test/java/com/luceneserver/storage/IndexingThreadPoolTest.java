@@ -0,0 +1,149 @@
+package com.luceneserver.storage;
+
+import com.luceneserver.utils.ServerParameter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class IndexingThreadPoolTest {
+    private final AtomicLong seqNo = new AtomicLong();
+    // the versions applied per id, in the order they were applied
+    private final Map<String, List<Integer>> applied = new ConcurrentHashMap<>();
+
+    @Before
+    public void setUp() {
+        IndexingThreadPool.loadClass();
+        // more partitions than indexing threads and small queues, so the request thread applies some itself
+        ServerParameter.load(Map.of("ingestParallelism", 4, "parallelIngestMinOps", 10, "ingestPartitionQueueOps", 3));
+    }
+
+    @After
+    public void tearDown() {
+        int processors = Runtime.getRuntime().availableProcessors();
+        ServerParameter.load(Map.of("ingestParallelism", processors, "parallelIngestMinOps", 1000,
+                "ingestPartitionQueueOps", 1000));
+    }
+
+    private static WriteBatch.Op op(String id, int version) {
+        WriteBatch.SearchOp op = new WriteBatch.SearchOp();
+        op.op = "u";
+        op.id = id;
+        op.addField("version", String.valueOf(version), null);
+        return op;
+    }
+
+    /*
+     * versions 0..versions-1 of ids id0..id(ids-1), interleaved.
+     */
+    private static List<WriteBatch.Op> ops(int ids, int versions) {
+        List<WriteBatch.Op> ops = new ArrayList<>(ids * versions);
+        for (int v = 0; v < versions; v++) {
+            for (int i = 0; i < ids; i++) {
+                ops.add(op("id" + i, v));
+            }
+        }
+        return ops;
+    }
+
+    private long record(WriteBatch.Op op) {
+        WriteBatch.SearchOp o = (WriteBatch.SearchOp) op;
+        applied.computeIfAbsent(o.id, k -> new ArrayList<>()).add(Integer.parseInt(o.texts[0]));
+        return seqNo.incrementAndGet();
+    }
+
+    private long appliedOps() {
+        return applied.values().stream().mapToLong(List::size).sum();
+    }
+
+    private static long appliedOps(IOException e) {
+        String msg = e.getMessage();
+        assertTrue(msg, msg.startsWith("batch failed with "));
+        return Long.parseLong(msg.substring("batch failed with ".length(), msg.indexOf(' ', "batch failed with ".length())));
+    }
+
+    @Test
+    public void testLargeBatchAppliesEveryOpInOrderPerId() throws IOException {
+        final int ids = 50;
+        final int versions = 40;
+        assertEquals(ids * versions, IndexingThreadPool.apply(ops(ids, versions), this::record));
+        assertEquals(ids, applied.size());
+        for (List<Integer> perId : applied.values()) {
+            assertEquals(versions, perId.size());
+            for (int v = 0; v < versions; v++) {
+                assertEquals(v, (int) perId.get(v));
+            }
+        }
+    }
+
+    @Test
+    public void testSmallBatchOnRequestThread() throws IOException {
+        final Thread caller = Thread.currentThread();
+        assertEquals(5, IndexingThreadPool.apply(ops(5, 1), op -> {
+            assertEquals(caller, Thread.currentThread());
+            return record(op);
+        }));
+    }
+
+    @Test
+    public void testFailureReportsAppliedOps() {
+        for (List<WriteBatch.Op> batch : List.of(ops(3, 2), ops(50, 40))) {
+            applied.clear();
+            try {
+                IndexingThreadPool.apply(batch, op -> {
+                    if (op.id.equals("id1") && ((WriteBatch.SearchOp) op).texts[0].equals("1")) {
+                        throw new IOException("disk full");
+                    }
+                    return record(op);
+                });
+                fail("batch applied");
+            } catch (IOException e) {
+                assertEquals("disk full", e.getCause().getMessage());
+                assertEquals(appliedOps(), appliedOps(e));
+                // the ops of the failing id stop at its failure, and stay applied
+                assertEquals(List.of(0), applied.get("id1"));
+            }
+        }
+    }
+
+    @Test
+    public void testDecodeFailureStopsBatch() {
+        final List<WriteBatch.Op> ops = ops(50, 40);
+        final Iterable<WriteBatch.Op> decoded = () -> new Iterator<>() {
+            private int next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return next < ops.size();
+            }
+
+            @Override
+            public WriteBatch.Op next() {
+                if (next == 500) {
+                    throw new IllegalArgumentException("invalid op");
+                }
+                return ops.get(next++);
+            }
+        };
+        try {
+            IndexingThreadPool.apply(decoded, this::record);
+            fail("batch applied");
+        } catch (IOException e) {
+            assertTrue(e.getCause() instanceof IllegalArgumentException);
+            assertEquals(appliedOps(), appliedOps(e));
+            // ops decoded before the failure but still queued are skipped
+            assertTrue(appliedOps() <= 500);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.luceneserver.storage;
+
+import com.luceneserver.utils.ServerParameter;
+import org.apache.lucene.index.ConcurrentMergeScheduler;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/*
+ * vectors indexed per second into a vector index as ingestParallelism doubles, up to the number of cores
+ * or maxParallelism. Not a unit test, run it by hand:
+ *   java -cp target/classes:target/test-classes:<deps> com.luceneserver.storage.IngestBenchmark \
+ *       [vectors] [dimensions] [maxParallelism]
+ */
+public class IngestBenchmark {
+    private static final int BATCH_SIZE = 10000;
+
+    public static void main(String[] args) throws Exception {
+        final int numVectors = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        final int dimensions = args.length > 1 ? Integer.parseInt(args[1]) : 128;
+        final int maxParallelism = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        IndexingThreadPool.loadClass();
+        final List<List<WriteBatch.Op>> batches = randomBatches(numVectors, dimensions);
+
+        for (int parallelism = 1; ; parallelism = Math.min(parallelism * 2, maxParallelism)) {
+            ServerParameter.load(Map.of("ingestParallelism", parallelism));
+            final Path dir = Files.createTempDirectory("ingest-benchmark");
+            HnswIndexAccess.HnswConfig cfg = new HnswIndexAccess.HnswConfig();
+            cfg.dimensions = dimensions;
+            cfg.efConstruction = 100;
+            cfg.maxConn = 16;
+            cfg.similarity = "euclidean";
+            cfg.encoding = "float32";
+            HnswIndexAccess ia = HnswIndexAccess.createInstance(
+                    dir, Clock.systemUTC(), cfg, new ConcurrentMergeScheduler(), 1024, 256);
+            final long start = System.nanoTime();
+            for (int i = 0; i < batches.size(); i++) {
+                WriteBatch batch = new WriteBatch();
+                batch.ops = batches.get(i);
+                // the commit of the last batch is part of the cost, it flushes what is still buffered
+                batch.autoCommit = i == batches.size() - 1;
+                ia.batchWrite(batch);
+            }
+            final double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("ingestParallelism %2d: %8.0f vectors/s (%.2fs)%n",
+                    parallelism, numVectors / seconds, seconds);
+            ia.drop();
+            try (var files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+            }
+            if (parallelism >= maxParallelism) {
+                break;
+            }
+        }
+        IndexingThreadPool.shutdown();
+    }
+
+    private static List<List<WriteBatch.Op>> randomBatches(int numVectors, int dimensions) {
+        final Random random = new Random(42);
+        final List<List<WriteBatch.Op>> batches = new ArrayList<>();
+        for (int i = 0; i < numVectors; i++) {
+            if (i % BATCH_SIZE == 0) {
+                batches.add(new ArrayList<>());
+            }
+            WriteBatch.HnswOp op = new WriteBatch.HnswOp();
+            op.op = "i";
+            op.id = "v" + i;
+            op.vector = new float[dimensions];
+            for (int d = 0; d < dimensions; d++) {
+                op.vector[d] = random.nextFloat();
+            }
+            batches.get(batches.size() - 1).add(op);
+        }
+        return batches;
+    }
+}
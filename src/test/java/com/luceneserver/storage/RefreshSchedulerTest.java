@@ -0,0 +1,160 @@
+package com.luceneserver.storage;
+
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class RefreshSchedulerTest {
+    // longer than the scheduler sleeps between two looks at the indexes
+    private static final long SETTLE_MILLIS = 300;
+
+    /*
+     * a clock the test moves, the scheduler still sleeps in real time.
+     */
+    private static class TestClock extends Clock {
+        private final AtomicLong millis = new AtomicLong(1000000);
+
+        void advance(long delta) {
+            millis.addAndGet(delta);
+        }
+
+        @Override
+        public long millis() {
+            return millis.get();
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(millis());
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+    }
+
+    private final TestClock clock = new TestClock();
+    private Path dir;
+    private IndexCatalog catalog;
+    private RefreshScheduler scheduler;
+    private SearchIndexAccess ia;
+
+    @Before
+    public void setUp() throws Exception {
+        RefreshScheduler.loadClass();
+        dir = Files.createTempDirectory("refresh-scheduler-test");
+        catalog = new IndexCatalog(dir.toString(), clock);
+        IndexCatalog.IndexConfig cfg = new IndexCatalog.IndexConfig();
+        cfg.name = "idx";
+        cfg.path = "idx";
+        cfg.searchConfig = new SearchIndexAccess.SearchConfig();
+        cfg.searchConfig.defaultAnalyzer = "lucene.standard";
+        cfg.searchConfig.perFieldAnalyzer = new HashMap<>();
+        catalog.createIndex(cfg);
+        ia = (SearchIndexAccess) catalog.getIndex("idx");
+        scheduler = new RefreshScheduler(catalog, clock);
+        scheduler.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        scheduler.close();
+        catalog.dropIndex("idx");
+        TestIndexes.delete(dir);
+    }
+
+    private long visibleDocs() throws IOException {
+        return ia.count(new MatchAllDocsQuery(), null).getTotalHits().value;
+    }
+
+    private long refreshes() throws IOException {
+        return ia.getStats().get("refreshes");
+    }
+
+    private void awaitRefreshed() throws Exception {
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (ia.getPendingRefreshDocs() > 0) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("not refreshed");
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void refreshesOnceTheIntervalPassed() throws Exception {
+        TestIndexes.write(ia, "doc", 5, "lorem ipsum", false);
+        Thread.sleep(SETTLE_MILLIS);
+        assertEquals(0, visibleDocs());
+        assertEquals(5, ia.getPendingRefreshDocs());
+
+        // refreshIntervalMs defaults to 1000
+        clock.advance(1000);
+        awaitRefreshed();
+        assertEquals(5, visibleDocs());
+    }
+
+    @Test(timeout = 30000)
+    public void intervalOfTheIndexOverridesTheParameter() throws Exception {
+        ia.setRefreshIntervalMs(10000);
+        TestIndexes.write(ia, "doc", 5, "lorem ipsum", false);
+        clock.advance(1000);
+        Thread.sleep(SETTLE_MILLIS);
+        assertEquals(0, visibleDocs());
+
+        clock.advance(9000);
+        awaitRefreshed();
+        assertEquals(5, visibleDocs());
+    }
+
+    @Test(timeout = 30000)
+    public void disabledIndexIsNotRefreshed() throws Exception {
+        ia.setRefreshIntervalMs(-1);
+        TestIndexes.write(ia, "doc", 5, "lorem ipsum", false);
+        clock.advance(1000000);
+        Thread.sleep(SETTLE_MILLIS);
+        assertEquals(0, visibleDocs());
+        assertEquals(5, ia.getPendingRefreshDocs());
+    }
+
+    @Test(timeout = 30000)
+    public void skipsIndexesWithoutPendingWrites() throws Exception {
+        final long before = refreshes();
+        clock.advance(5000);
+        Thread.sleep(SETTLE_MILLIS);
+        assertEquals(before, refreshes());
+    }
+
+    @Test
+    public void validatesIntervals() {
+        RefreshScheduler.validateInterval(1);
+        RefreshScheduler.validateInterval(-1);
+        for (int invalid : new int[]{0, -2}) {
+            try {
+                RefreshScheduler.validateInterval(invalid);
+                fail("expected " + invalid + " to be rejected");
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+}
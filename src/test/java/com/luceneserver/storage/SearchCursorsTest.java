@@ -0,0 +1,174 @@
+package com.luceneserver.storage;
+
+import com.luceneserver.utils.ServerParameter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SearchCursorsTest {
+    private static final int DOCS = 30;
+    private static final int TIMEOUT_MILLIS = 60000;
+
+    private final Query query = new TermQuery(new Term(TestIndexes.FIELD, "lorem"));
+    private Path dir;
+    private SearchIndexAccess ia;
+
+    @Before
+    public void setUp() throws Exception {
+        SearchCursors.loadClass();
+        ServerParameter.load(Map.of("cursorTimeoutMillis", TIMEOUT_MILLIS));
+        dir = Files.createTempDirectory("search-cursors-test");
+        ia = TestIndexes.create(dir);
+        TestIndexes.write(ia, "doc", DOCS, "lorem ipsum", true);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ServerParameter.load(Map.of("cursorTimeoutMillis", 600000, "maxOpenCursors", 1000));
+        ia.drop();
+        TestIndexes.delete(dir);
+    }
+
+    /*
+     * opens a cursor of batches of 10 over all documents, returns its id.
+     */
+    private long open() throws IOException {
+        SearchResult first = ia.openCursor(query, DOCS, 10, HitCount.NONE, null);
+        assertEquals(10, first.getIds().length);
+        assertNotEquals(0, first.getCursorId());
+        return first.getCursorId();
+    }
+
+    @Test
+    public void pagesUntilExhausted() throws IOException {
+        final long id = open();
+        SearchCursor cursor = SearchCursors.get(id);
+        assertNotNull(cursor);
+        assertEquals(10, ia.getMore(cursor, 10, null).getIds().length);
+        SearchResult last = ia.getMore(cursor, 10, null);
+        assertEquals(10, last.getIds().length);
+        assertEquals(0, last.getCursorId());
+        assertNull(SearchCursors.get(id));
+        assertTrue(cursor.isClosed());
+    }
+
+    @Test
+    public void idsAreRandomAndPositive() throws IOException {
+        Set<Long> ids = new HashSet<>();
+        for (int i = 0; i < 20; i++) {
+            final long id = open();
+            assertTrue(id > 0);
+            assertTrue(ids.add(id));
+        }
+        // sequential ids would be a run of 20
+        long min = ids.stream().min(Long::compare).get();
+        long max = ids.stream().max(Long::compare).get();
+        assertTrue(max - min > 1000);
+    }
+
+    @Test
+    public void killClosesAnIdleCursor() throws IOException {
+        final long id = open();
+        SearchCursor cursor = SearchCursors.get(id);
+        assertTrue(SearchCursors.kill(id));
+        assertTrue(cursor.isClosed());
+        assertNull(SearchCursors.get(id));
+        assertFalse(SearchCursors.kill(id));
+        // a getMore which looked the cursor up before it was killed
+        assertNull(ia.getMore(cursor, 10, null));
+    }
+
+    @Test(timeout = 10000)
+    public void killOfACursorInUseClosesItOnceThePageIsServed() throws Exception {
+        final long id = open();
+        final SearchCursor cursor = SearchCursors.get(id);
+        final CountDownLatch locked = new CountDownLatch(1);
+        final CountDownLatch killed = new CountDownLatch(1);
+        // a getMore serving a page on another thread, the lock is reentrant
+        Thread page = new Thread(() -> {
+            assertTrue(cursor.tryLock());
+            locked.countDown();
+            try {
+                killed.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            cursor.unlock();
+        });
+        page.start();
+        locked.await();
+        assertTrue(SearchCursors.kill(id));
+        assertFalse(cursor.isClosed());
+        killed.countDown();
+        page.join();
+        assertTrue(cursor.isClosed());
+    }
+
+    @Test
+    public void reapsIdleCursors() throws IOException {
+        final long id = open();
+        final long lastUsed = SearchCursors.get(id).getLastUsedMillis();
+        SearchCursors.reapIdle(lastUsed + TIMEOUT_MILLIS);
+        assertNotNull(SearchCursors.get(id));
+
+        SearchCursor cursor = SearchCursors.get(id);
+        SearchCursors.reapIdle(lastUsed + TIMEOUT_MILLIS + 1);
+        assertNull(SearchCursors.get(id));
+        assertTrue(cursor.isClosed());
+    }
+
+    @Test
+    public void doesNotReapACursorServingAPage() throws IOException {
+        final long id = open();
+        SearchCursor cursor = SearchCursors.get(id);
+        assertTrue(cursor.tryLock());
+        try {
+            SearchCursors.reapIdle(cursor.getLastUsedMillis() + TIMEOUT_MILLIS + 1);
+            assertSame(cursor, SearchCursors.get(id));
+        } finally {
+            cursor.unlock();
+        }
+        assertFalse(cursor.isClosed());
+    }
+
+    @Test
+    public void boundsOpenCursors() throws IOException {
+        ServerParameter.load(Map.of("maxOpenCursors", 0));
+        try {
+            ia.openCursor(query, DOCS, 10, HitCount.NONE, null);
+            fail("expected too many open cursors");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void dropKillsTheCursorsOfTheIndex() throws IOException {
+        final long id = open();
+        SearchCursor cursor = SearchCursors.get(id);
+        ia.drop();
+        assertNull(SearchCursors.get(id));
+        assertTrue(cursor.isClosed());
+        // tearDown drops it again
+        ia = TestIndexes.create(dir);
+    }
+}
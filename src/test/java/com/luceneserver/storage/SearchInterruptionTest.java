@@ -0,0 +1,285 @@
+package com.luceneserver.storage;
+
+import com.luceneserver.commands.mongo.CmdCurrentOp;
+import com.luceneserver.commands.mongo.CmdKillOp;
+import com.luceneserver.commands.mongo.Command;
+import com.luceneserver.commands.mongo.OperationContext;
+import com.luceneserver.protocol.mongo.MongoMessage;
+import com.luceneserver.protocol.mongo.MsgHeader;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.apache.lucene.index.ExitableDirectoryReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentWriter;
+import org.bson.BsonInt32;
+import org.bson.BsonInt64;
+import org.bson.BsonValue;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SearchInterruptionTest {
+    private static final int SEGMENTS = 3;
+    private static final int DOCS_PER_SEGMENT = 10;
+
+    private final Query query = new TermQuery(new Term(TestIndexes.FIELD, "lorem"));
+    private Path dir;
+    private SearchIndexAccess ia;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("search-interruption-test");
+        ia = TestIndexes.create(dir);
+        for (int s = 0; s < SEGMENTS; s++) {
+            TestIndexes.write(ia, "s" + s + "-", DOCS_PER_SEGMENT, "lorem ipsum", true);
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ia.drop();
+        TestIndexes.delete(dir);
+    }
+
+    /*
+     * a request which should exit past its deadline if it has one, and is killed otherwise.
+     */
+    private static Interruption interruption(boolean hasDeadline, boolean exit) {
+        return new Interruption() {
+            @Override
+            public boolean hasDeadline() {
+                return hasDeadline;
+            }
+
+            @Override
+            public boolean shouldExit() {
+                return exit;
+            }
+
+            @Override
+            public boolean isKilled() {
+                return exit && !hasDeadline;
+            }
+        };
+    }
+
+    @Test
+    public void searchesWithoutInterruption() throws Exception {
+        SearchResult result = ia.search(query, 100, HitCount.EXACT, null);
+        assertFalse(result.isTimedOut());
+        assertEquals(SEGMENTS * DOCS_PER_SEGMENT, result.getIds().length);
+    }
+
+    @Test
+    public void killedSearchWithoutDeadlineStopsOnTheSharedSearcher() throws Exception {
+        try {
+            ia.search(query, 100, HitCount.EXACT, interruption(false, true));
+            fail("expected the killed search to fail");
+        } catch (InterruptedIOException expected) {
+        }
+        try {
+            ia.count(query, interruption(false, true));
+            fail("expected the killed count to fail");
+        } catch (InterruptedIOException expected) {
+        }
+    }
+
+    @Test
+    public void expiredSearchWithDeadlineStops() throws Exception {
+        // collecting, the hits so far are returned
+        SearchResult result = ia.search(new MatchAllDocsQuery(), 100, HitCount.EXACT, interruption(true, true));
+        assertTrue(result.isTimedOut());
+        assertEquals(0, result.getIds().length);
+        // looking the term up, before there is anything to return
+        try {
+            ia.search(query, 100, HitCount.EXACT, interruption(true, true));
+            fail("expected the term lookup to give up");
+        } catch (ExitableDirectoryReader.ExitingReaderException expected) {
+        }
+    }
+
+    /*
+     * a search killed with killOp while it collects fails, with or without a maxTimeMS, rather than reply
+     * with the hits so far as if it timed out. MessageProcessor answers a killed operation with Interrupted.
+     */
+    @Test
+    public void searchKilledByKillOpFails() throws Exception {
+        final EmbeddedChannel channel = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+        final ChannelHandlerContext ctx = channel.pipeline().firstContext();
+        for (BsonDocument body : new BsonDocument[]{
+                new BsonDocument("search", new BsonInt32(1)),
+                new BsonDocument("search", new BsonInt32(1)).append("maxTimeMS", new BsonInt32(60000))}) {
+            final OperationContext op = OperationContext.begin("search", "searchKilledByKillOpFails", body);
+            try {
+                killOp(ctx, opId("searchKilledByKillOpFails"));
+                assertTrue(op.isKilled());
+                try {
+                    ia.search(new MatchAllDocsQuery(), 100, HitCount.EXACT, op);
+                    fail("expected the killed search to fail, body " + body);
+                } catch (InterruptedIOException expected) {
+                }
+            } finally {
+                op.end();
+            }
+        }
+        channel.finishAndReleaseAll();
+    }
+
+    private static BsonDocument run(Command cmd, ChannelHandlerContext ctx, BsonDocument body) throws Exception {
+        final BsonDocument reply = new BsonDocument();
+        cmd.writeReply(ctx, new MongoMessage(new MsgHeader(1, 0), toRaw(body), false), new BsonDocumentWriter(reply));
+        assertEquals(reply.toJson(), 1, reply.getNumber("ok").intValue());
+        return reply;
+    }
+
+    private static RawBsonDocument toRaw(BsonDocument body) {
+        return new RawBsonDocument(body, new BsonDocumentCodec());
+    }
+
+    // the opid currentOp lists for the operation of client
+    private static long opId(String client) throws Exception {
+        for (BsonValue op : run(new CmdCurrentOp(), null, new BsonDocument("currentOp", new BsonInt32(1)))
+                .getArray("inprog")) {
+            if (op.asDocument().getString("client").getValue().equals(client)) {
+                return op.asDocument().getInt64("opid").getValue();
+            }
+        }
+        throw new AssertionError("no operation of " + client);
+    }
+
+    private static void killOp(ChannelHandlerContext ctx, long opId) throws Exception {
+        BsonDocument reply = run(new CmdKillOp(), ctx,
+                new BsonDocument("killOp", new BsonInt32(1)).append("op", new BsonInt64(opId)));
+        assertEquals("attempting to kill op", reply.getString("info").getValue());
+    }
+
+    @Test
+    public void searchesNotInterruptedAreComplete() throws Exception {
+        for (boolean hasDeadline : new boolean[]{false, true}) {
+            SearchResult result = ia.search(query, 100, HitCount.EXACT, interruption(hasDeadline, false));
+            assertFalse(result.isTimedOut());
+            assertEquals(SEGMENTS * DOCS_PER_SEGMENT, result.getIds().length);
+        }
+    }
+
+    /*
+     * a timed search leads, and is held until an untimed one waits for it, then gives up. The untimed one
+     * must neither get its partial result, nor its failure.
+     */
+    @Test(timeout = 30000)
+    public void untimedWaiterDoesNotShareATimedOutResult() throws Exception {
+        SearchResult leader = searchBehindATimedLeader(new MatchAllDocsQuery());
+        assertTrue(leader.isTimedOut());
+    }
+
+    @Test(timeout = 30000)
+    public void untimedWaiterDoesNotShareAKilledLeaderFailure() throws Exception {
+        try {
+            searchBehindATimedLeader(new MatchAllDocsQuery(), true);
+            fail("expected the killed leader to fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof InterruptedIOException);
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void untimedWaiterDoesNotShareAnInterruptedRewrite() throws Exception {
+        try {
+            searchBehindATimedLeader(query);
+            fail("expected the leader to give up looking the term up");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ExitableDirectoryReader.ExitingReaderException);
+        }
+    }
+
+    /*
+     * checks the result of the untimed waiter and returns the one of the leader.
+     */
+    private SearchResult searchBehindATimedLeader(Query q) throws Exception {
+        return searchBehindATimedLeader(q, false);
+    }
+
+    /*
+     * as searchBehindATimedLeader(q), with a leader which stops for a kill rather than its deadline if
+     * killed.
+     */
+    private SearchResult searchBehindATimedLeader(Query q, boolean killed) throws Exception {
+        final CountDownLatch leaderRunning = new CountDownLatch(1);
+        final CountDownLatch waiterWaiting = new CountDownLatch(1);
+        final Interruption timed = new Interruption() {
+            @Override
+            public boolean hasDeadline() {
+                return true;
+            }
+
+            @Override
+            public boolean shouldExit() {
+                leaderRunning.countDown();
+                try {
+                    waiterWaiting.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return true;
+            }
+
+            @Override
+            public boolean isKilled() {
+                return killed;
+            }
+        };
+        // polled by the waiter while it waits, and checked per leaf once it searches by itself
+        final Interruption untimed = new Interruption() {
+            @Override
+            public boolean hasDeadline() {
+                return false;
+            }
+
+            @Override
+            public boolean shouldExit() {
+                waiterWaiting.countDown();
+                return false;
+            }
+
+            @Override
+            public boolean isKilled() {
+                return false;
+            }
+        };
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            Future<SearchResult> leader = pool.submit(() -> ia.search(q, 100, HitCount.EXACT, timed));
+            leaderRunning.await();
+            Future<SearchResult> waiter = pool.submit(() -> ia.search(q, 100, HitCount.EXACT, untimed));
+
+            SearchResult result = waiter.get();
+            assertFalse(result.isTimedOut());
+            assertEquals(SEGMENTS * DOCS_PER_SEGMENT, result.getIds().length);
+            return leader.get();
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
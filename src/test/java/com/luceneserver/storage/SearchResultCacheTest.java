@@ -0,0 +1,119 @@
+package com.luceneserver.storage;
+
+import com.luceneserver.utils.ServerParameter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TotalHits;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class SearchResultCacheTest {
+    private final SearchResultCache cache = new SearchResultCache();
+
+    @Before
+    public void setUp() {
+        SearchResultCache.loadClass();
+        ServerParameter.load(Map.of("searchResultCacheMBPerIndex", 1));
+    }
+
+    @After
+    public void tearDown() {
+        ServerParameter.load(Map.of("searchResultCacheMBPerIndex", 16));
+    }
+
+    private static Query query(String text) {
+        return new TermQuery(new Term("title", text));
+    }
+
+    /*
+     * a result of numIds hits, a 5000 one takes about 300KB of the 1MB budget.
+     */
+    private static SearchResult result(int numIds) {
+        String[] ids = new String[numIds];
+        for (int i = 0; i < numIds; i++) {
+            ids[i] = "doc-" + i;
+        }
+        return new SearchResult(ids, new TotalHits(numIds, TotalHits.Relation.EQUAL_TO), false);
+    }
+
+    @Test
+    public void keysOnQueryLimitAndHitCount() {
+        SearchResult r = result(10);
+        cache.put(1, query("a"), 10, HitCount.NONE, r);
+        assertSame(r, cache.get(1, query("a"), 10, HitCount.NONE));
+        assertNull(cache.get(1, query("b"), 10, HitCount.NONE));
+        assertNull(cache.get(1, query("a"), 20, HitCount.NONE));
+        assertNull(cache.get(1, query("a"), 10, HitCount.EXACT));
+    }
+
+    @Test
+    public void missesOnOtherReaderVersions() {
+        SearchResult r = result(10);
+        cache.put(2, query("a"), 10, HitCount.NONE, r);
+        assertNull(cache.get(1, query("a"), 10, HitCount.NONE));
+        assertNull(cache.get(3, query("a"), 10, HitCount.NONE));
+        assertSame(r, cache.get(2, query("a"), 10, HitCount.NONE));
+    }
+
+    @Test
+    public void newerVersionDropsOlderEntries() {
+        cache.put(1, query("a"), 10, HitCount.NONE, result(10));
+        cache.put(1, query("b"), 10, HitCount.NONE, result(10));
+        cache.put(2, query("c"), 10, HitCount.NONE, result(10));
+        assertEquals(1L, (long) stats().get("resultCacheEntries"));
+        assertNull(cache.get(1, query("a"), 10, HitCount.NONE));
+        // a result computed on a reader which was already replaced is not kept
+        cache.put(1, query("a"), 10, HitCount.NONE, result(10));
+        assertEquals(1L, (long) stats().get("resultCacheEntries"));
+        assertNull(cache.get(2, query("a"), 10, HitCount.NONE));
+    }
+
+    @Test
+    public void invalidateDropsEverything() {
+        cache.put(1, query("a"), 10, HitCount.NONE, result(10));
+        cache.invalidate();
+        assertNull(cache.get(1, query("a"), 10, HitCount.NONE));
+        Map<String, Long> stats = stats();
+        assertEquals(0L, (long) stats.get("resultCacheEntries"));
+        assertEquals(0L, (long) stats.get("resultCacheBytes"));
+    }
+
+    @Test
+    public void evictsTheLeastRecentlyUsedOverBudget() {
+        cache.put(1, query("a"), 10, HitCount.NONE, result(5000));
+        cache.put(1, query("b"), 10, HitCount.NONE, result(5000));
+        // "a" becomes the most recently used, "b" is the one to go
+        cache.get(1, query("a"), 10, HitCount.NONE);
+        cache.put(1, query("c"), 10, HitCount.NONE, result(5000));
+        cache.put(1, query("d"), 10, HitCount.NONE, result(5000));
+
+        assertNull(cache.get(1, query("b"), 10, HitCount.NONE));
+        assertEquals(5000, cache.get(1, query("a"), 10, HitCount.NONE).getIds().length);
+        assertEquals(5000, cache.get(1, query("d"), 10, HitCount.NONE).getIds().length);
+        Map<String, Long> stats = stats();
+        assertEquals(1L, (long) stats.get("resultCacheEvictions"));
+        assertEquals(3L, (long) stats.get("resultCacheEntries"));
+    }
+
+    @Test
+    public void skipsResultsLargerThanTheBudget() {
+        cache.put(1, query("a"), 10, HitCount.NONE, result(100000));
+        assertNull(cache.get(1, query("a"), 10, HitCount.NONE));
+        assertEquals(0L, (long) stats().get("resultCacheEntries"));
+    }
+
+    private Map<String, Long> stats() {
+        Map<String, Long> stats = new HashMap<>();
+        cache.addStats(stats);
+        return stats;
+    }
+}
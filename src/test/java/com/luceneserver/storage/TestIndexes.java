@@ -0,0 +1,51 @@
+package com.luceneserver.storage;
+
+import org.apache.lucene.index.ConcurrentMergeScheduler;
+import org.apache.lucene.index.IndexOptions;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+/*
+ * search indexes in temporary directories for the unit tests of this package.
+ */
+class TestIndexes {
+    static final String FIELD = "title";
+
+    static SearchIndexAccess create(Path dir) throws IOException {
+        SearchIndexAccess.SearchConfig cfg = new SearchIndexAccess.SearchConfig();
+        cfg.defaultAnalyzer = "lucene.standard";
+        cfg.perFieldAnalyzer = new HashMap<>();
+        return SearchIndexAccess.createInstance(dir, Clock.systemUTC(), cfg, new ConcurrentMergeScheduler(), 1024, 64);
+    }
+
+    /*
+     * upserts documents id0..id(n-1) of FIELD text, returns the sequence number of the batch.
+     */
+    static long write(IndexAccess ia, String prefix, int n, String text, boolean autoCommit) throws IOException {
+        List<WriteBatch.Op> ops = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            WriteBatch.SearchOp op = new WriteBatch.SearchOp();
+            op.op = "u";
+            op.id = prefix + i;
+            op.addField(FIELD, text, TextFieldTypes.get(IndexOptions.DOCS, false, false));
+            ops.add(op);
+        }
+        WriteBatch batch = new WriteBatch();
+        batch.ops = ops;
+        batch.autoCommit = autoCommit;
+        return ia.batchWrite(batch);
+    }
+
+    static void delete(Path dir) throws IOException {
+        try (var files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+}
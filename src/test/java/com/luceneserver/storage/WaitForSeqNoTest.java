@@ -0,0 +1,96 @@
+package com.luceneserver.storage;
+
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class WaitForSeqNoTest {
+    private Path dir;
+    private SearchIndexAccess ia;
+    private boolean dropped = false;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("wait-for-seqno-test");
+        ia = TestIndexes.create(dir);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (!dropped) {
+            ia.drop();
+        }
+        TestIndexes.delete(dir);
+    }
+
+    private long visibleDocs() throws IOException {
+        return ia.count(new MatchAllDocsQuery(), null).getTotalHits().value;
+    }
+
+    private long refreshes() throws IOException {
+        return ia.getStats().get("refreshes");
+    }
+
+    @Test
+    public void makesTheWritesUpToSeqNoVisible() throws IOException {
+        final long first = TestIndexes.write(ia, "a", 5, "lorem ipsum", false);
+        final long second = TestIndexes.write(ia, "b", 5, "lorem ipsum", false);
+        assertTrue(first > 0);
+        assertTrue(second > first);
+        assertEquals(0, visibleDocs());
+
+        ia.waitForSeqNo(first);
+        // the refresh covers every write completed by then, not only those up to first
+        assertEquals(10, visibleDocs());
+        assertEquals(0, ia.getPendingRefreshDocs());
+    }
+
+    @Test
+    public void doesNotRefreshForWritesAlreadyVisible() throws IOException {
+        final long seqNo = TestIndexes.write(ia, "a", 5, "lorem ipsum", false);
+        ia.waitForSeqNo(seqNo);
+        final long refreshes = refreshes();
+        ia.waitForSeqNo(seqNo);
+        ia.waitForSeqNo(seqNo - 1);
+        assertEquals(refreshes, refreshes());
+
+        // an autoCommit batch is visible once acknowledged
+        final long committed = TestIndexes.write(ia, "b", 5, "lorem ipsum", true);
+        final long afterCommit = refreshes();
+        ia.waitForSeqNo(committed);
+        assertEquals(afterCommit, refreshes());
+        assertEquals(10, visibleDocs());
+    }
+
+    @Test
+    public void rejectsSeqNoAheadOfTheWrites() throws IOException {
+        final long seqNo = TestIndexes.write(ia, "a", 5, "lorem ipsum", false);
+        try {
+            ia.waitForSeqNo(seqNo + 1000);
+            fail("expected a seqNo ahead of the writes to be rejected");
+        } catch (IllegalArgumentException expected) {
+        }
+        assertEquals(0, visibleDocs());
+    }
+
+    @Test
+    public void failsOnADroppedIndex() throws IOException {
+        final long seqNo = TestIndexes.write(ia, "a", 5, "lorem ipsum", false);
+        ia.drop();
+        dropped = true;
+        try {
+            ia.waitForSeqNo(seqNo);
+            fail("expected the dropped index to fail");
+        } catch (IOException expected) {
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.luceneserver.transport.mongo;
+
+import com.luceneserver.protocol.mongo.MessageFlag;
+import com.luceneserver.protocol.mongo.MongoMessage;
+import com.luceneserver.utils.ServerParameter;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Map;
+import java.util.zip.CRC32C;
+
+/*
+ * what CRC32C checksums cost on ingest: the decode rate of a batchWrite OP_MSG which carries a checksum,
+ * with validateMessageChecksum off and on, and the rate at which a checksum is appended to a pooled
+ * direct buffer of the same size, as generateMessageChecksum does for replies. The overhead at a given
+ * ingest rate is that rate over the checksum rate, in cores. Not a unit test, run it by hand:
+ *   java -cp target/classes:target/test-classes:<deps> com.luceneserver.transport.mongo.ChecksumOverheadBenchmark \
+ *       [vectors] [dimensions] [requests]
+ */
+public class ChecksumOverheadBenchmark {
+    private static final double INGEST_BYTES_PER_SECOND = 1e9;
+
+    public static void main(String[] args) {
+        final int numVectors = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        final int dimensions = args.length > 1 ? Integer.parseInt(args[1]) : 128;
+        final int requests = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+        MessageChecksums.loadClass();
+        final byte[] frame = withChecksum(DecodeAllocationBenchmark.opMsgFrame(numVectors, dimensions));
+        final EmbeddedChannel channel = new EmbeddedChannel(new MongoWireProtocolHandler());
+        System.out.printf("frame of %d bytes%n", frame.length);
+
+        // the first pass warms up, the second is measured
+        for (int pass = 0; pass < 2; pass++) {
+            ServerParameter.load(Map.of("validateMessageChecksum", false));
+            final double plain = decodeRate(channel, frame, requests);
+            ServerParameter.load(Map.of("validateMessageChecksum", true));
+            final double validated = decodeRate(channel, frame, requests);
+            final double generated = appendRate(frame.length, requests);
+            if (pass == 1) {
+                System.out.printf("decode, not validated: %6.2f GB/s%n", plain / 1e9);
+                System.out.printf("decode, validated:     %6.2f GB/s%n", validated / 1e9);
+                System.out.printf("validation at 1 GB/s:  %6.1f%% of a core%n",
+                        100 * (INGEST_BYTES_PER_SECOND / validated - INGEST_BYTES_PER_SECOND / plain));
+                System.out.printf("append a checksum:     %6.2f GB/s, %.1f%% of a core at 1 GB/s%n",
+                        generated / 1e9, 100 * INGEST_BYTES_PER_SECOND / generated);
+            }
+        }
+        channel.finishAndReleaseAll();
+    }
+
+    private static double decodeRate(EmbeddedChannel channel, byte[] frame, int requests) {
+        final long start = System.nanoTime();
+        for (int i = 0; i < requests; i++) {
+            channel.writeInbound(Unpooled.wrappedBuffer(frame));
+            MongoMessage msg = channel.readInbound();
+            msg.release();
+        }
+        return (double) frame.length * requests / ((System.nanoTime() - start) / 1e9);
+    }
+
+    private static double appendRate(int length, int requests) {
+        final ByteBuf buf = PooledByteBufAllocator.DEFAULT.directBuffer(length + MessageChecksums.CHECKSUM_LENGTH);
+        buf.writeZero(length);
+        final long start = System.nanoTime();
+        for (int i = 0; i < requests; i++) {
+            buf.writerIndex(length);
+            MessageChecksums.append(buf, 0);
+        }
+        final double rate = (double) length * requests / ((System.nanoTime() - start) / 1e9);
+        buf.release();
+        return rate;
+    }
+
+    /*
+     * frame with CHECKSUM_PRESENT set and its CRC32C appended.
+     */
+    private static byte[] withChecksum(byte[] frame) {
+        final ByteBuffer out = ByteBuffer.allocate(frame.length + MessageChecksums.CHECKSUM_LENGTH)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        out.put(frame);
+        out.putInt(0, out.capacity());
+        out.putInt(16, out.getInt(16) | MessageFlag.CHECKSUM_PRESENT.getValue());
+        final CRC32C crc = new CRC32C();
+        crc.update(out.array(), 0, frame.length);
+        out.putInt((int) crc.getValue());
+        return out.array();
+    }
+}
@@ -0,0 +1,74 @@
+package com.luceneserver.transport.mongo;
+
+import com.luceneserver.protocol.mongo.MongoMessage;
+import com.luceneserver.transport.mongo.compression.Compressor;
+import com.luceneserver.transport.mongo.compression.MessageCompressors;
+import com.luceneserver.transport.mongo.compression.ZlibCompressor;
+import com.luceneserver.utils.ServerParameter;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+import java.util.Map;
+
+/*
+ * batchWrite batches of float vectors per second with and without OP_COMPRESSED. For each zlib level the
+ * client side compression and the server side decoding are timed, and the wire size of a batch bounds
+ * what a link of linkMbps carries. Batches go at the lower of the link and the cpu rate. Not a unit
+ * test, run it by hand:
+ *   java -cp target/classes:target/test-classes:<deps> com.luceneserver.transport.mongo.CompressionThroughputBenchmark \
+ *       [vectors] [dimensions] [linkMbps] [batches]
+ */
+public class CompressionThroughputBenchmark {
+    public static void main(String[] args) throws Exception {
+        final int numVectors = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        final int dimensions = args.length > 1 ? Integer.parseInt(args[1]) : 128;
+        final double linkMbps = args.length > 2 ? Double.parseDouble(args[2]) : 1000;
+        final int batches = args.length > 3 ? Integer.parseInt(args[3]) : 20;
+        final byte[] frame = DecodeAllocationBenchmark.opMsgFrame(numVectors, dimensions);
+        final Compressor zlib = MessageCompressors.getById(ZlibCompressor.ID);
+        final ByteBufAllocator alloc = ByteBufAllocator.DEFAULT;
+        final EmbeddedChannel channel = new EmbeddedChannel(new MongoWireProtocolHandler());
+        System.out.printf("batches of %d vectors of %d dimensions, %d bytes, over %.0f Mbit/s%n",
+                numVectors, dimensions, frame.length, linkMbps);
+
+        final int[] levels = {-2, 1, 6};
+        // the first pass warms up, the second is measured
+        for (int pass = 0; pass < 2; pass++) {
+            for (int level : levels) {
+                long wireBytes = 0;
+                long compressNanos = 0;
+                long decodeNanos = 0;
+                if (level >= 0) {
+                    ServerParameter.load(Map.of("zlibCompressionLevel", level));
+                }
+                for (int i = 0; i < batches; i++) {
+                    long start = System.nanoTime();
+                    ByteBuf wire = Unpooled.wrappedBuffer(frame);
+                    if (level >= 0) {
+                        wire = MessageCompressors.compress(alloc, wire, zlib);
+                    }
+                    compressNanos += System.nanoTime() - start;
+                    wireBytes += wire.readableBytes();
+
+                    start = System.nanoTime();
+                    channel.writeInbound(wire);
+                    MongoMessage msg = channel.readInbound();
+                    msg.getCommandName();
+                    msg.release();
+                    decodeNanos += System.nanoTime() - start;
+                }
+                final double linkRate = linkMbps * 1e6 / 8 / (wireBytes / (double) batches);
+                // the client compresses while the server decodes, the slower of them bounds the rate
+                final double cpuRate = batches / (Math.max(compressNanos, decodeNanos) / 1e9);
+                System.out.printf("pass %d: %-8s %9d bytes/batch (%5.1f%%), compress %7.2f ms, decode %7.2f ms,"
+                                + " link %7.1f batches/s, cpu %7.1f batches/s, %7.1f batches/s%n",
+                        pass, level < 0 ? "none" : "zlib " + level, wireBytes / batches,
+                        100.0 * wireBytes / batches / frame.length, compressNanos / 1e6 / batches,
+                        decodeNanos / 1e6 / batches, linkRate, cpuRate, Math.min(linkRate, cpuRate));
+            }
+        }
+        channel.finishAndReleaseAll();
+    }
+}
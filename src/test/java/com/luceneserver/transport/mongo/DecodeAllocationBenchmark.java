@@ -0,0 +1,110 @@
+package com.luceneserver.transport.mongo;
+
+import com.luceneserver.protocol.mongo.MongoMessage;
+import com.luceneserver.protocol.mongo.OpCode;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonDouble;
+import org.bson.BsonString;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+/*
+ * bytes allocated per decoded batchWrite OP_MSG of float vectors, as counted by the JVM for the decoding
+ * thread. "in place" is MongoWireProtocolHandler, which wraps the body in the retained frame, "copy" is
+ * what it did before, a fresh byte[] per body. Not a unit test, run it by hand:
+ *   java -cp target/classes:target/test-classes:<deps> com.luceneserver.transport.mongo.DecodeAllocationBenchmark \
+ *       [vectors] [dimensions] [requests]
+ */
+public class DecodeAllocationBenchmark {
+    public static void main(String[] args) throws Exception {
+        final int numVectors = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        final int dimensions = args.length > 1 ? Integer.parseInt(args[1]) : 128;
+        final int requests = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+        final byte[] frame = opMsgFrame(numVectors, dimensions);
+        final com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final long threadId = Thread.currentThread().getId();
+        final EmbeddedChannel channel = new EmbeddedChannel(new MongoWireProtocolHandler());
+        System.out.printf("frame of %d bytes%n", frame.length);
+
+        // the first pass warms up, the second is measured
+        for (int pass = 0; pass < 2; pass++) {
+            long start = System.nanoTime();
+            long bytes = threads.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < requests; i++) {
+                channel.writeInbound(Unpooled.wrappedBuffer(frame));
+                MongoMessage msg = channel.readInbound();
+                msg.getCommandName();
+                msg.release();
+            }
+            bytes = threads.getThreadAllocatedBytes(threadId) - bytes;
+            report(pass, "in place", bytes, System.nanoTime() - start, requests);
+
+            start = System.nanoTime();
+            bytes = threads.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < requests; i++) {
+                ByteBuf in = Unpooled.wrappedBuffer(frame);
+                copyBody(in).getFirstKey();
+                in.release();
+            }
+            bytes = threads.getThreadAllocatedBytes(threadId) - bytes;
+            report(pass, "copy", bytes, System.nanoTime() - start, requests);
+        }
+        channel.finishAndReleaseAll();
+    }
+
+    private static void report(int pass, String path, long bytes, long nanos, int requests) {
+        System.out.printf("pass %d: %-8s %10d bytes/request, %8.1f us/request%n",
+                pass, path, bytes / requests, nanos / 1e3 / requests);
+    }
+
+    /*
+     * the body of the OP_MSG in frame, copied out as the decoder did before it decoded in place.
+     */
+    private static RawBsonDocument copyBody(ByteBuf in) {
+        // length, requestID, responseTo, opCode, flagBits and the section kind
+        in.skipBytes(21);
+        byte[] bytes = new byte[in.getIntLE(in.readerIndex())];
+        in.readBytes(bytes);
+        return new RawBsonDocument(bytes);
+    }
+
+    /*
+     * a batchWrite OP_MSG of numVectors random vectors, as drivers send float vectors, in arrays of doubles.
+     */
+    static byte[] opMsgFrame(int numVectors, int dimensions) {
+        final Random random = new Random(42);
+        final BsonArray ops = new BsonArray();
+        for (int i = 0; i < numVectors; i++) {
+            BsonArray vector = new BsonArray();
+            for (int d = 0; d < dimensions; d++) {
+                vector.add(new BsonDouble(random.nextFloat()));
+            }
+            ops.add(new BsonDocument()
+                    .append("op", new BsonString("i"))
+                    .append("id", new BsonString("v" + i))
+                    .append("vector", vector));
+        }
+        final BsonDocument body = new BsonDocument()
+                .append("batchWrite", new BsonString("benchmark"))
+                .append("ops", ops);
+        final RawBsonDocument raw = new RawBsonDocument(body, new BsonDocumentCodec());
+        final ByteBuffer bson = raw.getByteBuffer().asNIO();
+        final int length = 16 + 4 + 1 + bson.remaining();
+        final ByteBuffer frame = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        frame.putInt(length).putInt(1).putInt(0).putInt(OpCode.OP_MSG.getId());
+        frame.putInt(0);
+        frame.put((byte) MongoMessage.SECTION_KIND_BODY);
+        frame.put(bson);
+        return frame.array();
+    }
+}
@@ -0,0 +1,173 @@
+package com.luceneserver.utils;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SingleFlightTest {
+    // counters register in Metrics once per name, the tests look at how much they moved
+    private static final Counter executions = new Counter("singleFlightTestExecutions");
+    private static final Counter coalesced = new Counter("singleFlightTestCoalesced");
+
+    private final SingleFlight<String, String> flights = new SingleFlight<>(executions, coalesced);
+
+    /*
+     * waits until waiters more callers joined a call in flight.
+     */
+    private static void awaitCoalesced(long before, int waiters) throws InterruptedException {
+        while (coalesced.get() - before < waiters) {
+            Thread.sleep(1);
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void coalescesConcurrentCalls() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger calls = new AtomicInteger();
+        final SingleFlight.Call<String> call = () -> {
+            calls.incrementAndGet();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            return "result";
+        };
+        final long executionsBefore = executions.get();
+        final long coalescedBefore = coalesced.get();
+        ExecutorService pool = Executors.newFixedThreadPool(3);
+        try {
+            Future<String> leader = pool.submit(() -> flights.run("k", call));
+            while (calls.get() == 0) {
+                Thread.sleep(1);
+            }
+            Future<String> first = pool.submit(() -> flights.run("k", call));
+            Future<String> second = pool.submit(() -> flights.run("k", call));
+            awaitCoalesced(coalescedBefore, 2);
+            release.countDown();
+
+            assertEquals("result", leader.get());
+            assertSame(leader.get(), first.get());
+            assertSame(leader.get(), second.get());
+            assertEquals(1, calls.get());
+            assertEquals(1, executions.get() - executionsBefore);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void runsAgainOnceTheCallReturned() throws IOException {
+        final AtomicInteger calls = new AtomicInteger();
+        assertEquals("1", flights.run("k", () -> String.valueOf(calls.incrementAndGet())));
+        assertEquals("2", flights.run("k", () -> String.valueOf(calls.incrementAndGet())));
+    }
+
+    @Test(timeout = 10000)
+    public void doesNotCoalesceOtherKeys() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        try {
+            Future<String> blocked = pool.submit(() -> flights.run("a", () -> {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                return "a";
+            }));
+            // returns while the call of "a" is still in flight
+            assertEquals("b", flights.run("b", () -> "b"));
+            release.countDown();
+            assertEquals("a", blocked.get());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void propagatesTheExceptionToWaiters() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final IOException failure = new IOException("index not open or maybe dropped");
+        final long coalescedBefore = coalesced.get();
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> leader = pool.submit(() -> flights.run("k", () -> {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                throw failure;
+            }));
+            started.await();
+            Future<String> waiter = pool.submit(() -> flights.run("k", () -> "not run"));
+            awaitCoalesced(coalescedBefore, 1);
+            release.countDown();
+
+            assertSame(failure, causeOf(leader));
+            assertSame(failure, causeOf(waiter));
+        } finally {
+            pool.shutdownNow();
+        }
+        // the failed call is not kept either
+        assertEquals("again", flights.run("k", () -> "again"));
+    }
+
+    @Test(timeout = 10000)
+    public void cancelledWaiterGivesUpAndTheLeaderCompletes() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicBoolean cancelled = new AtomicBoolean();
+        final long coalescedBefore = coalesced.get();
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> leader = pool.submit(() -> flights.run("k", () -> {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                return "result";
+            }));
+            started.await();
+            Future<String> waiter = pool.submit(() -> flights.run("k", () -> "not run", cancelled::get));
+            awaitCoalesced(coalescedBefore, 1);
+            cancelled.set(true);
+
+            assertTrue(causeOf(waiter) instanceof CancellationException);
+            assertFalse(leader.isDone());
+            release.countDown();
+            assertEquals("result", leader.get());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static Throwable causeOf(Future<?> future) throws InterruptedException {
+        try {
+            future.get();
+        } catch (ExecutionException e) {
+            return e.getCause();
+        }
+        fail("expected a failure");
+        return null;
+    }
+}